@@ -104,6 +104,46 @@ public class AQuestDaoTest extends AndroidDbTestCase
 		assertEquals(2, dao.deleteAll(Arrays.asList(1L, 2L)));
 	}
 
+	public void testDeleteAllInChunks()
+	{
+		int count = AQuestDao.DELETE_CHUNK_SIZE * 2 + 3;
+		Collection<Quest> quests = new ArrayList<>();
+		List<Long> ids = new ArrayList<>();
+		for(int i = 0; i < count; ++i)
+		{
+			quests.add(createQuest(i,0,0, QuestStatus.NEW));
+			ids.add((long) i);
+		}
+		dao.addAll(quests);
+		// not existing
+		ids.add((long) count);
+
+		assertEquals(count, dao.deleteAll(ids));
+		assertTrue(dao.getAll(null, null).isEmpty());
+	}
+
+	public void testDeleteAllNothing()
+	{
+		dao.add(createQuest(1,0,0, QuestStatus.NEW));
+		assertEquals(0, dao.deleteAll(Collections.<Long>emptyList()));
+		assertEquals(1, dao.getAll(null, null).size());
+	}
+
+	public void testUpdateAll()
+	{
+		dao.add(createQuest(1,0,0, QuestStatus.NEW));
+		dao.add(createQuest(2,0,0, QuestStatus.NEW));
+		dao.add(createQuest(3,0,0, QuestStatus.NEW));
+
+		assertEquals(2, dao.updateAll(Arrays.asList(
+				createQuest(1,0,0, QuestStatus.ANSWERED),
+				createQuest(3,0,0, QuestStatus.HIDDEN))));
+
+		assertEquals(QuestStatus.ANSWERED, dao.get(1).getStatus());
+		assertEquals(QuestStatus.NEW, dao.get(2).getStatus());
+		assertEquals(QuestStatus.HIDDEN, dao.get(3).getStatus());
+	}
+
 	public void testUpdateException()
 	{
 		try
@@ -149,6 +189,58 @@ public class AQuestDaoTest extends AndroidDbTestCase
 		assertEquals(2, dao.getCount(bbox, QuestStatus.NEW));
 	}
 
+	public void testIterateAllReadsAllPages()
+	{
+		int count = AQuestDao.ITERATE_PAGE_SIZE * 2 + 1;
+		Collection<Quest> quests = new ArrayList<>();
+		for(int i = 0; i < count; ++i)
+		{
+			quests.add(createQuest(i,0,0, QuestStatus.NEW));
+		}
+		dao.addAll(quests);
+
+		long expectedId = 0;
+		for(Quest quest : dao.iterateAll(null, QuestStatus.NEW))
+		{
+			assertEquals(expectedId++, (long) quest.getId());
+		}
+		assertEquals(count, expectedId);
+	}
+
+	public void testIterateAllWhileModifying()
+	{
+		int count = AQuestDao.ITERATE_PAGE_SIZE * 2 + 1;
+		Collection<Quest> quests = new ArrayList<>();
+		for(int i = 0; i < count; ++i)
+		{
+			quests.add(createQuest(i,0,0, QuestStatus.ANSWERED));
+		}
+		dao.addAll(quests);
+
+		int iterated = 0;
+		for(Quest quest : dao.iterateAll(null, QuestStatus.ANSWERED))
+		{
+			dao.update(createQuest(quest.getId(),0,0, QuestStatus.CLOSED));
+			iterated++;
+		}
+		assertEquals(count, iterated);
+		assertTrue(dao.getAll(null, QuestStatus.ANSWERED).isEmpty());
+	}
+
+	public void testGetAllMarkers()
+	{
+		dao.add(createQuest(1,50.5,1.5, QuestStatus.NEW));
+		dao.add(createQuest(2,50.5,1.5, QuestStatus.HIDDEN));
+		dao.add(createQuest(3,1.5,1.5, QuestStatus.NEW));
+
+		QuestMarkers markers = dao.getAllMarkers(new BoundingBox(50,1,51,2), QuestStatus.NEW);
+		assertEquals(1, markers.size());
+		assertEquals(1, markers.getId(0));
+		assertEquals(TestQuestDao.QUEST_TYPE, markers.getType(0));
+		assertEquals(50.5, markers.getLatitude(0));
+		assertEquals(1.5, markers.getLongitude(0));
+	}
+
 	public void testGetCountWhenEmpty()
 	{
 		assertEquals(0, dao.getCount(new BoundingBox(50,1,51,2), QuestStatus.NEW));
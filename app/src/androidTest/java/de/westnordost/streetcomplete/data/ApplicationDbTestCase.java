@@ -1,7 +1,10 @@
 package de.westnordost.streetcomplete.data;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import de.westnordost.streetcomplete.data.osm.persist.ElementGeometryExtentTable;
 import de.westnordost.streetcomplete.util.KryoSerializer;
 import de.westnordost.streetcomplete.util.Serializer;
 
@@ -28,4 +31,31 @@ public class ApplicationDbTestCase extends AndroidDbTestCase
 		dbHelper.close();
 		super.tearDown();
 	}
+
+	/** Asserts that the given statement is executed via an index and not by scanning through a
+	 *  whole table */
+	protected void assertUsesIndex(String sql, String... args)
+	{
+		SQLiteDatabase db = dbHelper.getReadableDatabase();
+		Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+		try
+		{
+			int colDetail = cursor.getColumnIndexOrThrow("detail");
+			assertTrue(cursor.moveToFirst());
+			while(!cursor.isAfterLast())
+			{
+				String detail = cursor.getString(colDetail);
+				// i.e. "SCAN TABLE osm_quests" (or "SCAN osm_quests" in newer SQLite versions)
+				boolean isFullScan = detail.startsWith("SCAN") &&
+						// this table has only one row
+						!detail.contains(ElementGeometryExtentTable.NAME);
+				assertFalse("Full table scan in: " + sql + "\n" + detail, isFullScan);
+				cursor.moveToNext();
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
 }
@@ -0,0 +1,162 @@
+package de.westnordost.streetcomplete.data;
+
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.streetcomplete.data.osm.persist.OsmQuestDao;
+import de.westnordost.streetcomplete.data.osm.persist.OsmQuestTable;
+import de.westnordost.streetcomplete.data.osmnotes.OsmNoteQuestDao;
+import de.westnordost.streetcomplete.data.osmnotes.OsmNoteQuestTable;
+import de.westnordost.streetcomplete.data.osmnotes.OsmNoteQuestType;
+
+/** Checks that the frequent queries on the quest tables are done via an index and not by scanning
+ *  through the whole table. The queries are built by the DAOs */
+public class QueryPlanTest extends ApplicationDbTestCase
+{
+	private static final BoundingBox BBOX = new BoundingBox(0, 0, 1, 1);
+
+	// the package-private query builders are only reachable via the base class from this package
+	private AQuestDao<?> osmQuestDao;
+	private AQuestDao<?> osmNoteQuestDao;
+
+	@Override public void setUp()
+	{
+		super.setUp();
+		osmQuestDao = new OsmQuestDao(dbHelper, serializer, new QuestTypes(new ArrayList<QuestType>()));
+		osmNoteQuestDao = new OsmNoteQuestDao(dbHelper, serializer, new OsmNoteQuestType());
+	}
+
+	public void testGetOsmQuestsByStatus()
+	{
+		assertSelectionUsesIndex(OsmQuestTable.NAME_MERGED_VIEW,
+				osmQuestDao.createSelection(null, QuestStatus.ANSWERED));
+	}
+
+	public void testGetOsmQuestsByBBoxAndStatus()
+	{
+		assertSelectionUsesIndex(OsmQuestTable.NAME_MERGED_VIEW,
+				osmQuestDao.createSelection(BBOX, QuestStatus.NEW));
+	}
+
+	public void testGetOsmQuestsIntersectingBBoxAndStatus()
+	{
+		assertSelectionUsesIndex(OsmQuestTable.NAME_MERGED_VIEW,
+				osmQuestDao.createIntersectingSelection(BBOX, QuestStatus.NEW));
+	}
+
+	public void testGetAllOsmQuestMarkers()
+	{
+		WhereSelectionBuilder qb = osmQuestDao.createIntersectingSelection(BBOX, QuestStatus.NEW);
+		assertUsesIndex(osmQuestDao.getAllMarkersSql(qb), qb.getArgs());
+	}
+
+	public void testIterateAllOsmQuestsByStatus()
+	{
+		assertPageUsesIndex(osmQuestDao, OsmQuestTable.NAME_MERGED_VIEW,
+				osmQuestDao.createSelection(null, QuestStatus.ANSWERED));
+	}
+
+	public void testIterateAllOsmQuestsByBBoxAndStatus()
+	{
+		assertPageUsesIndex(osmQuestDao, OsmQuestTable.NAME_MERGED_VIEW,
+				osmQuestDao.createSelection(BBOX, QuestStatus.NEW));
+	}
+
+	public void testGetOsmQuestCount()
+	{
+		WhereSelectionBuilder qb = osmQuestDao.createSelection(null, QuestStatus.ANSWERED);
+		assertUsesIndex(osmQuestDao.getCountSql(qb), qb.getArgs());
+	}
+
+	public void testGetLastSolvedOsmQuest()
+	{
+		assertUsesIndex(osmQuestDao.getLastSolvedSql(),
+				QuestStatus.ANSWERED.name(), QuestStatus.CLOSED.name());
+	}
+
+	public void testDeleteOsmQuestsChunk()
+	{
+		assertDeleteChunkUsesIndex(osmQuestDao);
+	}
+
+	public void testDeleteAllClosedOsmQuests()
+	{
+		assertDeleteUsesIndex(OsmQuestTable.NAME, osmQuestDao.createClosedSelection(1000));
+	}
+
+	public void testGetOsmNoteQuestsByStatus()
+	{
+		assertSelectionUsesIndex(OsmNoteQuestTable.NAME_MERGED_VIEW,
+				osmNoteQuestDao.createSelection(null, QuestStatus.ANSWERED));
+	}
+
+	public void testGetOsmNoteQuestsByBBoxAndStatus()
+	{
+		assertSelectionUsesIndex(OsmNoteQuestTable.NAME_MERGED_VIEW,
+				osmNoteQuestDao.createSelection(BBOX, QuestStatus.NEW));
+	}
+
+	public void testGetAllOsmNoteQuestMarkers()
+	{
+		WhereSelectionBuilder qb = osmNoteQuestDao.createIntersectingSelection(BBOX, QuestStatus.NEW);
+		assertUsesIndex(osmNoteQuestDao.getAllMarkersSql(qb), qb.getArgs());
+	}
+
+	public void testIterateAllOsmNoteQuestsByStatus()
+	{
+		assertPageUsesIndex(osmNoteQuestDao, OsmNoteQuestTable.NAME_MERGED_VIEW,
+				osmNoteQuestDao.createSelection(null, QuestStatus.ANSWERED));
+	}
+
+	public void testGetOsmNoteQuestCount()
+	{
+		WhereSelectionBuilder qb = osmNoteQuestDao.createSelection(null, QuestStatus.ANSWERED);
+		assertUsesIndex(osmNoteQuestDao.getCountSql(qb), qb.getArgs());
+	}
+
+	public void testGetLastSolvedOsmNoteQuest()
+	{
+		assertUsesIndex(osmNoteQuestDao.getLastSolvedSql(),
+				QuestStatus.ANSWERED.name(), QuestStatus.CLOSED.name());
+	}
+
+	public void testDeleteOsmNoteQuestsChunk()
+	{
+		assertDeleteChunkUsesIndex(osmNoteQuestDao);
+	}
+
+	public void testDeleteAllClosedOsmNoteQuests()
+	{
+		assertDeleteUsesIndex(OsmNoteQuestTable.NAME, osmNoteQuestDao.createClosedSelection(1000));
+	}
+
+	/** the DAOs query selections with SQLiteDatabase.query, which builds the SQL like this */
+	private void assertSelectionUsesIndex(String table, WhereSelectionBuilder qb)
+	{
+		assertUsesIndex(SQLiteQueryBuilder.buildQueryString(false, table, null, qb.getWhere(),
+				null, null, null, null), qb.getArgs());
+	}
+
+	/** the DAOs delete selections with SQLiteDatabase.delete, which builds the SQL like this */
+	private void assertDeleteUsesIndex(String table, WhereSelectionBuilder qb)
+	{
+		assertUsesIndex("DELETE FROM " + table + " WHERE " + qb.getWhere(), qb.getArgs());
+	}
+
+	private void assertPageUsesIndex(AQuestDao<?> dao, String table, WhereSelectionBuilder qb)
+	{
+		String[] args = Arrays.copyOf(qb.getArgs(), qb.getArgs().length + 1);
+		args[args.length - 1] = "0";
+		assertUsesIndex(dao.getPageSql(table, qb), args);
+	}
+
+	private void assertDeleteChunkUsesIndex(AQuestDao<?> dao)
+	{
+		String[] ids = new String[AQuestDao.DELETE_CHUNK_SIZE];
+		Arrays.fill(ids, "1");
+		assertUsesIndex(dao.getDeleteChunkSql(), ids);
+	}
+}
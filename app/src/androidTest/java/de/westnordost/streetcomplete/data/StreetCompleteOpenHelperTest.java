@@ -1,7 +1,13 @@
 package de.westnordost.streetcomplete.data;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.westnordost.streetcomplete.data.osm.persist.OsmQuestTable;
+
 public class StreetCompleteOpenHelperTest extends AndroidDbTestCase
 {
 	private SQLiteOpenHelper helper;
@@ -28,4 +34,37 @@ public class StreetCompleteOpenHelperTest extends AndroidDbTestCase
 	{
 		assertNotNull(helper.getReadableDatabase());
 	}
+
+	public void testCanReadWhileWriting() throws InterruptedException
+	{
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		final AtomicBoolean hasRead = new AtomicBoolean(false);
+
+		db.beginTransaction();
+		try
+		{
+			Thread reader = new Thread(new Runnable()
+			{
+				@Override public void run()
+				{
+					Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + OsmQuestTable.NAME, null);
+					try
+					{
+						hasRead.set(cursor.moveToFirst());
+					}
+					finally
+					{
+						cursor.close();
+					}
+				}
+			});
+			reader.start();
+			reader.join(5000);
+			assertTrue(hasRead.get());
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+	}
 }
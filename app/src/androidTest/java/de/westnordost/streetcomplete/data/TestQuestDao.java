@@ -17,6 +17,8 @@ import static org.mockito.Mockito.when;
 /** A simple implementation of AQuestDao in order to test the abstract class */
 public class TestQuestDao extends AQuestDao<Quest>
 {
+	public static final QuestType QUEST_TYPE = mock(QuestType.class);
+
 	public static final String TESTDB = "testdb.db";
 
 	private static final String
@@ -45,6 +47,8 @@ public class TestQuestDao extends AQuestDao<Quest>
 	@Override protected String getLatitudeColumnName() { return LAT_COL; }
 	@Override protected String getLongitudeColumnName() { return LON_COL; }
 
+	@Override protected QuestType getQuestType(String questTypeName) { return QUEST_TYPE; }
+
 	@Override protected long executeInsert(Quest quest, boolean replace)
 	{
 		String orWhat = replace ? "REPLACE" : "IGNORE";
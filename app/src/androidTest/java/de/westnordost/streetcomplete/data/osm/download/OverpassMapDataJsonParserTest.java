@@ -0,0 +1,262 @@
+package de.westnordost.streetcomplete.data.osm.download;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LongSparseArray;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.westnordost.osmapi.map.OsmMapDataFactory;
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.OsmLatLon;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.RelationMember;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.streetcomplete.data.osm.ElementGeometry;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class OverpassMapDataJsonParserTest extends TestCase
+{
+	public void testNode()
+	{
+		LatLon pos = new OsmLatLon(51.7463194, 0.2428181);
+
+		String json = "{'type':'node','id':5,'lat':" + pos.getLatitude() +
+				",'lon':" + pos.getLongitude() + ",'timestamp':'2017-01-01T00:00:00Z','version':1}";
+
+		Element e = parseOne(json, null);
+
+		assertTrue(e instanceof Node);
+		Node node = (Node) e;
+		assertEquals(pos, node.getPosition());
+		assertEquals(5, node.getId());
+		assertEquals(1, node.getVersion());
+
+		assertNull(node.getTags());
+	}
+
+	public void testWay()
+	{
+		OsmLatLon[] p = new OsmLatLon[2];
+		p[0] = new OsmLatLon(1,2);
+		p[1] = new OsmLatLon(3,4);
+
+		String json =
+				"{'type':'way','id':8,'version':1," +
+				"'bounds':{'minlat':1,'minlon':2,'maxlat':3,'maxlon':4}," +
+				"'nodes':[2,3]," +
+				"'geometry':[" + toJson(p[0]) + "," + toJson(p[1]) + "]}";
+
+		LongSparseArray<List<LatLon>> expectedGeometry = new LongSparseArray<>();
+		expectedGeometry.put(8, new ArrayList<LatLon>(Arrays.asList(p)));
+
+		Element e = parseOne(json, expectedGeometry);
+
+		assertTrue(e instanceof Way);
+		Way way = (Way) e;
+
+		assertEquals(8, way.getId());
+		assertEquals(1, way.getVersion());
+
+		assertEquals(2, way.getNodeIds().size());
+		assertEquals(2, (long) way.getNodeIds().get(0));
+		assertEquals(3, (long) way.getNodeIds().get(1));
+	}
+
+	public void testWayWithUnknownNodePositions()
+	{
+		OsmLatLon p = new OsmLatLon(1,2);
+
+		String json = "{'type':'way','id':8,'version':1,'nodes':[2,3]," +
+				"'geometry':[" + toJson(p) + ",null]}";
+
+		LongSparseArray<List<LatLon>> expectedGeometry = new LongSparseArray<>();
+		expectedGeometry.put(8, new ArrayList<LatLon>(Arrays.asList(new OsmLatLon[]{p})));
+
+		assertTrue(parseOne(json, expectedGeometry) instanceof Way);
+	}
+
+	public void testRelation()
+	{
+		OsmLatLon[] p = new OsmLatLon[5];
+		p[0] = new OsmLatLon(1,2);
+		p[1] = new OsmLatLon(3,4);
+		p[2] = new OsmLatLon(5,6);
+		p[3] = new OsmLatLon(7,8);
+		p[4] = new OsmLatLon(9,10);
+
+		String json =
+				"{'type':'relation','id':10,'version':1,'members':[" +
+				" {'type':'relation','ref':4,'role':''}," +
+				" {'type':'way','ref':1,'role':'outer','geometry':[" + toJson(p[0]) + "," + toJson(p[1]) + "]}," +
+				" {'type':'way','ref':2,'role':'inner','geometry':[" + toJson(p[2]) + "," + toJson(p[3]) + "]}," +
+				" {'type':'node','ref':3,'role':'point','lat':" + p[4].getLatitude() + ",'lon':" + p[4].getLongitude() + "}" +
+				"]}";
+
+		LongSparseArray<List<LatLon>> expectedGeometry = new LongSparseArray<>();
+		expectedGeometry.put(1, new ArrayList<LatLon>(Arrays.asList(new OsmLatLon[]{p[0], p[1]})));
+		expectedGeometry.put(2, new ArrayList<LatLon>(Arrays.asList(new OsmLatLon[]{p[2], p[3]})));
+
+		Element e = parseOne(json, expectedGeometry);
+
+		assertTrue(e instanceof Relation);
+		Relation relation = (Relation) e;
+
+		assertEquals(10, relation.getId());
+		assertEquals(1, relation.getVersion());
+
+		assertEquals(4, relation.getMembers().size());
+		RelationMember rm[] = new RelationMember[relation.getMembers().size()];
+		relation.getMembers().toArray(rm);
+
+		assertEquals(4, rm[0].getRef());
+		assertEquals(Element.Type.RELATION, rm[0].getType());
+		assertEquals("", rm[0].getRole());
+
+		assertEquals(1, rm[1].getRef());
+		assertEquals(Element.Type.WAY, rm[1].getType());
+		assertEquals("outer", rm[1].getRole());
+
+		assertEquals(2, rm[2].getRef());
+		assertEquals(Element.Type.WAY, rm[2].getType());
+		assertEquals("inner", rm[2].getRole());
+
+		assertEquals(3, rm[3].getRef());
+		assertEquals(Element.Type.NODE, rm[3].getType());
+		assertEquals("point", rm[3].getRole());
+
+		assertNull(relation.getTags());
+	}
+
+	public void testTags()
+	{
+		String json = "{'type':'relation','id':1,'version':1,'members':[],'tags':{'a':'b','c':'d'}}";
+
+		Element element = parseOne(json, null);
+
+		assertNotNull(element.getTags());
+		assertEquals(2, element.getTags().size());
+
+		assertEquals("b", element.getTags().get("a"));
+		assertEquals("d", element.getTags().get("c"));
+	}
+
+	public void testParseSeveral() throws IOException
+	{
+		String json =
+				"{'version':0.6,'generator':'Overpass API','osm3s':{'copyright':'ODbL'},'elements':[\n" +
+				"{'type':'node','id':1,'version':1,'lat':1,'lon':4},\n" +
+				"{'type':'way','id':1,'version':1,'nodes':[2,3],'geometry':[{'lat':1,'lon':3},{'lat':2,'lon':4}]},\n" +
+				"{'type':'relation','id':1,'version':1,'members':[" +
+				"{'type':'way','ref':2,'role':'inner','geometry':[{'lat':1,'lon':3},{'lat':2,'lon':4}]}]}\n" +
+				"],'remark':'something'}";
+
+		OverpassMapDataJsonParser parser = new OverpassMapDataJsonParser(
+				new TestElementGeometryCreator(null), new OsmMapDataFactory());
+
+		MapDataWithGeometryHandler mockHandler = mock(MapDataWithGeometryHandler.class);
+
+		parser.setHandler(mockHandler);
+		parser.parse(asInputStream(json));
+
+		verify(mockHandler, times(3)).handle(any(Element.class), isNull(ElementGeometry.class));
+	}
+
+	private Element parseOne(String elementJson, LongSparseArray<List<LatLon>> expectedGeometry)
+	{
+		SingleElementHandler handler = new SingleElementHandler();
+		OverpassMapDataJsonParser parser = new OverpassMapDataJsonParser(
+				new TestElementGeometryCreator(expectedGeometry), new OsmMapDataFactory());
+		parser.setHandler(handler);
+		try
+		{
+			parser.parse(asInputStream("{'elements':[" + elementJson + "]}"));
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+
+		return handler.element;
+	}
+
+	private static String toJson(LatLon pos)
+	{
+		return "{'lat':" + pos.getLatitude() + ",'lon':" + pos.getLongitude() + "}";
+	}
+
+	private class SingleElementHandler implements MapDataWithGeometryHandler
+	{
+		Element element;
+		@Override public void handle(@NonNull Element element, @Nullable ElementGeometry geometry)
+		{
+			this.element = element;
+		}
+	}
+
+	/** Does not actually create the geometry but only tests if the necessary data is available when
+	 *  it's methods are called */
+	private class TestElementGeometryCreator extends ElementGeometryCreator
+	{
+		private LongSparseArray<List<LatLon>> expectedGeometry;
+
+		public TestElementGeometryCreator(LongSparseArray<List<LatLon>> expectedGeometry)
+		{
+			this.expectedGeometry = expectedGeometry;
+		}
+
+		@Override public ElementGeometry create(Node node)
+		{
+			return null;
+		}
+
+		@Override public ElementGeometry create(Way way)
+		{
+			if(expectedGeometry == null) return null;
+
+			assertEquals(expectedGeometry.get(way.getId()), data.getNodePositions(way.getId()));
+
+			return null;
+		}
+
+		@Override public ElementGeometry create(Relation relation)
+		{
+			if(expectedGeometry == null) return null;
+
+			for(RelationMember rm : relation.getMembers())
+			{
+				if(rm.getType() == Element.Type.WAY)
+				{
+					assertEquals(expectedGeometry.get(rm.getRef()), data.getNodePositions(rm.getRef()));
+				}
+			}
+			return null;
+		}
+	}
+
+	private static InputStream asInputStream(String str)
+	{
+		try
+		{
+			// single quotes are used above for readability
+			return new ByteArrayInputStream(str.replace('\'', '"').getBytes("UTF-8"));
+		}
+		catch (UnsupportedEncodingException e) {}
+		return null;
+	}
+}
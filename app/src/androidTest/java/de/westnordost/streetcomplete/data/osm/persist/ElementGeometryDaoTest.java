@@ -20,7 +20,7 @@ public class ElementGeometryDaoTest extends ApplicationDbTestCase
 	@Override public void setUp()
 	{
 		super.setUp();
-		dao = new ElementGeometryDao(dbHelper, serializer);
+		dao = new ElementGeometryDao(dbHelper);
 	}
 
 	public void testGetNull()
@@ -96,6 +96,20 @@ public class ElementGeometryDaoTest extends ApplicationDbTestCase
 		assertEquals(0, dao.deleteUnreferenced());
 	}
 
+	public void testDeleteUnreferencedDistinguishesElementTypes()
+	{
+		ElementGeometry geometry = createSimpleGeometry();
+
+		dao.put(Element.Type.WAY, 1, geometry);
+		dao.put(Element.Type.NODE, 1, geometry);
+		new OsmQuestDao(dbHelper, serializer, null).add(
+				new OsmQuest(Mockito.mock(OsmElementQuestType.class), Element.Type.NODE, 1, geometry));
+
+		assertEquals(1, dao.deleteUnreferenced());
+		assertNull(dao.get(Element.Type.WAY, 1));
+		assertNotNull(dao.get(Element.Type.NODE, 1));
+	}
+
 	private ElementGeometry createSimpleGeometry()
 	{
 		return new ElementGeometry(new OsmLatLon(50,50));
@@ -17,7 +17,7 @@ public class NodeDaoTest extends ApplicationDbTestCase
 	@Override public void setUp()
 	{
 		super.setUp();
-		dao = new NodeDao(dbHelper, serializer);
+		dao = new NodeDao(dbHelper);
 	}
 
 	public void testPutGetNoTags()
@@ -1,13 +1,20 @@
 package de.westnordost.streetcomplete.data.osm.persist;
 
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.graphics.Point;
+import android.graphics.Rect;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
 import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.streetcomplete.ApplicationConstants;
 import de.westnordost.streetcomplete.data.ApplicationDbTestCase;
 import de.westnordost.streetcomplete.data.QuestStatus;
 import de.westnordost.streetcomplete.data.QuestType;
+import de.westnordost.streetcomplete.data.WhereSelectionBuilder;
 import de.westnordost.streetcomplete.data.osm.ElementGeometry;
 import de.westnordost.streetcomplete.data.osm.OsmQuest;
 import de.westnordost.streetcomplete.data.osm.changes.StringMapChanges;
@@ -18,7 +25,9 @@ import de.westnordost.streetcomplete.data.osm.changes.StringMapEntryModify;
 import de.westnordost.streetcomplete.data.QuestTypes;
 import de.westnordost.streetcomplete.data.osm.persist.test.TestQuestType;
 import de.westnordost.streetcomplete.data.osm.persist.test.TestQuestType2;
+import de.westnordost.streetcomplete.util.SlippyMapMath;
 import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.LatLon;
 import de.westnordost.osmapi.map.data.OsmLatLon;
 
 public class OsmQuestDaoTest extends ApplicationDbTestCase
@@ -29,7 +38,7 @@ public class OsmQuestDaoTest extends ApplicationDbTestCase
 	@Override public void setUp()
 	{
 		super.setUp();
-		geometryDao = new ElementGeometryDao(dbHelper, serializer);
+		geometryDao = new ElementGeometryDao(dbHelper);
 		List<QuestType> list = new ArrayList<>();
 		list.add(new TestQuestType());
 		list.add(new TestQuestType2());
@@ -77,6 +86,24 @@ public class OsmQuestDaoTest extends ApplicationDbTestCase
 		assertEquals(2,dao.getAll(null, null, null, null, null).size());
 	}
 
+	public void testGetAllIntersectingByBBox()
+	{
+		List<List<LatLon>> polylines = new ArrayList<>();
+		polylines.add(Arrays.<LatLon>asList(new OsmLatLon(5,5), new OsmLatLon(20,20)));
+		// center is outside of the bbox, but the line crosses it
+		ElementGeometry geometry = new ElementGeometry(polylines, null, new OsmLatLon(15,15));
+		OsmQuest quest1 = createNewQuest(11, Element.Type.WAY, geometry);
+		OsmQuest quest2 = createNewQuest(12, Element.Type.NODE, new ElementGeometry(new OsmLatLon(11,11)));
+
+		addToDaos(quest1, quest2);
+
+		BoundingBox bbox = new BoundingBox(0,0,10,10);
+		assertEquals(0,dao.getAll(bbox, null).size());
+		List<OsmQuest> quests = dao.getAllIntersecting(bbox, null);
+		assertEquals(1,quests.size());
+		assertEquals(11,quests.get(0).getElementId());
+	}
+
 	public void testGetAllByElementTypeAndId()
 	{
 		OsmQuest quest1 = createNewQuest(11, Element.Type.NODE);
@@ -121,6 +148,64 @@ public class OsmQuestDaoTest extends ApplicationDbTestCase
 		assertEquals(2,dao.deleteAllClosed(System.currentTimeMillis() + 10000L));
 	}
 
+	public void testGetNewQuestCount()
+	{
+		LatLon pos = new OsmLatLon(5,5);
+		Point tile = SlippyMapMath.enclosingTile(pos, ApplicationConstants.QUEST_TILE_ZOOM);
+		Rect tiles = new Rect(tile.x, tile.y, tile.x, tile.y);
+		Rect otherTiles = new Rect(0, 0, 1, 1);
+
+		OsmQuest quest1 = createNewQuest(1, Element.Type.NODE);
+		quest1.setStatus(QuestStatus.NEW);
+		OsmQuest quest2 = createNewQuest(2, Element.Type.NODE);
+		quest2.setStatus(QuestStatus.NEW);
+		OsmQuest quest3 = createNewQuest(3, Element.Type.NODE);
+
+		assertEquals(0, dao.getNewQuestCount(tiles));
+
+		addToDaos(quest1, quest2, quest3);
+		assertEquals(2, dao.getNewQuestCount(tiles));
+		assertEquals(0, dao.getNewQuestCount(otherTiles));
+
+		// updated but still new
+		dao.update(quest1);
+		assertEquals(2, dao.getNewQuestCount(tiles));
+
+		quest1.setStatus(QuestStatus.ANSWERED);
+		dao.update(quest1);
+		assertEquals(1, dao.getNewQuestCount(tiles));
+
+		quest3.setStatus(QuestStatus.NEW);
+		dao.replace(quest3);
+		assertEquals(2, dao.getNewQuestCount(tiles));
+
+		dao.delete(quest2.getId());
+		assertEquals(1, dao.getNewQuestCount(tiles));
+	}
+
+	public void testGetNewQuestCountUsesIndex()
+	{
+		assertUsesIndex(dao.getNewQuestCountSql(), "0", "1", "0", "1");
+	}
+
+	public void testGetAllByElementUsesIndex()
+	{
+		assertSelectionUsesIndex(dao.createSelection(null, null, null, Element.Type.NODE, 1L));
+	}
+
+	public void testGetAllByBBoxAndQuestTypeUsesIndex()
+	{
+		BoundingBox bbox = new BoundingBox(0, 0, 1, 1);
+		assertSelectionUsesIndex(dao.createSelection(bbox, null, "AddRoadName", null, null));
+	}
+
+	private void assertSelectionUsesIndex(WhereSelectionBuilder qb)
+	{
+		// built like SQLiteDatabase.query does
+		assertUsesIndex(SQLiteQueryBuilder.buildQueryString(false, OsmQuestTable.NAME_MERGED_VIEW,
+				null, qb.getWhere(), null, null, null, null), qb.getArgs());
+	}
+
 	private void checkEqual(OsmQuest quest, OsmQuest dbQuest)
 	{
 		assertEquals(quest.getId(), dbQuest.getId());
@@ -19,7 +19,7 @@ public class RelationDaoTest extends ApplicationDbTestCase
 	@Override public void setUp()
 	{
 		super.setUp();
-		dao = new RelationDao(dbHelper, serializer);
+		dao = new RelationDao(dbHelper);
 	}
 
 	public void testPutGetNoTags()
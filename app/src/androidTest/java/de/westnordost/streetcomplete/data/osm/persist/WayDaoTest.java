@@ -16,7 +16,7 @@ public class WayDaoTest extends ApplicationDbTestCase
 	@Override public void setUp()
 	{
 		super.setUp();
-		dao = new WayDao(dbHelper, serializer);
+		dao = new WayDao(dbHelper);
 	}
 
 	public void testPutGetNoTags()
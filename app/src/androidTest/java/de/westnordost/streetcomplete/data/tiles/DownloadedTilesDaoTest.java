@@ -4,6 +4,7 @@ import android.graphics.Point;
 import android.graphics.Rect;
 
 import java.util.List;
+import java.util.Map;
 
 import de.westnordost.streetcomplete.data.ApplicationDbTestCase;
 
@@ -84,4 +85,33 @@ public class DownloadedTilesDaoTest extends ApplicationDbTestCase
 		check = dao.get(new Rect(0,0,6,6),0);
 		assertTrue(check.isEmpty());
 	}
+
+	public void testGetOldestDownloadDates() throws InterruptedException
+	{
+		dao.put(new Rect(0,0,1,1), "Huhu");
+		long afterFirstPut = System.currentTimeMillis();
+		Thread.sleep(10);
+		dao.put(new Rect(1,1,1,1), "Huhu");
+		dao.put(new Rect(0,0,0,0), "Haha");
+
+		Map<String, Long> dates = dao.getOldestDownloadDates(new Rect(0,0,1,1), 0);
+		assertEquals(1, dates.size());
+		assertTrue(dates.get("Huhu") <= afterFirstPut);
+
+		assertTrue(dao.getOldestDownloadDates(new Rect(0,0,1,1), afterFirstPut).isEmpty());
+	}
+
+	public void testPutRefreshed() throws InterruptedException
+	{
+		dao.put(new Rect(0,0,1,1), "Huhu");
+		long afterPut = System.currentTimeMillis();
+		Thread.sleep(10);
+		dao.putRefreshed(new Rect(0,0,1,1), "Huhu");
+
+		// counts as downloaded...
+		assertFalse(dao.get(new Rect(0,0,1,1), afterPut).isEmpty());
+		// ...but not as fully downloaded
+		assertTrue(dao.getOldestDownloadDates(new Rect(0,0,1,1), afterPut).isEmpty());
+		assertTrue(dao.getOldestDownloadDates(new Rect(0,0,1,1), 0).get("Huhu") > afterPut);
+	}
 }
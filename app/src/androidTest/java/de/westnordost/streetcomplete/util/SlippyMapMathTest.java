@@ -43,4 +43,27 @@ public class SlippyMapMathTest extends TestCase
 
 		assertEquals(ps, SlippyMapMath.asTileList(new Rect(1,1,2,2)));
 	}
+
+	public void testSplitIntoQuadrants()
+	{
+		List<Rect> quadrants = SlippyMapMath.splitIntoQuadrants(new Rect(0,0,3,2));
+		assertEquals(4, quadrants.size());
+		assertEquals(new Rect(0,0,1,1), quadrants.get(0));
+		assertEquals(new Rect(2,0,3,1), quadrants.get(1));
+		assertEquals(new Rect(0,2,1,2), quadrants.get(2));
+		assertEquals(new Rect(2,2,3,2), quadrants.get(3));
+	}
+
+	public void testSplitRowIntoQuadrants()
+	{
+		List<Rect> quadrants = SlippyMapMath.splitIntoQuadrants(new Rect(5,5,6,5));
+		assertEquals(2, quadrants.size());
+		assertEquals(new Rect(5,5,5,5), quadrants.get(0));
+		assertEquals(new Rect(6,5,6,5), quadrants.get(1));
+	}
+
+	public void testSplitSingleTileIntoQuadrants()
+	{
+		assertTrue(SlippyMapMath.splitIntoQuadrants(new Rect(5,5,5,5)).isEmpty());
+	}
 }
@@ -22,7 +22,15 @@ public class ApplicationConstants
 
 	public final static int QUEST_TILE_ZOOM = 14;
 
+	/** number of quest downloads that run at the same time. Should not be more than the number of
+	 *  slots the Overpass server allows per IP (which is 2 for the public instance) */
+	public final static int QUEST_DOWNLOAD_THREADS = 2;
+
 	/** a "best before" duration for quests. Quests will not be downloaded again for any tile
 	 *  before the time expired */
 	public static final int REFRESH_QUESTS_AFTER = 7*24*60*60*1000; // one week in ms
+
+	/** Until this duration passed since quests have been downloaded the last time fully, only the
+	 *  changes are downloaded to refresh them. See OsmQuestDownload.refresh */
+	public static final long REFRESH_QUESTS_FULLY_AFTER = 4L*REFRESH_QUESTS_AFTER; // four weeks in ms
 }
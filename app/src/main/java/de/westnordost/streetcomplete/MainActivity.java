@@ -55,6 +55,7 @@ import de.westnordost.streetcomplete.data.QuestController;
 import de.westnordost.streetcomplete.data.download.QuestDownloadProgressListener;
 import de.westnordost.streetcomplete.data.download.QuestDownloadService;
 import de.westnordost.streetcomplete.data.QuestGroup;
+import de.westnordost.streetcomplete.data.QuestMarkers;
 import de.westnordost.streetcomplete.data.VisibleQuestListener;
 import de.westnordost.streetcomplete.data.osm.OsmQuest;
 import de.westnordost.streetcomplete.data.upload.VersionBannedException;
@@ -635,20 +636,38 @@ public class MainActivity extends AppCompatActivity implements
 	@Override public void onQuestsCreated(Collection<? extends Quest> quests, QuestGroup group)
 	{
 		mapFragment.addQuests(quests, group);
-		// to recreate element geometry of selected quest (if any) after recreation of activity
 		if(getQuestDetailsFragment() != null)
 		{
 			for (Quest q : quests)
 			{
-				if (isQuestDetailsCurrentlyDisplayedFor(q.getId(), group))
-				{
-					questController.retrieve(group, q.getId());
-					return;
-				}
+				if (recreateQuestGeometryIfDisplayed(q.getId(), group)) return;
 			}
 		}
 	}
 
+	@AnyThread
+	@Override public void onQuestMarkersCreated(QuestMarkers markers, QuestGroup group)
+	{
+		mapFragment.addQuestMarkers(markers, group);
+		if(getQuestDetailsFragment() != null)
+		{
+			for (int i = 0; i < markers.size(); ++i)
+			{
+				if (recreateQuestGeometryIfDisplayed(markers.getId(i), group)) return;
+			}
+		}
+	}
+
+	/** To recreate element geometry of selected quest (if any) after recreation of activity:
+	 *  retrieves the given quest again if its details are displayed
+	 *  @return whether it is the quest whose details are displayed */
+	private boolean recreateQuestGeometryIfDisplayed(long questId, QuestGroup group)
+	{
+		if (!isQuestDetailsCurrentlyDisplayedFor(questId, group)) return false;
+		questController.retrieve(group, questId);
+		return true;
+	}
+
 	@AnyThread
 	@Override public synchronized void onQuestCreated(final Quest quest, final QuestGroup group,
 														final Element element)
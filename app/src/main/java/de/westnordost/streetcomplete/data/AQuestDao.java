@@ -4,11 +4,17 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import de.westnordost.osmapi.map.data.BoundingBox;
 
@@ -16,7 +22,16 @@ public abstract class AQuestDao<T extends Quest>
 {
     private static final String TAG = "QuestDao";
 
-	private final SQLiteOpenHelper dbHelper;
+	/** number of quests that are read from the database at once when iterating over them */
+	static final int ITERATE_PAGE_SIZE = 100;
+
+	/** number of quests that are deleted with one statement. SQLite allows at most 999 parameters
+	 *  per statement */
+	static final int DELETE_CHUNK_SIZE = 500;
+
+	protected final SQLiteOpenHelper dbHelper;
+
+	private SQLiteStatement deleteChunk;
 
 	public AQuestDao(SQLiteOpenHelper dbHelper)
 	{
@@ -42,9 +57,7 @@ public abstract class AQuestDao<T extends Quest>
 
 	public List<T> getAll(BoundingBox bbox, QuestStatus status)
 	{
-		WhereSelectionBuilder qb = new WhereSelectionBuilder();
-		addBBox(bbox, qb);
-		addQuestStatus(status, qb);
+		WhereSelectionBuilder qb = createSelection(bbox, status);
 
 		return getAllThings(getMergedViewName(), null, qb, new CreateFromCursor<T>()
 		{
@@ -55,15 +68,102 @@ public abstract class AQuestDao<T extends Quest>
 		});
 	}
 
+	/** Like getAll, but returns all quests whose geometry intersects the given bounding box, not
+	 *  only those whose center is within it */
+	public List<T> getAllIntersecting(BoundingBox bbox, QuestStatus status)
+	{
+		WhereSelectionBuilder qb = createIntersectingSelection(bbox, status);
+
+		return getAllThings(getMergedViewName(), null, qb, new CreateFromCursor<T>()
+		{
+			@Override public T create(Cursor cursor)
+			{
+				return createObjectFrom(cursor);
+			}
+		});
+	}
+
+	/** Like getAll, but the quests are read from the database while iterating over them */
+	public Iterable<T> iterateAll(BoundingBox bbox, QuestStatus status)
+	{
+		WhereSelectionBuilder qb = createSelection(bbox, status);
+
+		return iterateAllThings(getMergedViewName(), qb, new CreateFromCursor<T>()
+		{
+			@Override public T create(Cursor cursor)
+			{
+				return createObjectFrom(cursor);
+			}
+		});
+	}
+
+	/** Like getAllIntersecting, but the quests are read from the database while iterating over
+	 *  them */
+	public Iterable<T> iterateAllIntersecting(BoundingBox bbox, QuestStatus status)
+	{
+		WhereSelectionBuilder qb = createIntersectingSelection(bbox, status);
+
+		return iterateAllThings(getMergedViewName(), qb, new CreateFromCursor<T>()
+		{
+			@Override public T create(Cursor cursor)
+			{
+				return createObjectFrom(cursor);
+			}
+		});
+	}
+
+	/** @return the id, type and position of all quests whose geometry intersects the given
+	 *          bounding box. Only these columns are read, so this is much faster than getting the
+	 *          whole quests */
+	public QuestMarkers getAllMarkers(BoundingBox bbox, QuestStatus status)
+	{
+		WhereSelectionBuilder qb = createIntersectingSelection(bbox, status);
+
+		String questTypeCol = getQuestTypeColumnName();
+
+		SQLiteDatabase db = dbHelper.getReadableDatabase();
+		Cursor cursor = db.rawQuery(getAllMarkersSql(qb), qb.getArgs());
+
+		QuestMarkers result = new QuestMarkers(cursor.getCount());
+		List<Long> invalidIds = new ArrayList<>();
+
+		try
+		{
+			if(cursor.moveToFirst())
+			{
+				while(!cursor.isAfterLast())
+				{
+					String questTypeName = questTypeCol != null ? cursor.getString(3) : null;
+					QuestType questType = getQuestType(questTypeName);
+					if(questType != null)
+					{
+						result.add(cursor.getLong(0), questType, cursor.getDouble(1), cursor.getDouble(2));
+					}
+					else
+					{
+						Log.e(TAG, "The quest type " + questTypeName + " does not exist!");
+						invalidIds.add(cursor.getLong(0));
+					}
+					cursor.moveToNext();
+				}
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+
+		deleteInvalid(invalidIds);
+
+		return result;
+	}
+
 	public T getLastSolved()
 	{
 		SQLiteDatabase db = dbHelper.getReadableDatabase();
 
-		String questStatus = getQuestStatusColumnName();
-		String query = questStatus + " = ? OR " + questStatus + " = ?";
 		String[] args = {QuestStatus.ANSWERED.name(), QuestStatus.CLOSED.name()};
-		String orderBy = getLastChangedColumnName() + " DESC";
-		Cursor cursor = db.query(getMergedViewName(),null,query,args,null,null,orderBy,"1");
+		Cursor cursor = db.rawQuery(getLastSolvedSql(), args);
 
 		try
 		{
@@ -80,12 +180,9 @@ public abstract class AQuestDao<T extends Quest>
 	{
 		SQLiteDatabase db = dbHelper.getReadableDatabase();
 
-		WhereSelectionBuilder qb = new WhereSelectionBuilder();
-		addBBox(bbox, qb);
-		addQuestStatus(status, qb);
+		WhereSelectionBuilder qb = createSelection(bbox, status);
 
-		Cursor cursor = db.query(getMergedViewName(), new String[]{"COUNT(*)"},
-				qb.getWhere(), qb.getArgs(), null, null, null, null);
+		Cursor cursor = db.rawQuery(getCountSql(qb), qb.getArgs());
 
 		try
 		{
@@ -98,6 +195,86 @@ public abstract class AQuestDao<T extends Quest>
 		}
 	}
 
+	/* The SQL of the frequent queries is built by the following package-private methods, so that
+	   their query plans can be checked in tests */
+
+	/** @return the selection of quests with the given status whose center is in the given bbox */
+	WhereSelectionBuilder createSelection(BoundingBox bbox, QuestStatus status)
+	{
+		WhereSelectionBuilder qb = new WhereSelectionBuilder();
+		addBBox(bbox, qb);
+		addQuestStatus(status, bbox == null, qb);
+		return qb;
+	}
+
+	/** @return the selection of quests with the given status whose geometry intersects the given
+	 *          bbox */
+	WhereSelectionBuilder createIntersectingSelection(BoundingBox bbox, QuestStatus status)
+	{
+		WhereSelectionBuilder qb = new WhereSelectionBuilder();
+		addBBoxIntersecting(bbox, qb);
+		addQuestStatus(status, bbox == null, qb);
+		return qb;
+	}
+
+	String getAllMarkersSql(WhereSelectionBuilder selection)
+	{
+		String questTypeCol = getQuestTypeColumnName();
+		String[] cols = questTypeCol != null ?
+				new String[]{getIdColumnName(), getLatitudeColumnName(), getLongitudeColumnName(), questTypeCol} :
+				new String[]{getIdColumnName(), getLatitudeColumnName(), getLongitudeColumnName()};
+		return SQLiteQueryBuilder.buildQueryString(false, getMergedViewName(), cols,
+				selection.getWhere(), null, null, null, null);
+	}
+
+	String getCountSql(WhereSelectionBuilder selection)
+	{
+		return SQLiteQueryBuilder.buildQueryString(false, getMergedViewName(),
+				new String[]{"COUNT(*)"}, selection.getWhere(), null, null, null, null);
+	}
+
+	/** @return SQL with the arguments ANSWERED and CLOSED */
+	String getLastSolvedSql()
+	{
+		String questStatus = getQuestStatusColumnName();
+		String where = questStatus + " = ? OR " + questStatus + " = ?";
+		String orderBy = getLastChangedColumnName() + " DESC";
+		return SQLiteQueryBuilder.buildQueryString(false, getMergedViewName(), null, where,
+				null, null, orderBy, "1");
+	}
+
+	/** @return SQL for a page of the things in the given selection. The last argument is the id of
+	 *          the last thing of the previous page */
+	String getPageSql(String tablename, WhereSelectionBuilder selection)
+	{
+		String selectionWhere = selection.getWhere();
+		String where = (selectionWhere.isEmpty() ? "" : "(" + selectionWhere + ") AND ") +
+				getIdColumnName() + " > ?";
+		return SQLiteQueryBuilder.buildQueryString(false, tablename, null, where, null, null,
+				getIdColumnName() + " ASC", String.valueOf(ITERATE_PAGE_SIZE));
+	}
+
+	/** @return SQL that deletes DELETE_CHUNK_SIZE quests by id */
+	String getDeleteChunkSql()
+	{
+		StringBuilder sql = new StringBuilder("DELETE FROM " + getTableName() + " WHERE " +
+				getIdColumnName() + " IN (?");
+		for(int i = 1; i < DELETE_CHUNK_SIZE; ++i) sql.append(",?");
+		sql.append(")");
+		return sql.toString();
+	}
+
+	/** @return the selection of closed and reverted quests last changed before the given time */
+	WhereSelectionBuilder createClosedSelection(long olderThan)
+	{
+		String statusCol = getQuestStatusColumnName();
+		WhereSelectionBuilder qb = new WhereSelectionBuilder();
+		qb.appendAnd("(" + statusCol + " = ? OR " + statusCol + " = ?)",
+				QuestStatus.CLOSED.name(), QuestStatus.REVERT.name());
+		qb.appendAnd(getLastChangedColumnName() + " < ?", String.valueOf(olderThan));
+		return qb;
+	}
+
 	protected final void addBBox(BoundingBox bbox, WhereSelectionBuilder builder)
 	{
 		if(bbox != null)
@@ -111,11 +288,36 @@ public abstract class AQuestDao<T extends Quest>
 		}
 	}
 
-	protected final void addQuestStatus(QuestStatus status, WhereSelectionBuilder builder)
+	protected final void addBBoxIntersecting(BoundingBox bbox, WhereSelectionBuilder builder)
+	{
+		if(bbox != null)
+		{
+			/* a geometry that reaches into the bbox cannot start further south than the largest
+			   extent of any geometry. This gives the range scan on the min latitude a lower bound */
+			builder.appendAnd("(" + getMinLatitudeColumnName() + " BETWEEN ? - " +
+							getMaxLatitudeExtent() + " AND ?)",
+					String.valueOf(bbox.getMinLatitude()),
+					String.valueOf(bbox.getMaxLatitude()));
+			builder.appendAnd("(" + getMaxLatitudeColumnName() + " >= ?)",
+					String.valueOf(bbox.getMinLatitude()));
+			builder.appendAnd("(" + getMinLongitudeColumnName() + " <= ?)",
+					String.valueOf(bbox.getMaxLongitude()));
+			builder.appendAnd("(" + getMaxLongitudeColumnName() + " >= ?)",
+					String.valueOf(bbox.getMinLongitude()));
+		}
+	}
+
+	/** @param useIndex whether SQLite may use the index on the quest status. If the quests are also
+	 *                  searched by bounding box, the spatial index is much more selective because
+	 *                  most quests have the same status */
+	protected final void addQuestStatus(QuestStatus status, boolean useIndex,
+										WhereSelectionBuilder builder)
 	{
 		if(status != null)
 		{
-			builder.appendAnd(getQuestStatusColumnName() + " = ?", status.name());
+			// an unary + prevents SQLite from using an index for the column
+			String col = useIndex ? getQuestStatusColumnName() : "+" + getQuestStatusColumnName();
+			builder.appendAnd(col + " = ?", status.name());
 		}
 	}
 
@@ -129,40 +331,137 @@ public abstract class AQuestDao<T extends Quest>
 
 		List<E> result = new ArrayList<>();
 
-        List<Long> invalidIds = new ArrayList<>();
+		List<Long> invalidIds = new ArrayList<>();
 
 		try
 		{
-			if(cursor.moveToFirst())
+			createAllFrom(cursor, creator, result, invalidIds);
+		}
+		finally
+		{
+			cursor.close();
+		}
+
+		deleteInvalid(invalidIds);
+
+		return result;
+	}
+
+	/** Like getAllThings, but the things are read from the database only page by page while
+	 *  iterating, so that not all of them need to be held in memory at once */
+	protected final <E> Iterable<E> iterateAllThings(final String tablename,
+			final WhereSelectionBuilder query, final CreateFromCursor<E> creator)
+	{
+		return new Iterable<E>()
+		{
+			@Override public Iterator<E> iterator()
 			{
-				while(!cursor.isAfterLast())
+				return new PagedIterator<E>(tablename, query, creator);
+			}
+		};
+	}
+
+	private <E> void createAllFrom(Cursor cursor, CreateFromCursor<E> creator, List<E> result,
+								   List<Long> invalidIds)
+	{
+		if(cursor.moveToFirst())
+		{
+			while(!cursor.isAfterLast())
+			{
+				try
 				{
-                    try
-					{
-                        result.add(creator.create(cursor));
-                    }
-                    catch (Exception e)
-                    {
-                        Log.e(TAG,"Getting quest from db caused an exception",e);
-                        int idCol = cursor.getColumnIndex(getIdColumnName());
-                        invalidIds.add(cursor.getLong(idCol));
-                    }
-					cursor.moveToNext();
+					result.add(creator.create(cursor));
+				}
+				catch (Exception e)
+				{
+					Log.e(TAG,"Getting quest from db caused an exception",e);
+					int idCol = cursor.getColumnIndex(getIdColumnName());
+					invalidIds.add(cursor.getLong(idCol));
 				}
+				cursor.moveToNext();
 			}
 		}
-		finally
+	}
+
+	private void deleteInvalid(List<Long> invalidIds)
+	{
+		if(!invalidIds.isEmpty())
 		{
-			cursor.close();
+			Log.i(TAG, "The previously encountered corrupt quests are now removed from database");
+			deleteAll(invalidIds);
 		}
+	}
 
-		if(!invalidIds.isEmpty())
-        {
-            Log.i(TAG, "The previously encountered corrupt quests are now removed from database");
-            deleteAll(invalidIds);
-        }
+	/** Reads the things ordered by id one page after another. As each page is read completely
+	 *  before it is iterated, the things may be modified while iterating over them */
+	private class PagedIterator<E> implements Iterator<E>
+	{
+		private final String sql;
+		private final String[] args;
+		private final CreateFromCursor<E> creator;
 
-		return result;
+		private Iterator<E> page = Collections.<E>emptyList().iterator();
+		private long lastId = Long.MIN_VALUE;
+		private boolean isLastPage = false;
+
+		PagedIterator(String tablename, WhereSelectionBuilder query, CreateFromCursor<E> creator)
+		{
+			this.creator = creator;
+
+			sql = getPageSql(tablename, query);
+			String[] queryArgs = query.getArgs();
+			args = Arrays.copyOf(queryArgs, queryArgs.length + 1);
+		}
+
+		@Override public boolean hasNext()
+		{
+			// a page may be empty if all things in it were corrupt
+			while(!page.hasNext() && !isLastPage)
+			{
+				page = readNextPage();
+			}
+			return page.hasNext();
+		}
+
+		@Override public E next()
+		{
+			if(!hasNext()) throw new NoSuchElementException();
+			return page.next();
+		}
+
+		@Override public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		private Iterator<E> readNextPage()
+		{
+			SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+			args[args.length - 1] = String.valueOf(lastId);
+			Cursor cursor = db.rawQuery(sql, args);
+
+			List<E> result = new ArrayList<>(ITERATE_PAGE_SIZE);
+			List<Long> invalidIds = new ArrayList<>();
+
+			try
+			{
+				isLastPage = cursor.getCount() < ITERATE_PAGE_SIZE;
+				if(cursor.moveToLast())
+				{
+					lastId = cursor.getLong(cursor.getColumnIndexOrThrow(getIdColumnName()));
+				}
+				createAllFrom(cursor, creator, result, invalidIds);
+			}
+			finally
+			{
+				cursor.close();
+			}
+
+			deleteInvalid(invalidIds);
+
+			return result.iterator();
+		}
 	}
 
 	protected interface CreateFromCursor<E>
@@ -189,29 +488,75 @@ public abstract class AQuestDao<T extends Quest>
 		return db.delete(getTableName(), getIdColumnName() + " = " + id, null) == 1;
 	}
 
-	public int deleteAll(Collection<Long> ids)
+	/** Updates all the given quests in one transaction
+	 *  @return the number of quests that have been updated */
+	public int updateAll(Collection<T> quests)
+	{
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+		int rows = 0;
+		db.beginTransaction();
+		try
+		{
+			/* SQLiteDatabase caches the compiled statements by their SQL, so the UPDATE statement
+			   is only compiled again if different columns are updated */
+			for(T quest : quests)
+			{
+				rows += db.update(getTableName(), createNonFinalContentValuesFrom(quest),
+						getIdColumnName() + " = " + quest.getId(), null);
+			}
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+		return rows;
+	}
+
+	/** Deletes all quests with the given ids in one transaction. The ids are deleted in chunks, so
+	 *  there may be arbitrarily many of them */
+	public synchronized int deleteAll(Collection<Long> ids)
 	{
+		if(ids.isEmpty()) return 0;
+
 		SQLiteDatabase db = dbHelper.getWritableDatabase();
-		StringBuilder idsString = new StringBuilder();
-		boolean first = true;
-		for (Long id : ids)
+		if(deleteChunk == null)
 		{
-			if(first) first = false;
-			else idsString.append(",");
-			idsString.append(id);
+			deleteChunk = db.compileStatement(getDeleteChunkSql());
 		}
-		return db.delete(getTableName(), getIdColumnName() + " IN (" + idsString.toString() + ")", null);
+
+		int rows = 0;
+		db.beginTransaction();
+		try
+		{
+			Iterator<Long> it = ids.iterator();
+			long firstId = ids.iterator().next();
+			while(it.hasNext())
+			{
+				for(int i = 1; i <= DELETE_CHUNK_SIZE; ++i)
+				{
+					// the last chunk is filled up with an id that is deleted anyway
+					deleteChunk.bindLong(i, it.hasNext() ? it.next() : firstId);
+				}
+				rows += deleteChunk.executeUpdateDelete();
+				deleteChunk.clearBindings();
+			}
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+		return rows;
 	}
 
 	public int deleteAllClosed(long olderThan)
 	{
-		String statusCol = getQuestStatusColumnName();
-		String query = "(" + statusCol + " = ? OR " + statusCol + " = ?) AND " +
-				getLastChangedColumnName() + " < ?";
+		WhereSelectionBuilder qb = createClosedSelection(olderThan);
 
 		SQLiteDatabase db = dbHelper.getWritableDatabase();
-		return db.delete(getTableName(), query, new String[]{
-				QuestStatus.CLOSED.name(), QuestStatus.REVERT.name(), String.valueOf(olderThan)});
+		return db.delete(getTableName(), qb.getWhere(), qb.getArgs());
 	}
 
 	public int addAll(Collection<T> quests)
@@ -296,6 +641,21 @@ public abstract class AQuestDao<T extends Quest>
 	protected abstract String getLatitudeColumnName();
 	protected abstract String getLongitudeColumnName();
 
+	/* the bounds of the quest geometry. By default, quests are just a point */
+	protected String getMinLatitudeColumnName() { return getLatitudeColumnName(); }
+	protected String getMinLongitudeColumnName() { return getLongitudeColumnName(); }
+	protected String getMaxLatitudeColumnName() { return getLatitudeColumnName(); }
+	protected String getMaxLongitudeColumnName() { return getLongitudeColumnName(); }
+	/** @return an SQL expression for the largest extent in latitude of any quest geometry */
+	protected String getMaxLatitudeExtent() { return "0"; }
+
+	/** @return the column in which the quest type name is stored or null if all quests of this
+	 *          DAO are of the same type */
+	protected String getQuestTypeColumnName() { return null; }
+	/** @return the quest type with the given name (or null if it does not exist). The name is
+	 *          null if there is no quest type column */
+	protected abstract QuestType getQuestType(String questTypeName);
+
 	protected abstract long executeInsert(T object, boolean replace);
 	protected abstract ContentValues createNonFinalContentValuesFrom(T object);
 	protected abstract ContentValues createFinalContentValuesFrom(T object);
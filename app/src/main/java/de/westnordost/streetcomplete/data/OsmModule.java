@@ -1,5 +1,9 @@
 package de.westnordost.streetcomplete.data;
 
+import android.content.Context;
+
+import java.io.File;
+
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
@@ -9,8 +13,12 @@ import de.westnordost.osmapi.user.UserDao;
 import de.westnordost.streetcomplete.ApplicationConstants;
 import de.westnordost.streetcomplete.oauth.OAuthPrefs;
 import de.westnordost.streetcomplete.data.osm.download.ElementGeometryCreator;
+import de.westnordost.streetcomplete.data.osm.download.MapDataWithGeometryParser;
+import de.westnordost.streetcomplete.data.osm.download.OverpassMapDataCache;
 import de.westnordost.streetcomplete.data.osm.download.OverpassMapDataDao;
+import de.westnordost.streetcomplete.data.osm.download.OverpassMapDataJsonParser;
 import de.westnordost.streetcomplete.data.osm.download.OverpassMapDataParser;
+import de.westnordost.streetcomplete.data.osm.download.OverpassQuotaManager;
 import de.westnordost.osmapi.OsmConnection;
 import de.westnordost.osmapi.changesets.ChangesetsDao;
 import de.westnordost.osmapi.map.MapDataDao;
@@ -26,6 +34,13 @@ public class OsmModule
 
 	public static String OVERPASS_API_URL = "http://overpass-api.de/api/";
 
+	/** whether map data is requested from Overpass as JSON (or as XML). XML until a benchmark on
+	 *  recorded responses shows that the JSON parser is faster */
+	public static boolean OVERPASS_USE_JSON = false;
+
+	/** maximum size of the (compressed) Overpass responses cached on disk in bytes */
+	public static long OVERPASS_CACHE_SIZE = 20*1024*1024;
+
 	/** Returns the osm connection singleton used for all daos with the saved oauth consumer */
 	@Provides @Singleton public static OsmConnection osmConnection(OAuthPrefs oAuth)
 	{
@@ -44,15 +59,28 @@ public class OsmModule
 	}
 
 	@Provides public static OverpassMapDataDao overpassMapDataDao(
-			Provider<OverpassMapDataParser> parserProvider)
+			Provider<MapDataWithGeometryParser> parserProvider, OverpassQuotaManager quota,
+			OverpassMapDataCache cache)
 	{
 		OsmConnection overpassConnection = new OsmConnection(
 				OVERPASS_API_URL, ApplicationConstants.USER_AGENT, null);
-		return new OverpassMapDataDao(overpassConnection, parserProvider);
+		return new OverpassMapDataDao(overpassConnection, parserProvider, quota, cache);
+	}
+
+	/** Quests are not downloaded again before they expire, so there is no point in keeping the
+	 *  responses for longer */
+	@Provides @Singleton public static OverpassMapDataCache overpassMapDataCache(Context ctx)
+	{
+		return new OverpassMapDataCache(new File(ctx.getCacheDir(), "overpass"),
+				OVERPASS_CACHE_SIZE, ApplicationConstants.REFRESH_QUESTS_AFTER);
 	}
 
-	@Provides public static OverpassMapDataParser overpassMapDataParser()
+	@Provides public static MapDataWithGeometryParser overpassMapDataParser()
 	{
+		if(OVERPASS_USE_JSON)
+		{
+			return new OverpassMapDataJsonParser(new ElementGeometryCreator(), new OsmMapDataFactory());
+		}
 		return new OverpassMapDataParser(new ElementGeometryCreator(), new OsmMapDataFactory());
 	}
 
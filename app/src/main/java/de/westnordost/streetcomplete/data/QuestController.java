@@ -359,14 +359,14 @@ public class QuestController
 		}});
 	}
 
-	/** Retrieve all visible (=new) quests in the given bounding box from local database
-	 *  asynchronously. */
+	/** Retrieve the markers of all visible (=new) quests whose geometry is (partly) in the given
+	 *  bounding box from local database asynchronously. */
 	public void retrieve(final BoundingBox bbox)
 	{
 		workerHandler.post(new Runnable() { @Override public void run()
 		{
-			relay.onQuestsCreated(osmQuestDB.getAll(bbox, QuestStatus.NEW), QuestGroup.OSM);
-			relay.onQuestsCreated(osmNoteQuestDB.getAll(bbox, QuestStatus.NEW), QuestGroup.OSM_NOTE);
+			relay.onQuestMarkersCreated(osmQuestDB.getAllMarkers(bbox, QuestStatus.NEW), QuestGroup.OSM);
+			relay.onQuestMarkersCreated(osmNoteQuestDB.getAllMarkers(bbox, QuestStatus.NEW), QuestGroup.OSM_NOTE);
 		}});
 	}
 
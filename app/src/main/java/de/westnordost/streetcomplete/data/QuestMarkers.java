@@ -0,0 +1,51 @@
+package de.westnordost.streetcomplete.data;
+
+import java.util.Arrays;
+
+/** The id, type and position of a number of quests, stored in arrays. This is all that is needed to
+ *  display them as markers on the map, without loading the whole quests (with their geometry etc.) */
+public class QuestMarkers
+{
+	private long[] ids;
+	private QuestType[] types;
+	// lat, lon, lat, lon, ...
+	private double[] positions;
+	private int size;
+
+	public QuestMarkers(int capacity)
+	{
+		ids = new long[capacity];
+		types = new QuestType[capacity];
+		positions = new double[2 * capacity];
+	}
+
+	public void add(long id, QuestType type, double latitude, double longitude)
+	{
+		if(size == ids.length)
+		{
+			int capacity = ids.length * 2 + 1;
+			ids = Arrays.copyOf(ids, capacity);
+			types = Arrays.copyOf(types, capacity);
+			positions = Arrays.copyOf(positions, 2 * capacity);
+		}
+		ids[size] = id;
+		types[size] = type;
+		positions[2*size] = latitude;
+		positions[2*size+1] = longitude;
+		size++;
+	}
+
+	public int size() { return size; }
+	public boolean isEmpty() { return size == 0; }
+
+	public long getId(int index) { return ids[checkIndex(index)]; }
+	public QuestType getType(int index) { return types[checkIndex(index)]; }
+	public double getLatitude(int index) { return positions[2*checkIndex(index)]; }
+	public double getLongitude(int index) { return positions[2*checkIndex(index)+1]; }
+
+	private int checkIndex(int index)
+	{
+		if(index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index);
+		return index;
+	}
+}
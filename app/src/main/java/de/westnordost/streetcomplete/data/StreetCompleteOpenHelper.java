@@ -1,16 +1,30 @@
 package de.westnordost.streetcomplete.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.Point;
 import android.text.TextUtils;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.inject.Singleton;
 
+import de.westnordost.streetcomplete.ApplicationConstants;
 import de.westnordost.streetcomplete.data.changesets.OpenChangesetsTable;
+import de.westnordost.streetcomplete.data.osm.ElementGeometry;
+import de.westnordost.streetcomplete.data.osm.persist.ElementCodec;
+import de.westnordost.streetcomplete.data.osm.persist.ElementGeometryCodec;
+import de.westnordost.streetcomplete.data.osm.persist.ElementGeometryExtentTable;
 import de.westnordost.streetcomplete.data.osm.persist.ElementGeometryTable;
 import de.westnordost.streetcomplete.data.osm.persist.NodeTable;
 import de.westnordost.streetcomplete.data.osm.persist.OsmQuestTable;
+import de.westnordost.streetcomplete.data.osm.persist.OsmQuestTileCountTable;
 import de.westnordost.streetcomplete.data.osmnotes.CreateNoteTable;
 import de.westnordost.streetcomplete.data.osmnotes.NoteTable;
 import de.westnordost.streetcomplete.data.osm.persist.RelationTable;
@@ -18,12 +32,19 @@ import de.westnordost.streetcomplete.data.osm.persist.WayTable;
 import de.westnordost.streetcomplete.data.osmnotes.OsmNoteQuestTable;
 import de.westnordost.streetcomplete.data.statistics.QuestStatisticsTable;
 import de.westnordost.streetcomplete.data.tiles.DownloadedTilesTable;
+import de.westnordost.streetcomplete.util.KryoSerializer;
+import de.westnordost.streetcomplete.util.Serializer;
+import de.westnordost.streetcomplete.util.SlippyMapMath;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.OsmLatLon;
+import de.westnordost.osmapi.map.data.RelationMember;
 
 @Singleton
 public class StreetCompleteOpenHelper extends SQLiteOpenHelper
 {
 	public static final String DB_NAME = "streetcomplete.db";
-	public static final int DB_VERSION = 7;
+	public static final int DB_VERSION = 16;
 
 	private static final String OSM_QUESTS_CREATE_PARAMS = " (" +
 			OsmQuestTable.Columns.QUEST_ID +		" INTEGER		PRIMARY KEY, " +
@@ -34,6 +55,8 @@ public class StreetCompleteOpenHelper extends SQLiteOpenHelper
 			OsmQuestTable.Columns.LAST_UPDATE + 	" int			NOT NULL, " +
 			OsmQuestTable.Columns.ELEMENT_ID +		" int			NOT NULL, " +
 			OsmQuestTable.Columns.ELEMENT_TYPE +	" varchar(255)	NOT NULL, " +
+			OsmQuestTable.Columns.TILE_X +			" int			NOT NULL DEFAULT 0, " +
+			OsmQuestTable.Columns.TILE_Y +			" int			NOT NULL DEFAULT 0, " +
 			"CONSTRAINT same_osm_quest UNIQUE (" +
 			OsmQuestTable.Columns.QUEST_TYPE + ", " +
 			OsmQuestTable.Columns.ELEMENT_ID + ", " +
@@ -53,6 +76,97 @@ public class StreetCompleteOpenHelper extends SQLiteOpenHelper
 	private static final String UNDO_OSM_QUESTS_TABLE_CREATE =
 			"CREATE TABLE " + OsmQuestTable.NAME_UNDO + OSM_QUESTS_CREATE_PARAMS;
 
+	/* to quickly find the quests that refer to an element, i.e. to find out which elements and
+	   geometries are not referenced anymore */
+	private static final String OSM_QUESTS_ELEMENT_INDEX_CREATE =
+			"CREATE INDEX osm_quests_element_index ON " + OsmQuestTable.NAME + " (" +
+			OsmQuestTable.Columns.ELEMENT_TYPE + ", " + OsmQuestTable.Columns.ELEMENT_ID +
+			");";
+
+	private static final String UNDO_OSM_QUESTS_ELEMENT_INDEX_CREATE =
+			"CREATE INDEX osm_quests_undo_element_index ON " + OsmQuestTable.NAME_UNDO + " (" +
+			OsmQuestTable.Columns.ELEMENT_TYPE + ", " + OsmQuestTable.Columns.ELEMENT_ID +
+			");";
+
+	/* to quickly find the quests with a certain status, i.e. to upload the answered quests, and to
+	   find the last solved quest */
+	private static final String OSM_QUESTS_STATUS_INDEX_CREATE =
+			"CREATE INDEX osm_quests_status_index ON " + OsmQuestTable.NAME + " (" +
+			OsmQuestTable.Columns.QUEST_STATUS + ", " + OsmQuestTable.Columns.LAST_UPDATE +
+			");";
+
+	private static final String OSM_QUESTS_TILE_COUNT_TABLE_CREATE =
+			"CREATE TABLE " + OsmQuestTileCountTable.NAME +
+			" (" +
+				OsmQuestTileCountTable.Columns.X +			" int	NOT NULL, " +
+				OsmQuestTileCountTable.Columns.Y +			" int	NOT NULL, " +
+				OsmQuestTileCountTable.Columns.NEW_QUESTS +	" int	NOT NULL, " +
+				"CONSTRAINT primary_key PRIMARY KEY (" +
+					OsmQuestTileCountTable.Columns.X + ", " +
+					OsmQuestTileCountTable.Columns.Y +
+				") " +
+			");";
+
+	/* the number of NEW quests per tile is kept up to date by these triggers. This way, it is always
+	   consistent with the quests table, no matter from where and how the quests are changed */
+	private static final String OSM_QUESTS_TILE_COUNT_INSERT_TRIGGER_CREATE =
+			"CREATE TRIGGER osm_quests_tile_count_insert AFTER INSERT ON " + OsmQuestTable.NAME + " " +
+			"WHEN NEW." + OsmQuestTable.Columns.QUEST_STATUS + " = 'NEW' " +
+			"BEGIN " +
+				incrementNewQuestsInTile("NEW") +
+			"END;";
+
+	private static final String OSM_QUESTS_TILE_COUNT_DELETE_TRIGGER_CREATE =
+			"CREATE TRIGGER osm_quests_tile_count_delete AFTER DELETE ON " + OsmQuestTable.NAME + " " +
+			"WHEN OLD." + OsmQuestTable.Columns.QUEST_STATUS + " = 'NEW' " +
+			"BEGIN " +
+				decrementNewQuestsInTile("OLD") +
+			"END;";
+
+	private static final String OSM_QUESTS_TILE_COUNT_UPDATE_OLD_TRIGGER_CREATE =
+			"CREATE TRIGGER osm_quests_tile_count_update_old AFTER UPDATE OF " +
+				OsmQuestTable.Columns.QUEST_STATUS + ", " +
+				OsmQuestTable.Columns.TILE_X + ", " +
+				OsmQuestTable.Columns.TILE_Y + " ON " + OsmQuestTable.NAME + " " +
+			"WHEN OLD." + OsmQuestTable.Columns.QUEST_STATUS + " = 'NEW' " +
+			"BEGIN " +
+				decrementNewQuestsInTile("OLD") +
+			"END;";
+
+	private static final String OSM_QUESTS_TILE_COUNT_UPDATE_NEW_TRIGGER_CREATE =
+			"CREATE TRIGGER osm_quests_tile_count_update_new AFTER UPDATE OF " +
+				OsmQuestTable.Columns.QUEST_STATUS + ", " +
+				OsmQuestTable.Columns.TILE_X + ", " +
+				OsmQuestTable.Columns.TILE_Y + " ON " + OsmQuestTable.NAME + " " +
+			"WHEN NEW." + OsmQuestTable.Columns.QUEST_STATUS + " = 'NEW' " +
+			"BEGIN " +
+				incrementNewQuestsInTile("NEW") +
+			"END;";
+
+	private static String incrementNewQuestsInTile(String row)
+	{
+		return
+			"INSERT OR IGNORE INTO " + OsmQuestTileCountTable.NAME + " VALUES (" +
+				row + "." + OsmQuestTable.Columns.TILE_X + ", " +
+				row + "." + OsmQuestTable.Columns.TILE_Y + ", 0); " +
+			updateNewQuestsInTile(row, "+");
+	}
+
+	private static String decrementNewQuestsInTile(String row)
+	{
+		return updateNewQuestsInTile(row, "-");
+	}
+
+	private static String updateNewQuestsInTile(String row, String operator)
+	{
+		String count = OsmQuestTileCountTable.Columns.NEW_QUESTS;
+		return
+			"UPDATE " + OsmQuestTileCountTable.NAME + " SET " + count + " = " + count + " " + operator + " 1 " +
+			"WHERE " +
+				OsmQuestTileCountTable.Columns.X + " = " + row + "." + OsmQuestTable.Columns.TILE_X + " AND " +
+				OsmQuestTileCountTable.Columns.Y + " = " + row + "." + OsmQuestTable.Columns.TILE_Y + "; ";
+	}
+
 	private static final String ELEMENTS_GEOMETRY_TABLE_CREATE =
 			"CREATE TABLE " + ElementGeometryTable.NAME +
 			" (" +
@@ -62,12 +176,52 @@ public class StreetCompleteOpenHelper extends SQLiteOpenHelper
 				ElementGeometryTable.Columns.GEOMETRY_POLYGONS +	" blob, " +
 				ElementGeometryTable.Columns.LATITUDE +				" double		NOT NULL, " +
 				ElementGeometryTable.Columns.LONGITUDE +			" double		NOT NULL, " +
+				ElementGeometryTable.Columns.MIN_LATITUDE +			" double		NOT NULL, " +
+				ElementGeometryTable.Columns.MIN_LONGITUDE +		" double		NOT NULL, " +
+				ElementGeometryTable.Columns.MAX_LATITUDE +			" double		NOT NULL, " +
+				ElementGeometryTable.Columns.MAX_LONGITUDE +		" double		NOT NULL, " +
 				"CONSTRAINT primary_key PRIMARY KEY (" +
 					ElementGeometryTable.Columns.ELEMENT_TYPE + ", " +
 					ElementGeometryTable.Columns.ELEMENT_ID +
 				") " +
 			");";
 
+	/* quests (and notes) are always queried by bounding box. The index on the latitude makes this
+	   a range scan instead of a scan through the whole table */
+	private static final String ELEMENTS_GEOMETRY_POSITION_INDEX_CREATE =
+			"CREATE INDEX elements_geometry_position_index ON " + ElementGeometryTable.NAME + " (" +
+			ElementGeometryTable.Columns.LATITUDE + ", " + ElementGeometryTable.Columns.LONGITUDE +
+			");";
+
+	/* for finding all quests whose geometry intersects the viewport. SQLite can only do a range scan
+	   on the first column of an index, the other bounds are then checked within the index. The range
+	   on the min latitude is bounded from below by the largest extent in latitude of any geometry */
+	private static final String ELEMENTS_GEOMETRY_BOUNDS_INDEX_CREATE =
+			"CREATE INDEX elements_geometry_bounds_index ON " + ElementGeometryTable.NAME + " (" +
+			ElementGeometryTable.Columns.MIN_LATITUDE + ", " +
+			ElementGeometryTable.Columns.MAX_LATITUDE + ", " +
+			ElementGeometryTable.Columns.MIN_LONGITUDE + ", " +
+			ElementGeometryTable.Columns.MAX_LONGITUDE +
+			");";
+
+	private static final String ELEMENTS_GEOMETRY_EXTENT_TABLE_CREATE =
+			"CREATE TABLE " + ElementGeometryExtentTable.NAME +
+			" (" +
+				ElementGeometryExtentTable.Columns.MAX_LATITUDE_EXTENT + " double	NOT NULL" +
+			");";
+
+	/* the extent only ever grows here, it is shrunk again when unreferenced geometries are deleted.
+	   INSERT OR REPLACE also fires this trigger */
+	private static final String ELEMENTS_GEOMETRY_EXTENT_INSERT_TRIGGER_CREATE =
+			"CREATE TRIGGER elements_geometry_extent_insert AFTER INSERT ON " + ElementGeometryTable.NAME + " " +
+			"BEGIN " +
+				"UPDATE " + ElementGeometryExtentTable.NAME + " SET " +
+					ElementGeometryExtentTable.Columns.MAX_LATITUDE_EXTENT + " = MAX(" +
+					ElementGeometryExtentTable.Columns.MAX_LATITUDE_EXTENT + ", " +
+					"NEW." + ElementGeometryTable.Columns.MAX_LATITUDE + " - " +
+					"NEW." + ElementGeometryTable.Columns.MIN_LATITUDE + "); " +
+			"END;";
+
 	private static final String OSM_QUESTS_VIEW_CREATE =
 			"CREATE VIEW " + OsmQuestTable.NAME_MERGED_VIEW + " AS " +
 			"SELECT * FROM " + OsmQuestTable.NAME + " " +
@@ -119,6 +273,21 @@ public class StreetCompleteOpenHelper extends SQLiteOpenHelper
 					CreateNoteTable.Columns.QUEST_TITLE + " text" +
 					");";
 
+	private static final String NOTES_POSITION_INDEX_CREATE =
+			"CREATE INDEX notes_position_index ON " + NoteTable.NAME + " (" +
+			NoteTable.Columns.LATITUDE + ", " + NoteTable.Columns.LONGITUDE +
+			");";
+
+	private static final String CREATE_OSM_NOTES_POSITION_INDEX_CREATE =
+			"CREATE INDEX create_osm_notes_position_index ON " + CreateNoteTable.NAME + " (" +
+			CreateNoteTable.Columns.LATITUDE + ", " + CreateNoteTable.Columns.LONGITUDE +
+			");";
+
+	private static final String OSM_NOTES_QUESTS_STATUS_INDEX_CREATE =
+			"CREATE INDEX osm_notequests_status_index ON " + OsmNoteQuestTable.NAME + " (" +
+			OsmNoteQuestTable.Columns.QUEST_STATUS + ", " + OsmNoteQuestTable.Columns.LAST_UPDATE +
+			");";
+
 	private static final String OSM_NOTES_VIEW_CREATE =
 			"CREATE VIEW " + OsmNoteQuestTable.NAME_MERGED_VIEW + " AS " +
 			"SELECT * FROM " + OsmNoteQuestTable.NAME + " " +
@@ -166,6 +335,7 @@ public class StreetCompleteOpenHelper extends SQLiteOpenHelper
 				DownloadedTilesTable.Columns.Y +			" int	NOT NULL, " +
 				DownloadedTilesTable.Columns.QUEST_TYPE + 	" varchar(255) NOT NULL, " +
 				DownloadedTilesTable.Columns.DATE +			" int	NOT NULL, " +
+				DownloadedTilesTable.Columns.FULL_DOWNLOAD_DATE + " int	NOT NULL, " +
 				"CONSTRAINT primary_key PRIMARY KEY (" +
 					DownloadedTilesTable.Columns.X + ", " +
 					DownloadedTilesTable.Columns.Y + ", " +
@@ -191,6 +361,9 @@ public class StreetCompleteOpenHelper extends SQLiteOpenHelper
 	{
 		super(context, DB_NAME, null, DB_VERSION);
 		this.extensions = extensions;
+		/* so that the quests can be read for display on the map while a big download is being
+		   written into the database in one long transaction */
+		setWriteAheadLoggingEnabled(true);
 	}
 
 	@Override
@@ -199,6 +372,13 @@ public class StreetCompleteOpenHelper extends SQLiteOpenHelper
 		db.execSQL(ELEMENTS_GEOMETRY_TABLE_CREATE);
 		db.execSQL(OSM_QUESTS_TABLE_CREATE);
 		db.execSQL(UNDO_OSM_QUESTS_TABLE_CREATE);
+		db.execSQL(OSM_QUESTS_ELEMENT_INDEX_CREATE);
+		db.execSQL(UNDO_OSM_QUESTS_ELEMENT_INDEX_CREATE);
+		db.execSQL(OSM_QUESTS_STATUS_INDEX_CREATE);
+		createOsmQuestsTileCount(db);
+		db.execSQL(ELEMENTS_GEOMETRY_POSITION_INDEX_CREATE);
+		db.execSQL(ELEMENTS_GEOMETRY_BOUNDS_INDEX_CREATE);
+		createElementGeometryExtent(db);
 
 		db.execSQL(NODES_TABLE_CREATE);
 		db.execSQL(WAYS_TABLE_CREATE);
@@ -206,7 +386,10 @@ public class StreetCompleteOpenHelper extends SQLiteOpenHelper
 
 		db.execSQL(NOTES_TABLE_CREATE);
 		db.execSQL(OSM_NOTES_QUESTS_TABLE_CREATE);
+		db.execSQL(OSM_NOTES_QUESTS_STATUS_INDEX_CREATE);
 		db.execSQL(CREATE_OSM_NOTES_TABLE_CREATE);
+		db.execSQL(NOTES_POSITION_INDEX_CREATE);
+		db.execSQL(CREATE_OSM_NOTES_POSITION_INDEX_CREATE);
 
 		db.execSQL(QUEST_STATISTICS_TABLE_CREATE);
 
@@ -275,6 +458,89 @@ public class StreetCompleteOpenHelper extends SQLiteOpenHelper
 			db.execSQL(OSM_UNDO_QUESTS_VIEW_CREATE);
 		}
 
+		if(oldVersion < 8 && newVersion >= 8)
+		{
+			db.execSQL(OSM_QUESTS_ELEMENT_INDEX_CREATE);
+			db.execSQL(UNDO_OSM_QUESTS_ELEMENT_INDEX_CREATE);
+		}
+
+		if(oldVersion < 9 && newVersion >= 9)
+		{
+			db.execSQL("ALTER TABLE " + DownloadedTilesTable.NAME + " ADD COLUMN " +
+					DownloadedTilesTable.Columns.FULL_DOWNLOAD_DATE + " int NOT NULL DEFAULT 0;");
+			db.execSQL("UPDATE " + DownloadedTilesTable.NAME + " SET " +
+					DownloadedTilesTable.Columns.FULL_DOWNLOAD_DATE + " = " +
+					DownloadedTilesTable.Columns.DATE + ";");
+		}
+
+		if(oldVersion < 10 && newVersion >= 10)
+		{
+			convertElementGeometriesToCompactFormat(db);
+		}
+
+		if(oldVersion < 11 && newVersion >= 11)
+		{
+			db.execSQL(ELEMENTS_GEOMETRY_POSITION_INDEX_CREATE);
+			db.execSQL(NOTES_POSITION_INDEX_CREATE);
+			db.execSQL(CREATE_OSM_NOTES_POSITION_INDEX_CREATE);
+		}
+
+		if(oldVersion < 12 && newVersion >= 12)
+		{
+			String[] boundsCols = {
+					ElementGeometryTable.Columns.MIN_LATITUDE,
+					ElementGeometryTable.Columns.MIN_LONGITUDE,
+					ElementGeometryTable.Columns.MAX_LATITUDE,
+					ElementGeometryTable.Columns.MAX_LONGITUDE
+			};
+			for(String col : boundsCols)
+			{
+				db.execSQL("ALTER TABLE " + ElementGeometryTable.NAME + " ADD COLUMN " +
+						col + " double NOT NULL DEFAULT 0;");
+			}
+			addElementGeometryBounds(db);
+			db.execSQL(ELEMENTS_GEOMETRY_BOUNDS_INDEX_CREATE);
+		}
+
+		if(oldVersion < 13 && newVersion >= 13)
+		{
+			db.execSQL(OSM_QUESTS_STATUS_INDEX_CREATE);
+			db.execSQL(OSM_NOTES_QUESTS_STATUS_INDEX_CREATE);
+		}
+
+		if(oldVersion < 14 && newVersion >= 14)
+		{
+			convertElementColumnToCompactFormat(db, NodeTable.NAME, NodeTable.Columns.TAGS, TAGS_CONVERTER);
+			convertElementColumnToCompactFormat(db, WayTable.NAME, WayTable.Columns.TAGS, TAGS_CONVERTER);
+			convertElementColumnToCompactFormat(db, WayTable.NAME, WayTable.Columns.NODE_IDS, NODE_IDS_CONVERTER);
+			convertElementColumnToCompactFormat(db, RelationTable.NAME, RelationTable.Columns.TAGS, TAGS_CONVERTER);
+			convertElementColumnToCompactFormat(db, RelationTable.NAME, RelationTable.Columns.MEMBERS, MEMBERS_CONVERTER);
+		}
+
+		if(oldVersion < 15 && newVersion >= 15)
+		{
+			String[] tileCols = {OsmQuestTable.Columns.TILE_X, OsmQuestTable.Columns.TILE_Y};
+			for(String col : tileCols)
+			{
+				db.execSQL("ALTER TABLE " + OsmQuestTable.NAME + " ADD COLUMN " +
+						col + " int NOT NULL DEFAULT 0;");
+				// before version 7, the undo table did not exist and has just been created above
+				if(oldVersion >= 7)
+				{
+					db.execSQL("ALTER TABLE " + OsmQuestTable.NAME_UNDO + " ADD COLUMN " +
+							col + " int NOT NULL DEFAULT 0;");
+				}
+			}
+			addOsmQuestTiles(db, OsmQuestTable.NAME);
+			addOsmQuestTiles(db, OsmQuestTable.NAME_UNDO);
+			createOsmQuestsTileCount(db);
+		}
+
+		if(oldVersion < 16 && newVersion >= 16)
+		{
+			createElementGeometryExtent(db);
+		}
+
 		// for later changes to the DB
 		// ...
 
@@ -283,4 +549,226 @@ public class StreetCompleteOpenHelper extends SQLiteOpenHelper
 			extension.onUpgrade(db, oldVersion, newVersion);
 		}
 	}
+
+	private static void createOsmQuestsTileCount(SQLiteDatabase db)
+	{
+		db.execSQL(OSM_QUESTS_TILE_COUNT_TABLE_CREATE);
+		db.execSQL("INSERT INTO " + OsmQuestTileCountTable.NAME + " " +
+				"SELECT " + OsmQuestTable.Columns.TILE_X + ", " + OsmQuestTable.Columns.TILE_Y + ", COUNT(*) " +
+				"FROM " + OsmQuestTable.NAME + " " +
+				"WHERE " + OsmQuestTable.Columns.QUEST_STATUS + " = 'NEW' " +
+				"GROUP BY " + OsmQuestTable.Columns.TILE_X + ", " + OsmQuestTable.Columns.TILE_Y);
+		db.execSQL(OSM_QUESTS_TILE_COUNT_INSERT_TRIGGER_CREATE);
+		db.execSQL(OSM_QUESTS_TILE_COUNT_DELETE_TRIGGER_CREATE);
+		db.execSQL(OSM_QUESTS_TILE_COUNT_UPDATE_OLD_TRIGGER_CREATE);
+		db.execSQL(OSM_QUESTS_TILE_COUNT_UPDATE_NEW_TRIGGER_CREATE);
+	}
+
+	private static void createElementGeometryExtent(SQLiteDatabase db)
+	{
+		db.execSQL(ELEMENTS_GEOMETRY_EXTENT_TABLE_CREATE);
+		db.execSQL("INSERT INTO " + ElementGeometryExtentTable.NAME + " " +
+				"SELECT IFNULL(MAX(" + ElementGeometryTable.Columns.MAX_LATITUDE + " - " +
+				ElementGeometryTable.Columns.MIN_LATITUDE + "), 0) " +
+				"FROM " + ElementGeometryTable.NAME);
+		db.execSQL(ELEMENTS_GEOMETRY_EXTENT_INSERT_TRIGGER_CREATE);
+	}
+
+	/** Since version 15, the tile each osm quest is located in is stored with the quest */
+	private static void addOsmQuestTiles(SQLiteDatabase db, String table)
+	{
+		SQLiteStatement update = db.compileStatement(
+				"UPDATE " + table + " SET " +
+				OsmQuestTable.Columns.TILE_X + " = ?, " +
+				OsmQuestTable.Columns.TILE_Y + " = ? WHERE " +
+				OsmQuestTable.Columns.QUEST_ID + " = ?");
+
+		String[] cols = {
+				table + "." + OsmQuestTable.Columns.QUEST_ID,
+				ElementGeometryTable.Columns.LATITUDE,
+				ElementGeometryTable.Columns.LONGITUDE};
+		Cursor cursor = db.query(table + " INNER JOIN " + ElementGeometryTable.NAME + " USING (" +
+				ElementGeometryTable.Columns.ELEMENT_TYPE + ", " +
+				ElementGeometryTable.Columns.ELEMENT_ID + ")", cols, null, null, null, null, null);
+		try
+		{
+			if(cursor.moveToFirst())
+			{
+				while(!cursor.isAfterLast())
+				{
+					LatLon pos = new OsmLatLon(cursor.getDouble(1), cursor.getDouble(2));
+					Point tile = SlippyMapMath.enclosingTile(pos, ApplicationConstants.QUEST_TILE_ZOOM);
+					update.bindLong(1, tile.x);
+					update.bindLong(2, tile.y);
+					update.bindLong(3, cursor.getLong(0));
+					update.executeUpdateDelete();
+					update.clearBindings();
+					cursor.moveToNext();
+				}
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+
+	/** Until version 10, the polygons and polylines of element geometries were serialized with
+	 *  Kryo. Now they are stored in the format of the ElementGeometryCodec */
+	private static void convertElementGeometriesToCompactFormat(SQLiteDatabase db)
+	{
+		Serializer kryo = new KryoSerializer();
+
+		String polygonsCol = ElementGeometryTable.Columns.GEOMETRY_POLYGONS,
+				polylinesCol = ElementGeometryTable.Columns.GEOMETRY_POLYLINES;
+
+		SQLiteStatement update = db.compileStatement(
+				"UPDATE " + ElementGeometryTable.NAME + " SET " +
+				polygonsCol + " = ?, " + polylinesCol + " = ? WHERE rowid = ?");
+
+		String[] cols = {"rowid", polygonsCol, polylinesCol};
+		Cursor cursor = db.query(ElementGeometryTable.NAME, cols, null, null, null, null, null);
+		try
+		{
+			if(cursor.moveToFirst())
+			{
+				while(!cursor.isAfterLast())
+				{
+					bindConvertedGeometry(update, 1, kryo, cursor, 1);
+					bindConvertedGeometry(update, 2, kryo, cursor, 2);
+					update.bindLong(3, cursor.getLong(0));
+					update.executeUpdateDelete();
+					update.clearBindings();
+					cursor.moveToNext();
+				}
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+
+	/** Since version 12, the bounds of each element geometry are stored next to it */
+	private static void addElementGeometryBounds(SQLiteDatabase db)
+	{
+		SQLiteStatement update = db.compileStatement(
+				"UPDATE " + ElementGeometryTable.NAME + " SET " +
+				ElementGeometryTable.Columns.MIN_LATITUDE + " = ?, " +
+				ElementGeometryTable.Columns.MIN_LONGITUDE + " = ?, " +
+				ElementGeometryTable.Columns.MAX_LATITUDE + " = ?, " +
+				ElementGeometryTable.Columns.MAX_LONGITUDE + " = ? WHERE rowid = ?");
+
+		String[] cols = {"rowid",
+				ElementGeometryTable.Columns.GEOMETRY_POLYGONS,
+				ElementGeometryTable.Columns.GEOMETRY_POLYLINES,
+				ElementGeometryTable.Columns.LATITUDE,
+				ElementGeometryTable.Columns.LONGITUDE};
+		Cursor cursor = db.query(ElementGeometryTable.NAME, cols, null, null, null, null, null);
+		try
+		{
+			if(cursor.moveToFirst())
+			{
+				while(!cursor.isAfterLast())
+				{
+					List<List<LatLon>> polygons = null, polylines = null;
+					if(!cursor.isNull(1)) polygons = ElementGeometryCodec.decode(cursor.getBlob(1));
+					if(!cursor.isNull(2)) polylines = ElementGeometryCodec.decode(cursor.getBlob(2));
+					LatLon center = new OsmLatLon(cursor.getDouble(3), cursor.getDouble(4));
+					BoundingBox bounds = new ElementGeometry(polylines, polygons, center).getBounds();
+
+					update.bindDouble(1, bounds.getMinLatitude());
+					update.bindDouble(2, bounds.getMinLongitude());
+					update.bindDouble(3, bounds.getMaxLatitude());
+					update.bindDouble(4, bounds.getMaxLongitude());
+					update.bindLong(5, cursor.getLong(0));
+					update.executeUpdateDelete();
+					update.clearBindings();
+					cursor.moveToNext();
+				}
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+
+	/** Until version 13, the tags, node ids and relation members of elements were serialized with
+	 *  Kryo. Now they are stored in the format of the ElementCodec */
+	private static void convertElementColumnToCompactFormat(SQLiteDatabase db, String table,
+															String column, BlobConverter converter)
+	{
+		Serializer kryo = new KryoSerializer();
+
+		SQLiteStatement update = db.compileStatement(
+				"UPDATE " + table + " SET " + column + " = ? WHERE rowid = ?");
+
+		String[] cols = {"rowid", column};
+		Cursor cursor = db.query(table, cols, column + " IS NOT NULL", null, null, null, null);
+		try
+		{
+			if(cursor.moveToFirst())
+			{
+				while(!cursor.isAfterLast())
+				{
+					update.bindBlob(1, converter.convert(kryo, cursor.getBlob(1)));
+					update.bindLong(2, cursor.getLong(0));
+					update.executeUpdateDelete();
+					update.clearBindings();
+					cursor.moveToNext();
+				}
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+
+	private interface BlobConverter
+	{
+		byte[] convert(Serializer kryo, byte[] bytes);
+	}
+
+	private static final BlobConverter TAGS_CONVERTER = new BlobConverter()
+	{
+		@Override public byte[] convert(Serializer kryo, byte[] bytes)
+		{
+			Map<String,String> tags = kryo.toObject(bytes, HashMap.class);
+			return ElementCodec.encodeTags(tags);
+		}
+	};
+
+	private static final BlobConverter NODE_IDS_CONVERTER = new BlobConverter()
+	{
+		@Override public byte[] convert(Serializer kryo, byte[] bytes)
+		{
+			List<Long> nodeIds = kryo.toObject(bytes, ArrayList.class);
+			return ElementCodec.encodeNodeIds(nodeIds);
+		}
+	};
+
+	private static final BlobConverter MEMBERS_CONVERTER = new BlobConverter()
+	{
+		@Override public byte[] convert(Serializer kryo, byte[] bytes)
+		{
+			List<RelationMember> members = kryo.toObject(bytes, ArrayList.class);
+			return ElementCodec.encodeMembers(members);
+		}
+	};
+
+	private static void bindConvertedGeometry(SQLiteStatement stmt, int index, Serializer kryo,
+											  Cursor cursor, int col)
+	{
+		if(cursor.isNull(col))
+		{
+			stmt.bindNull(index);
+		}
+		else
+		{
+			List<List<LatLon>> rings = kryo.toObject(cursor.getBlob(col), ArrayList.class);
+			stmt.bindBlob(index, ElementGeometryCodec.encode(rings));
+		}
+	}
 }
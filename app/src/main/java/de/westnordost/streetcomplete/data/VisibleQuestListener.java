@@ -9,6 +9,8 @@ public interface VisibleQuestListener
 {
 	void onQuestCreated(Quest quest, QuestGroup group, Element element);
 	void onQuestsCreated(Collection<? extends Quest> quests, QuestGroup group);
+	/** Called when quests become visible of which only the markers have been loaded */
+	void onQuestMarkersCreated(QuestMarkers markers, QuestGroup group);
 
 	// after creation, two things can happen to quests. Either they are hidden or they are solved.
 
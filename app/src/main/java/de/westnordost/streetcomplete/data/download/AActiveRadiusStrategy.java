@@ -6,7 +6,6 @@ import android.util.Log;
 
 
 import de.westnordost.streetcomplete.ApplicationConstants;
-import de.westnordost.streetcomplete.data.QuestStatus;
 import de.westnordost.streetcomplete.data.QuestTypes;
 import de.westnordost.streetcomplete.data.osm.persist.OsmQuestDao;
 import de.westnordost.streetcomplete.data.tiles.DownloadedTilesDao;
@@ -39,11 +38,15 @@ public abstract class AActiveRadiusStrategy implements QuestAutoDownloadStrategy
 	public boolean mayDownloadHere(LatLon pos, int radius)
 	{
 		BoundingBox bbox = SphericalEarthMath.enclosingBoundingBox(pos, radius);
+		Rect tiles = SlippyMapMath.enclosingTiles(bbox, ApplicationConstants.QUEST_TILE_ZOOM);
 
-		double areaInKm2 = SphericalEarthMath.enclosedArea(bbox) / 1000 / 1000;
+		/* the number of quests is looked up per tile, so the density is calculated for the area of
+		   the tiles that enclose the radius */
+		BoundingBox tilesBbox = SlippyMapMath.asBoundingBox(tiles, ApplicationConstants.QUEST_TILE_ZOOM);
+		double areaInKm2 = SphericalEarthMath.enclosedArea(tilesBbox) / 1000 / 1000;
 
 		// got enough quests in vicinity
-		int visibleQuests = osmQuestDB.getCount(bbox, QuestStatus.NEW);
+		int visibleQuests = osmQuestDB.getNewQuestCount(tiles);
 		if(visibleQuests / areaInKm2 > getMinQuestsInActiveRadiusPerKm2())
 		{
 			Log.i(TAG, "Not downloading quests because there are enough quests in " + radius + "m radius");
@@ -52,7 +55,6 @@ public abstract class AActiveRadiusStrategy implements QuestAutoDownloadStrategy
 
 		// (this check is more computational effort, so its done after the vicinity check)
 		// nothing more to download
-		Rect tiles = SlippyMapMath.enclosingTiles(bbox, ApplicationConstants.QUEST_TILE_ZOOM);
 		long questExpirationTime = ApplicationConstants.REFRESH_QUESTS_AFTER;
 		long ignoreOlderThan = Math.max(0,System.currentTimeMillis() - questExpirationTime);
 		int alreadyDownloadedQuestTypes = downloadedTilesDao.get(tiles, ignoreOlderThan).size();
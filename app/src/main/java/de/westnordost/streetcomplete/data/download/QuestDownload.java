@@ -6,8 +6,12 @@ import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -20,7 +24,10 @@ import de.westnordost.streetcomplete.data.QuestType;
 import de.westnordost.streetcomplete.data.QuestTypes;
 import de.westnordost.streetcomplete.data.VisibleQuestListener;
 import de.westnordost.streetcomplete.data.osm.OsmElementQuestType;
+import de.westnordost.streetcomplete.data.osm.SimpleOverpassQuestType;
 import de.westnordost.streetcomplete.data.osm.download.OsmQuestDownload;
+import de.westnordost.streetcomplete.data.osm.download.OverpassQueryTooBigException;
+import de.westnordost.streetcomplete.data.osm.download.OverpassQuotaManager;
 import de.westnordost.streetcomplete.data.osmnotes.OsmNoteQuestDao;
 import de.westnordost.streetcomplete.data.osmnotes.OsmNoteQuestType;
 import de.westnordost.streetcomplete.data.osmnotes.OsmNotesDownload;
@@ -39,6 +46,7 @@ public class QuestDownload
 	private final SharedPreferences prefs;
 	private final DownloadedTilesDao downloadedTilesDao;
 	private final OsmNoteQuestDao osmNoteQuestDb;
+	private final OverpassQuotaManager overpassQuota;
 
 	private Rect tiles;
 	private Integer maxQuestTypes;
@@ -50,6 +58,7 @@ public class QuestDownload
 	private QuestDownloadProgressListener progressListener;
 
 	// state
+	private final Map<QuestType, Long> lastDownloadDates = new HashMap<>();
 	private int downloadedQuestTypes = 0;
 	private int totalQuestTypes;
 	private boolean finished = false;
@@ -58,12 +67,14 @@ public class QuestDownload
 								 Provider<OsmQuestDownload> questDownloadProvider,
 								 DownloadedTilesDao downloadedTilesDao,
 								 OsmNoteQuestDao osmNoteQuestDb,
+								 OverpassQuotaManager overpassQuota,
 								 QuestTypes questTypeList, SharedPreferences prefs)
 	{
 		this.notesDownloadProvider = notesDownloadProvider;
 		this.questDownloadProvider = questDownloadProvider;
 		this.downloadedTilesDao = downloadedTilesDao;
 		this.osmNoteQuestDb = osmNoteQuestDb;
+		this.overpassQuota = overpassQuota;
 		this.questTypeList = questTypeList;
 		this.prefs = prefs;
 	}
@@ -103,6 +114,9 @@ public class QuestDownload
 
 		BoundingBox bbox = SlippyMapMath.asBoundingBox(tiles, ApplicationConstants.QUEST_TILE_ZOOM);
 
+		// downloads that are waited for by the user get the next free Overpass slot
+		overpassQuota.setPriorityForCurrentThread(isPriority ?
+				OverpassQuotaManager.PRIORITY_HIGH : OverpassQuotaManager.PRIORITY_NORMAL);
 		try
 		{
 			Log.i(TAG, "(" + bbox.getAsLeftBottomRightTopString() + ") Starting");
@@ -118,11 +132,13 @@ public class QuestDownload
 				notesPositions = getNotePositionsFromDb(bbox);
 			}
 
-			downloadQuestTypes(bbox, questTypes, notesPositions);
-			progressListener.onSuccess();
+			downloadQuestTypes(questTypes, notesPositions);
+			// a download that was preempted before it downloaded everything continues later
+			if(!cancelState.get() || getProgress() >= 1f) progressListener.onSuccess();
 		}
 		finally
 		{
+			overpassQuota.setPriorityForCurrentThread(OverpassQuotaManager.PRIORITY_NORMAL);
 			finished = true;
 			progressListener.onFinished();
 			Log.i(TAG, "(" + bbox.getAsLeftBottomRightTopString() + ") Finished");
@@ -154,6 +170,18 @@ public class QuestDownload
 					Arrays.toString(alreadyDownloadedNames.toArray()));
 		}
 
+		/* the others may be refreshed incrementally if they have been fully downloaded not too
+		   long ago */
+		long ignoreFullDownloadsOlderThan = Math.max(0,
+				System.currentTimeMillis() - ApplicationConstants.REFRESH_QUESTS_FULLY_AFTER);
+		Map<String, Long> downloadDates =
+				downloadedTilesDao.getOldestDownloadDates(tiles, ignoreFullDownloadsOlderThan);
+		for (Map.Entry<String, Long> e : downloadDates.entrySet())
+		{
+			QuestType questType = questTypeList.forName(e.getKey());
+			if(questType != null) lastDownloadDates.put(questType, e.getValue());
+		}
+
 		return result;
 	}
 
@@ -184,30 +212,172 @@ public class QuestDownload
 		return result;
 	}
 
-	private void downloadQuestTypes(BoundingBox bbox, List<QuestType> questTypes,
-									Set<LatLon> notesPositions)
+	private void downloadQuestTypes(List<QuestType> questTypes, final Set<LatLon> notesPositions)
 	{
+		/* quest types that are defined only by tag filters are downloaded all together in one
+		   single request because every Overpass request is expensive (quota, latency) and these
+		   quests' elements can be assigned to their quest types locally. Those with around or
+		   inside filters cannot, as that needs the surroundings of each element */
+		final List<SimpleOverpassQuestType> simpleQuestTypes = new ArrayList<>();
+		final List<SimpleOverpassQuestType> refreshQuestTypes = new ArrayList<>();
+		List<OsmElementQuestType> otherQuestTypes = new ArrayList<>();
+		Long refreshSince = null;
 		for (QuestType questType : questTypes)
+		{
+			if (maxQuestTypes != null && downloadedQuestTypes + simpleQuestTypes.size() +
+					refreshQuestTypes.size() + otherQuestTypes.size() >= maxQuestTypes)
+				break;
+
+			if (questType instanceof SimpleOverpassQuestType &&
+					!((SimpleOverpassQuestType) questType).getTagFilterExpression().hasSpatialFilters())
+			{
+				Long lastDownloadDate = lastDownloadDates.get(questType);
+				if(lastDownloadDate != null)
+				{
+					refreshQuestTypes.add((SimpleOverpassQuestType) questType);
+					if(refreshSince == null || lastDownloadDate < refreshSince)
+					{
+						refreshSince = lastDownloadDate;
+					}
+				}
+				else
+				{
+					simpleQuestTypes.add((SimpleOverpassQuestType) questType);
+				}
+			}
+			else if (questType instanceof OsmElementQuestType)
+			{
+				otherQuestTypes.add((OsmElementQuestType) questType);
+			}
+		}
+
+		if (!refreshQuestTypes.isEmpty() && !cancelState.get())
+		{
+			final long changedSince = refreshSince;
+			boolean completed = new SplittableDownload()
+			{
+				@Override boolean download(OsmQuestDownload questDownload, BoundingBox bbox)
+				{
+					return questDownload.refresh(refreshQuestTypes, bbox, changedSince, notesPositions);
+				}
+
+				@Override void onDownloaded(Rect tiles)
+				{
+					for (SimpleOverpassQuestType questType : refreshQuestTypes)
+					{
+						downloadedTilesDao.putRefreshed(tiles, questType.getClass().getSimpleName());
+					}
+				}
+			}.run();
+			if (completed)
+			{
+				downloadedQuestTypes += refreshQuestTypes.size();
+				dispatchProgress();
+			}
+		}
+
+		if (!simpleQuestTypes.isEmpty() && !cancelState.get())
+		{
+			boolean completed = new SplittableDownload()
+			{
+				@Override boolean download(OsmQuestDownload questDownload, BoundingBox bbox)
+				{
+					return questDownload.download(simpleQuestTypes, bbox, notesPositions);
+				}
+
+				@Override void onDownloaded(Rect tiles)
+				{
+					for (SimpleOverpassQuestType questType : simpleQuestTypes)
+					{
+						downloadedTilesDao.put(tiles, questType.getClass().getSimpleName());
+					}
+				}
+			}.run();
+			if (completed)
+			{
+				downloadedQuestTypes += simpleQuestTypes.size();
+				dispatchProgress();
+			}
+		}
+
+		for (final OsmElementQuestType questType : otherQuestTypes)
 		{
 			if (cancelState.get()) break;
-			if (maxQuestTypes != null && downloadedQuestTypes >= maxQuestTypes) break;
 
-			if (questType instanceof OsmElementQuestType)
+			boolean completed = new SplittableDownload()
 			{
-				OsmQuestDownload questDownload = questDownloadProvider.get();
-				questDownload.setQuestListener(questListener);
+				@Override boolean download(OsmQuestDownload questDownload, BoundingBox bbox)
+				{
+					return questDownload.download(questType, bbox, notesPositions);
+				}
 
-				if(questDownload.download((OsmElementQuestType) questType, bbox, notesPositions))
+				@Override void onDownloaded(Rect tiles)
 				{
 					downloadedTilesDao.put(tiles, questType.getClass().getSimpleName());
 				}
-
+			}.run();
+			if (completed)
+			{
 				downloadedQuestTypes++;
 				dispatchProgress();
 			}
 		}
 	}
 
+	/** Downloads quests in the tile range of this quest download. If Overpass cannot handle a query
+	 *  for that area (too much data in dense cities), the tile range is split into quadrants which
+	 *  are then downloaded one after another, and so on, down to single tiles. Each part that has
+	 *  been downloaded successfully is persisted right away */
+	private abstract class SplittableDownload
+	{
+		/** @return true if successful (false if interrupted) */
+		abstract boolean download(OsmQuestDownload questDownload, BoundingBox bbox);
+
+		/** Called when the quests in the given tile range have been downloaded */
+		abstract void onDownloaded(Rect tiles);
+
+		/** @return whether all of the tiles have been downloaded, i.e. it has not been cancelled or
+		 *          interrupted in between. Tiles that cannot be downloaded because they are too
+		 *          big even on their own count as done */
+		boolean run()
+		{
+			boolean completed = true;
+			Queue<Rect> pending = new LinkedList<>();
+			pending.add(tiles);
+			while (!pending.isEmpty())
+			{
+				if (cancelState.get()) return false;
+
+				Rect part = pending.remove();
+				BoundingBox bbox = SlippyMapMath.asBoundingBox(part, ApplicationConstants.QUEST_TILE_ZOOM);
+
+				OsmQuestDownload questDownload = questDownloadProvider.get();
+				questDownload.setQuestListener(questListener);
+				try
+				{
+					if (download(questDownload, bbox)) onDownloaded(part);
+					else completed = false;
+				}
+				catch (OverpassQueryTooBigException e)
+				{
+					List<Rect> quadrants = SlippyMapMath.splitIntoQuadrants(part);
+					if (quadrants.isEmpty())
+					{
+						Log.w(TAG, "(" + bbox.getAsLeftBottomRightTopString() + ") " +
+								"Cannot download this single tile: " + e.getMessage());
+					}
+					else
+					{
+						Log.i(TAG, "(" + bbox.getAsLeftBottomRightTopString() + ") " +
+								"Splitting the area because it is too big: " + e.getMessage());
+						pending.addAll(quadrants);
+					}
+				}
+			}
+			return completed;
+		}
+	}
+
 	public float getProgress()
 	{
 		int max = totalQuestTypes;
@@ -215,6 +385,20 @@ public class QuestDownload
 		return Math.min(1f, (float) downloadedQuestTypes / max);
 	}
 
+	/** Quests that have been removed might leave elements and geometry behind that are not
+	 *  referenced anymore. Cleaning those up once after downloading is much cheaper than after
+	 *  each quest type. Must not be called while any other download writes quests */
+	public void deleteUnreferenced()
+	{
+		questDownloadProvider.get().deleteUnreferenced();
+	}
+
+	/** @return the number of quest types that have been downloaded so far */
+	public int getDownloadedQuestTypes()
+	{
+		return downloadedQuestTypes;
+	}
+
 	public boolean isPriority()
 	{
 		return isPriority;
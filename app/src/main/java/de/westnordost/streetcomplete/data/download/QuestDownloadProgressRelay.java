@@ -5,6 +5,9 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import de.westnordost.streetcomplete.MainActivity;
 import de.westnordost.streetcomplete.ApplicationConstants;
 import de.westnordost.streetcomplete.R;
@@ -12,8 +15,13 @@ import de.westnordost.streetcomplete.R;
 /** Threadsafe relay for QuestDownloadProgressListener. Also, it can show a notification with
  *  progress. See startForeground/stopForeground
  *
- *  (setting the listener and calling the listener methods can safely be done from different threads) */
-public class QuestDownloadProgressRelay implements QuestDownloadProgressListener
+ *  (setting the listener and calling the listener methods can safely be done from different threads)
+ *
+ *  Several downloads may report to this relay at the same time, each through its own listener (see
+ *  createDownloadListener). The listener is only notified that the download started when the first
+ *  one started and that it finished when the last one finished. The progress is the average
+ *  progress of all the downloads that ran since then */
+public class QuestDownloadProgressRelay
 {
 	private final int id;
 
@@ -24,6 +32,9 @@ public class QuestDownloadProgressRelay implements QuestDownloadProgressListener
 	private boolean showNotification;
 
 	private Exception occuredError;
+	// the downloads that are running or finished while others are still running
+	private final List<DownloadProgress> downloads = new ArrayList<>();
+	private int runningDownloads;
 	private boolean isDownloading;
 	private Float progress;
 
@@ -43,20 +54,49 @@ public class QuestDownloadProgressRelay implements QuestDownloadProgressListener
 				.setContentIntent(pendingIntent);
 	}
 
-	@Override synchronized public void onStarted()
+	/** @return a listener for one download that reports to this relay */
+	public QuestDownloadProgressListener createDownloadListener()
+	{
+		return new DownloadProgress();
+	}
+
+	private synchronized void onStarted(DownloadProgress download)
 	{
+		download.isRunning = true;
+		download.progress = 0f;
+		downloads.add(download);
+		if(++runningDownloads > 1)
+		{
+			updateProgress();
+			return;
+		}
+
 		this.isDownloading = true;
 		if(showNotification) showProgressNotification(0f);
 		if(listener != null) listener.onStarted();
 	}
 
-	@Override synchronized public void onNotStarted()
+	private synchronized void onNotStarted()
 	{
 		if(listener != null) listener.onNotStarted();
 	}
 
-	@Override synchronized public void onProgress(float progress)
+	private synchronized void onProgress(DownloadProgress download, float progress)
+	{
+		if(!download.isRunning) return;
+		download.progress = progress;
+		updateProgress();
+	}
+
+	private void updateProgress()
 	{
+		float sum = 0;
+		for(DownloadProgress download : downloads)
+		{
+			sum += download.progress;
+		}
+		float progress = sum / downloads.size();
+
 		this.progress = progress;
 		if(showNotification) showProgressNotification(progress);
 		if(listener != null) listener.onProgress(progress);
@@ -69,7 +109,7 @@ public class QuestDownloadProgressRelay implements QuestDownloadProgressListener
 		service.startForeground(id,n);
 	}
 
-	@Override synchronized public void onError(Exception e)
+	public synchronized void onError(Exception e)
 	{
 		this.occuredError = e;
 		if(listener != null)
@@ -79,13 +119,23 @@ public class QuestDownloadProgressRelay implements QuestDownloadProgressListener
 		}
 	}
 
-	@Override synchronized public void onSuccess()
+	private synchronized void onSuccess()
 	{
 		if(listener != null) listener.onSuccess();
 	}
 
-	@Override synchronized public void onFinished()
+	private synchronized void onFinished(DownloadProgress download)
 	{
+		if(!download.isRunning) return;
+		download.isRunning = false;
+		download.progress = 1f;
+		if(--runningDownloads > 0)
+		{
+			updateProgress();
+			return;
+		}
+
+		downloads.clear();
 		this.isDownloading = false;
 		this.progress = null;
 		if(showNotification) hideProgressNotification();
@@ -139,4 +189,22 @@ public class QuestDownloadProgressRelay implements QuestDownloadProgressListener
 			}
 		}
 	}
+
+	/** The progress of one download */
+	private class DownloadProgress implements QuestDownloadProgressListener
+	{
+		// guarded by the relay
+		boolean isRunning;
+		float progress;
+
+		@Override public void onStarted() { QuestDownloadProgressRelay.this.onStarted(this); }
+		@Override public void onNotStarted() { QuestDownloadProgressRelay.this.onNotStarted(); }
+		@Override public void onProgress(float progress)
+		{
+			QuestDownloadProgressRelay.this.onProgress(this, progress);
+		}
+		@Override public void onError(Exception e) { QuestDownloadProgressRelay.this.onError(e); }
+		@Override public void onSuccess() { QuestDownloadProgressRelay.this.onSuccess(); }
+		@Override public void onFinished() { QuestDownloadProgressRelay.this.onFinished(this); }
+	}
 }
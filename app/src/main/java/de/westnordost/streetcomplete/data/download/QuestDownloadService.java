@@ -4,19 +4,25 @@ import android.app.Service;
 import android.content.Intent;
 import android.graphics.Rect;
 import android.os.Binder;
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
-import android.os.Message;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 
+import de.westnordost.streetcomplete.ApplicationConstants;
 import de.westnordost.streetcomplete.Injector;
 import de.westnordost.streetcomplete.data.VisibleQuestListener;
 import de.westnordost.streetcomplete.data.VisibleQuestRelay;
@@ -24,11 +30,18 @@ import de.westnordost.streetcomplete.data.VisibleQuestRelay;
 /** Downloads all quests in a given area asynchronously. To use, start the service with the
  * appropriate parameters. (see #onStartCommand)
  *
- *  Generally, starting a new download cancels the old one. This is a feature; Consideration:
+ *  Several downloads run in parallel (see ApplicationConstants.QUEST_DOWNLOAD_THREADS), waiting
+ *  downloads are queued by priority first, then preempted downloads that are resumed and then by
+ *  age, the newest first. Consideration:
  *  If the user requests a new area to be downloaded, he'll generally be more interested in his last
- *  request than any request he made earlier and he wants that as fast as possible. (Downloading
- *  in-parallel is not possible with Overpass, only one request a time is allowed on the public
- *  instance)
+ *  request than any request he made earlier and he wants that as fast as possible.
+ *
+ *  So, if a priority download is started and all threads are busy, the least important running
+ *  download is preempted: It stops after the quest type it is currently downloading and is put
+ *  back into the queue, before any newer download of the same priority so that it cannot be
+ *  starved by them. Since each downloaded quest type is recorded in the DownloadedTilesDao,
+ *  nothing that has been downloaded already is downloaded again when it is resumed.
+ *  A new non-priority download (i.e. auto download) supersedes older non-priority downloads.
  *
  *  The service can be bound to snoop into the state of the downloading process:
  *  * To receive progress callbacks
@@ -54,42 +67,54 @@ public class QuestDownloadService extends Service
 	private QuestDownloadProgressRelay progressListenerRelay;
 	private VisibleQuestRelay visibleQuestRelay;
 
-	// service and worker thread
+	// service and worker threads
 	@Inject Provider<QuestDownload> questDownloadProvider;
 	private final IBinder binder = new Interface();
 
-	private QuestDownload currentDownload;
+	private ThreadPoolExecutor executor;
+
+	// guarded by downloadLock
 	private final Object downloadLock = new Object();
+	// all the jobs that are either waiting or running
+	private final List<DownloadJob> jobs = new ArrayList<>();
+	private long jobsCount = 0;
+	private int lastStartId;
 
-	private volatile Looper serviceLooper;
-	private volatile ServiceHandler serviceHandler;
-	private AtomicBoolean cancelState;
+	/* held for reading by every running download and for writing by the cleanup of unreferenced
+	   elements and geometry: that cleanup would delete what another download has just written if
+	   it ran at the same time */
+	private final ReadWriteLock downloadDataLock = new ReentrantReadWriteLock();
 
 	public QuestDownloadService()
 	{
 		super();
 		Injector.instance.getApplicationComponent().inject(this);
-		cancelState = new AtomicBoolean(false);
 	}
 
 	@Override public void onCreate()
 	{
 		super.onCreate();
 
-		HandlerThread thread = new HandlerThread(TAG);
-		thread.start();
-		serviceLooper = thread.getLooper();
-		serviceHandler = new ServiceHandler(serviceLooper);
+		int threads = ApplicationConstants.QUEST_DOWNLOAD_THREADS;
+		executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>());
+		executor.allowCoreThreadTimeOut(true);
 		progressListenerRelay = new QuestDownloadProgressRelay(this, 1);
 		visibleQuestRelay = new VisibleQuestRelay();
 	}
 
 	@Override public int onStartCommand(@Nullable Intent intent, int flags, int startId)
 	{
-		cancel();
-
-		if(intent != null)
+		synchronized (downloadLock)
 		{
+			lastStartId = startId;
+
+			if(intent == null)
+			{
+				stopSelfIfIdle();
+				return START_NOT_STICKY;
+			}
+
 			Rect tiles = intent.getParcelableExtra(ARG_TILES_RECT);
 
 			Integer maxQuestTypes = null;
@@ -100,12 +125,7 @@ public class QuestDownloadService extends Service
 
 			boolean isPriority = intent.hasExtra(ARG_IS_PRIORITY);
 
-			Message msg = serviceHandler.obtainMessage();
-			QuestDownload dl = questDownloadProvider.get();
-			dl.init(tiles, maxQuestTypes, isPriority, cancelState);
-			msg.obj = dl;
-			msg.arg1 = startId;
-			serviceHandler.sendMessage(msg);
+			enqueue(new DownloadJob(tiles, maxQuestTypes, isPriority, false, jobsCount++, jobRunner));
 		}
 		return START_NOT_STICKY;
 	}
@@ -117,14 +137,100 @@ public class QuestDownloadService extends Service
 
 	@Override public void onDestroy()
 	{
-		cancel();
-		serviceLooper.quit();
+		synchronized (downloadLock)
+		{
+			for (DownloadJob job : jobs)
+			{
+				job.cancel();
+				executor.remove(job);
+			}
+			jobs.clear();
+		}
+		executor.shutdown();
 	}
 
-	private void cancel()
+	private void enqueue(DownloadJob job)
 	{
-		cancelState.set(true);
-		cancelState = new AtomicBoolean(false);
+		if(!job.isPriority)
+		{
+			// a new auto download supersedes any other auto download
+			Iterator<DownloadJob> it = jobs.iterator();
+			while(it.hasNext())
+			{
+				DownloadJob otherJob = it.next();
+				if(otherJob.isPriority) continue;
+				otherJob.cancel();
+				// not started yet? -> can be dropped right away
+				if(executor.remove(otherJob)) it.remove();
+			}
+		}
+		else
+		{
+			preemptLeastImportantRunningJobFor(job);
+		}
+
+		jobs.add(job);
+		executor.execute(job);
+	}
+
+	private void preemptLeastImportantRunningJobFor(DownloadJob job)
+	{
+		DownloadJob jobToPreempt = findJobToPreempt(jobs, job, executor.getMaximumPoolSize());
+		if(jobToPreempt != null) jobToPreempt.preempt();
+	}
+
+	/** @return the least important of the given running jobs if it is less important than the
+	 *          given new job and all threads are busy, otherwise null */
+	static DownloadJob findJobToPreempt(Iterable<DownloadJob> jobs, DownloadJob job, int threads)
+	{
+		int runningJobsCount = 0;
+		DownloadJob leastImportantJob = null;
+		for (DownloadJob runningJob : jobs)
+		{
+			if(!runningJob.isRunning()) continue;
+			// a thread will soon be free anyway
+			if(runningJob.isPreempted() || runningJob.isCancelled()) return null;
+
+			runningJobsCount++;
+			if(leastImportantJob == null || runningJob.compareTo(leastImportantJob) > 0)
+			{
+				leastImportantJob = runningJob;
+			}
+		}
+		if(runningJobsCount < threads) return null;
+
+		if(leastImportantJob != null && job.compareTo(leastImportantJob) < 0)
+		{
+			return leastImportantJob;
+		}
+		return null;
+	}
+
+	private void onJobFinished(DownloadJob job)
+	{
+		synchronized (downloadLock)
+		{
+			jobs.remove(job);
+
+			if(job.isPreempted() && !executor.isShutdown())
+			{
+				DownloadJob resumedJob = job.createResumedJob();
+				if(resumedJob != null)
+				{
+					jobs.add(resumedJob);
+					executor.execute(resumedJob);
+				}
+			}
+			stopSelfIfIdle();
+		}
+	}
+
+	private void stopSelfIfIdle()
+	{
+		if(jobs.isEmpty())
+		{
+			stopSelf(lastStartId);
+		}
 	}
 
 	/** Public interface to classes that are bound to this service */
@@ -144,15 +250,25 @@ public class QuestDownloadService extends Service
 		{
 			synchronized (downloadLock)
 			{
-				return currentDownload != null && !currentDownload.isFinished();
+				for (DownloadJob job : jobs)
+				{
+					if(!job.isFinished()) return true;
+				}
+				return false;
 			}
 		}
 
+		/** @return whether any download that is running or waiting to be run was started by the
+		 *          user */
 		public boolean currentDownloadHasPriority()
 		{
 			synchronized (downloadLock)
 			{
-				return currentDownload.isPriority();
+				for (DownloadJob job : jobs)
+				{
+					if(job.isPriority) return true;
+				}
+				return false;
 			}
 		}
 
@@ -167,29 +283,156 @@ public class QuestDownloadService extends Service
 		}
 	}
 
-	private class ServiceHandler extends Handler
+	private final DownloadJob.Runner jobRunner = new DownloadJob.Runner()
 	{
-		ServiceHandler(Looper looper) { super(looper); }
-
-		@Override public void handleMessage(Message msg)
+		@Override public void run(DownloadJob job)
 		{
-			synchronized (downloadLock)
-			{
-				currentDownload = (QuestDownload) msg.obj;
-			}
 			try
 			{
-				currentDownload.setProgressListener(progressListenerRelay);
-				currentDownload.setVisibleQuestListener(visibleQuestRelay);
-				currentDownload.download();
+				QuestDownload download = questDownloadProvider.get();
+				job.start(download);
+				download.setProgressListener(progressListenerRelay.createDownloadListener());
+				download.setVisibleQuestListener(visibleQuestRelay);
+				downloadDataLock.readLock().lock();
+				try
+				{
+					download.download();
+				}
+				finally
+				{
+					downloadDataLock.readLock().unlock();
+				}
+				deleteUnreferencedIfNoOtherDownloadRuns(download);
 			}
 			catch(Exception e)
 			{
 				Log.e(TAG, "Unable to download quests", e);
 				progressListenerRelay.onError(e);
 			}
+			finally
+			{
+				onJobFinished(job);
+			}
+		}
+	};
+
+	/** If another download is still running, cleaning up is left to it. Downloads that start in
+	 *  the meantime wait until the clean up is done */
+	private void deleteUnreferencedIfNoOtherDownloadRuns(QuestDownload download)
+	{
+		if(!downloadDataLock.writeLock().tryLock()) return;
+		try
+		{
+			download.deleteUnreferenced();
+		}
+		finally
+		{
+			downloadDataLock.writeLock().unlock();
+		}
+	}
+
+	/** A download of quests for a tiles rect, ordered by priority first, then resumed jobs first
+	 *  and then by age */
+	static class DownloadJob implements Runnable, Comparable<DownloadJob>
+	{
+		/** Does the actual download of a job */
+		interface Runner
+		{
+			void run(DownloadJob job);
+		}
+
+		final Rect tiles;
+		final Integer maxQuestTypes;
+		final boolean isPriority;
+		final boolean isResumed;
+		final long order;
+
+		private final Runner runner;
+		private final AtomicBoolean cancelState = new AtomicBoolean(false);
+		private volatile boolean preempted;
+		private volatile QuestDownload download;
+
+		DownloadJob(Rect tiles, Integer maxQuestTypes, boolean isPriority, boolean isResumed,
+					long order, Runner runner)
+		{
+			this.tiles = tiles;
+			this.maxQuestTypes = maxQuestTypes;
+			this.isPriority = isPriority;
+			this.isResumed = isResumed;
+			this.order = order;
+			this.runner = runner;
+		}
+
+		@Override public void run()
+		{
+			runner.run(this);
+		}
+
+		/** Sets up the given download to download what this job should and makes it the download
+		 *  this job is running */
+		void start(QuestDownload download)
+		{
+			download.init(tiles, maxQuestTypes, isPriority, cancelState);
+			this.download = download;
+		}
 
-			stopSelf(msg.arg1);
+		void cancel()
+		{
+			preempted = false;
+			cancelState.set(true);
+		}
+
+		/** Stop after the current quest type so that it can be resumed later */
+		void preempt()
+		{
+			preempted = true;
+			cancelState.set(true);
+		}
+
+		boolean isPreempted()
+		{
+			return preempted;
+		}
+
+		boolean isCancelled()
+		{
+			return cancelState.get() && !preempted;
+		}
+
+		boolean isRunning()
+		{
+			QuestDownload download = this.download;
+			return download != null && !download.isFinished();
+		}
+
+		boolean isFinished()
+		{
+			QuestDownload download = this.download;
+			return download != null && download.isFinished();
+		}
+
+		/** @return a job that downloads what this job did not download because it was preempted
+		 *          or null if there is nothing left */
+		DownloadJob createResumedJob()
+		{
+			Integer remainingQuestTypes = maxQuestTypes;
+			QuestDownload download = this.download;
+			if(maxQuestTypes != null && download != null)
+			{
+				remainingQuestTypes = maxQuestTypes - download.getDownloadedQuestTypes();
+				if(remainingQuestTypes <= 0) return null;
+			}
+			return new DownloadJob(tiles, remainingQuestTypes, isPriority, true, order, runner);
+		}
+
+		@Override public int compareTo(@NonNull DownloadJob other)
+		{
+			if(isPriority != other.isPriority) return isPriority ? -1 : +1;
+			// resumed first, so that a preempted job is not starved by newer jobs
+			if(isResumed != other.isResumed) return isResumed ? -1 : +1;
+			// newer first
+			if(order != other.order) return order > other.order ? -1 : +1;
+			return 0;
 		}
 	}
 }
@@ -0,0 +1,152 @@
+package de.westnordost.streetcomplete.data.osm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.streetcomplete.data.osm.tql.TagFilterExpression;
+
+/** Index of quest types by the element type and the tags an element must have so that the tag
+ *  filters of a quest type can match it. Used to find out quickly to which quest types an element
+ *  may apply, so that appliesTo() only needs to be called for those.
+ *
+ *  Quest types whose tag filters are not known (= that are not SimpleOverpassQuestTypes) are
+ *  candidates for every element. */
+public class OsmElementQuestTypeIndex<T extends OsmElementQuestType>
+{
+	private final List<T> questTypes;
+	private final ElementTypeIndex[] byElementType;
+
+	public OsmElementQuestTypeIndex(List<? extends T> questTypes)
+	{
+		this.questTypes = new ArrayList<>(questTypes);
+
+		Element.Type[] elementTypes = Element.Type.values();
+		byElementType = new ElementTypeIndex[elementTypes.length];
+		for(int i = 0; i < elementTypes.length; ++i)
+		{
+			byElementType[i] = new ElementTypeIndex();
+		}
+
+		for(int i = 0; i < this.questTypes.size(); ++i)
+		{
+			T questType = this.questTypes.get(i);
+			TagFilterExpression filter = null;
+			if(questType instanceof SimpleOverpassQuestType)
+			{
+				filter = ((SimpleOverpassQuestType) questType).getTagFilterExpression();
+			}
+
+			for(Element.Type elementType : elementTypes)
+			{
+				if(filter != null && !filter.matchesElementsOfType(elementType)) continue;
+				byElementType[elementType.ordinal()].add(i, filter);
+			}
+		}
+	}
+
+	/** @return the quest types the given element may apply to, in the order in which they were
+	 *          passed to the constructor. Whether they actually apply to it must still be checked
+	 *          with appliesTo() */
+	public List<T> getCandidates(Element element)
+	{
+		BitSet candidates = byElementType[element.getType().ordinal()].getCandidates(element);
+		List<T> result = new ArrayList<>(candidates.cardinality());
+		for(int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1))
+		{
+			result.add(questTypes.get(i));
+		}
+		return result;
+	}
+
+	/** The positions of the quest types that may apply to elements of one element type */
+	private static class ElementTypeIndex
+	{
+		private final BitSet always = new BitSet();
+		private final Map<String, BitSet> byKey = new HashMap<>();
+		private final Map<String, Map<String, BitSet>> byKeyAndValue = new HashMap<>();
+
+		void add(int position, TagFilterExpression filter)
+		{
+			Map.Entry<String, Set<String>> tag = filter != null ? pickMostSelectiveTag(filter) : null;
+			if(tag == null)
+			{
+				always.set(position);
+			}
+			else if(tag.getValue() == null)
+			{
+				getOrCreate(byKey, tag.getKey()).set(position);
+			}
+			else
+			{
+				Map<String, BitSet> byValue = byKeyAndValue.get(tag.getKey());
+				if(byValue == null)
+				{
+					byValue = new HashMap<>();
+					byKeyAndValue.put(tag.getKey(), byValue);
+				}
+				for(String value : tag.getValue())
+				{
+					getOrCreate(byValue, value).set(position);
+				}
+			}
+		}
+
+		BitSet getCandidates(Element element)
+		{
+			BitSet result = (BitSet) always.clone();
+			Map<String, String> tags = element.getTags();
+			if(tags == null) return result;
+
+			for(Map.Entry<String, String> tag : tags.entrySet())
+			{
+				BitSet withKey = byKey.get(tag.getKey());
+				if(withKey != null) result.or(withKey);
+
+				Map<String, BitSet> byValue = byKeyAndValue.get(tag.getKey());
+				if(byValue != null)
+				{
+					BitSet withKeyAndValue = byValue.get(tag.getValue());
+					if(withKeyAndValue != null) result.or(withKeyAndValue);
+				}
+			}
+			return result;
+		}
+
+		/** @return the required tag with the fewest values or any required key if there is none
+		 *          with values or null if no tags are required at all */
+		private static Map.Entry<String, Set<String>> pickMostSelectiveTag(TagFilterExpression filter)
+		{
+			Map.Entry<String, Set<String>> result = null;
+			for(Map.Entry<String, Set<String>> tag : filter.getRequiredTags().entrySet())
+			{
+				if(result == null || isMoreSelective(tag.getValue(), result.getValue()))
+				{
+					result = tag;
+				}
+			}
+			return result;
+		}
+
+		private static boolean isMoreSelective(Set<String> values, Set<String> thanValues)
+		{
+			if(values == null) return false;
+			return thanValues == null || values.size() < thanValues.size();
+		}
+
+		private static BitSet getOrCreate(Map<String, BitSet> map, String key)
+		{
+			BitSet result = map.get(key);
+			if(result == null)
+			{
+				result = new BitSet();
+				map.put(key, result);
+			}
+			return result;
+		}
+	}
+}
@@ -26,7 +26,7 @@ public class OsmQuestUnlocker
 	private final OsmNoteQuestDao osmNoteQuestDb;
 	private final OsmQuestDao questDB;
 	private final ElementGeometryDao elementGeometryDB;
-	private final QuestTypes questTypes;
+	private final OsmElementQuestTypeIndex<OsmElementQuestType> questTypeIndex;
 
 	@Inject public OsmQuestUnlocker(OsmNoteQuestDao osmNoteQuestDb, OsmQuestDao questDB,
 									ElementGeometryDao elementGeometryDB, QuestTypes questTypes)
@@ -34,7 +34,21 @@ public class OsmQuestUnlocker
 		this.osmNoteQuestDb = osmNoteQuestDb;
 		this.questDB = questDB;
 		this.elementGeometryDB = elementGeometryDB;
-		this.questTypes = questTypes;
+		questTypeIndex = createQuestTypeIndex(questTypes);
+	}
+
+	private static OsmElementQuestTypeIndex<OsmElementQuestType> createQuestTypeIndex(
+			QuestTypes questTypes)
+	{
+		List<OsmElementQuestType> osmQuestTypes = new ArrayList<>();
+		for(QuestType questType : questTypes.getQuestTypesSortedByImportance())
+		{
+			if(questType instanceof OsmElementQuestType)
+			{
+				osmQuestTypes.add((OsmElementQuestType) questType);
+			}
+		}
+		return new OsmElementQuestTypeIndex<>(osmQuestTypes);
 	}
 
 	public List<OsmQuest> unlockNewQuests(Element element)
@@ -46,11 +60,9 @@ public class OsmQuestUnlocker
 
 		Set<QuestType> currentQuestTypes = getCurrentQuestTypes(element);
 
-		for(QuestType questType : questTypes.getQuestTypesSortedByImportance())
+		// only the quest types whose tag filters can match the element at all are asked
+		for(OsmElementQuestType osmQuestType : questTypeIndex.getCandidates(element))
 		{
-			if(!(questType instanceof OsmElementQuestType)) continue;
-			OsmElementQuestType osmQuestType = (OsmElementQuestType)questType;
-
 			if(currentQuestTypes.contains(osmQuestType)) continue;
 			if(!osmQuestType.appliesTo(element)) continue;
 
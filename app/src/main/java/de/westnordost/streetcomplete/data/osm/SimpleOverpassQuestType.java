@@ -6,6 +6,7 @@ import de.westnordost.osmapi.map.data.Element;
 import de.westnordost.streetcomplete.data.osm.download.MapDataWithGeometryHandler;
 import de.westnordost.streetcomplete.data.osm.download.OverpassMapDataDao;
 import de.westnordost.streetcomplete.data.osm.tql.FiltersParser;
+import de.westnordost.streetcomplete.data.osm.tql.MapDataIndex;
 import de.westnordost.streetcomplete.data.osm.tql.TagFilterExpression;
 import de.westnordost.osmapi.map.data.BoundingBox;
 
@@ -23,22 +24,43 @@ public abstract class SimpleOverpassQuestType implements OsmElementQuestType
 		filter = new FiltersParser().parse(getTagFilters());
 	}
 
-	/** @return a query string that is accepted by Overpass and does not exceed the given bbox */
+	/** @return a query string that is accepted by Overpass and finds the elements in the given
+	 *          bbox. Only elements that around or inside filters refer to are also searched for
+	 *          beyond it */
 	String getOverpassQuery(BoundingBox bbox)
 	{
 		return filter.toOverpassQLString(bbox);
 	}
 
+	/** @return the tag filters of this quest type. Can be used to find out locally whether an
+	 *          element applies to this quest type and to merge several quest types into one query */
+	public TagFilterExpression getTagFilterExpression()
+	{
+		return filter;
+	}
+
 	protected abstract String getTagFilters();
 
 	public boolean download(BoundingBox bbox, MapDataWithGeometryHandler handler)
 	{
-		return overpassServer.getAndHandleQuota(getOverpassQuery(bbox), handler);
+		if(!filter.hasSpatialFilters())
+		{
+			return overpassServer.getAndHandleQuota(getOverpassQuery(bbox), handler);
+		}
+
+		/* The query also returns the elements the around and inside filters refer to and elements
+		   that do not match these filters, so the result is filtered locally */
+		MapDataIndex mapData = new MapDataIndex();
+		if(!overpassServer.getAndHandleQuota(getOverpassQuery(bbox), mapData)) return false;
+		mapData.findAll(filter, handler);
+		return true;
 	}
 
+	/** Whether an element applies to this quest type if it has around or inside filters cannot be
+	 *  determined by looking at the element alone, so then it never applies */
 	@Override public boolean appliesTo(Element element)
 	{
-		return filter.matches(element);
+		return !filter.hasSpatialFilters() && filter.matches(element);
 	}
 
 	@Override public final int getTitle()
@@ -0,0 +1,47 @@
+package de.westnordost.streetcomplete.data.osm.download;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.OsmLatLon;
+
+/** Reusable buffer for the coordinates of a way while it is being parsed */
+class LatLonBuffer
+{
+	private double[] coords = new double[256];
+	private int size = 0;
+
+	void add(double lat, double lon)
+	{
+		if(size + 2 > coords.length)
+		{
+			double[] newCoords = new double[coords.length * 2];
+			System.arraycopy(coords, 0, newCoords, 0, size);
+			coords = newCoords;
+		}
+		coords[size++] = lat;
+		coords[size++] = lon;
+	}
+
+	boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	void clear()
+	{
+		size = 0;
+	}
+
+	/** @return the positions currently in this buffer as a new list of exactly that size */
+	List<LatLon> toList()
+	{
+		List<LatLon> result = new ArrayList<>(size / 2);
+		for (int i = 0; i < size; i += 2)
+		{
+			result.add(new OsmLatLon(coords[i], coords[i+1]));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,14 @@
+package de.westnordost.streetcomplete.data.osm.download;
+
+import de.westnordost.osmapi.ApiResponseReader;
+
+/** Parses the map data with geometry Overpass responds with and feeds it to a
+ *  MapDataWithGeometryHandler */
+public interface MapDataWithGeometryParser extends ApiResponseReader<Void>
+{
+	void setHandler(MapDataWithGeometryHandler handler);
+
+	/** @return the Overpass QL setting that selects the output format this parser can read, i.e.
+	 *          "[out:json]" or null for the default (XML) */
+	String getOutputFormatSetting();
+}
@@ -1,14 +1,24 @@
 package de.westnordost.streetcomplete.data.osm.download;
 
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
 
 import javax.inject.Inject;
 
@@ -17,11 +27,14 @@ import de.westnordost.streetcomplete.data.QuestType;
 import de.westnordost.streetcomplete.data.VisibleQuestListener;
 import de.westnordost.streetcomplete.data.osm.ElementGeometry;
 import de.westnordost.streetcomplete.data.osm.OsmElementQuestType;
+import de.westnordost.streetcomplete.data.osm.OsmElementQuestTypeIndex;
 import de.westnordost.streetcomplete.data.osm.OsmQuest;
+import de.westnordost.streetcomplete.data.osm.SimpleOverpassQuestType;
 import de.westnordost.streetcomplete.data.osm.persist.ElementGeometryDao;
 import de.westnordost.streetcomplete.data.osm.persist.MergedElementDao;
 import de.westnordost.streetcomplete.data.osm.persist.OsmQuestDao;
 import de.westnordost.streetcomplete.data.osm.persist.OsmElementKey;
+import de.westnordost.streetcomplete.data.osm.tql.TagFilterExpression;
 import de.westnordost.osmapi.map.data.BoundingBox;
 import de.westnordost.osmapi.map.data.Element;
 import de.westnordost.osmapi.map.data.LatLon;
@@ -31,21 +44,31 @@ public class OsmQuestDownload
 {
 	private static final String TAG = "QuestDownload";
 
+	/** number of elements that are written to the database at once */
+	private static final int BATCH_SIZE = 500;
+
+	private static final long OVERPASS_LAG = 60*60*1000; // one hour in ms
+
 	// injections
+	private final SQLiteOpenHelper dbHelper;
 	private final ElementGeometryDao geometryDB;
 	private final MergedElementDao elementDB;
 	private final OsmQuestDao osmQuestDB;
+	private final OverpassMapDataDao overpassServer;
 
 	// listener
 	private VisibleQuestListener questListener;
 
 	@Inject public OsmQuestDownload(
-			ElementGeometryDao geometryDB,
-			MergedElementDao elementDB, OsmQuestDao osmQuestDB)
+			SQLiteOpenHelper dbHelper, ElementGeometryDao geometryDB,
+			MergedElementDao elementDB, OsmQuestDao osmQuestDB,
+			OverpassMapDataDao overpassServer)
 	{
+		this.dbHelper = dbHelper;
 		this.geometryDB = geometryDB;
 		this.elementDB = elementDB;
 		this.osmQuestDB = osmQuestDB;
+		this.overpassServer = overpassServer;
 	}
 
 	public void setQuestListener(VisibleQuestListener listener)
@@ -56,41 +79,280 @@ public class OsmQuestDownload
 	public boolean download(final OsmElementQuestType questType, BoundingBox bbox,
 						  final Set<LatLon> blacklistedPositions)
 	{
-		final ArrayList<ElementGeometryDao.Row> geometryRows = new ArrayList<>();
-		final Map<OsmElementKey,Element> elements = new HashMap<>();
-		final ArrayList<OsmQuest> quests = new ArrayList<>();
-		final Map<OsmElementKey, Long> previousQuests = getPreviousQuestsIdsByElementKey(questType, bbox);
+		final DownloadedQuests result = new DownloadedQuests(
+				Collections.singletonList(questType), bbox, blacklistedPositions, false);
 
-		long time = System.currentTimeMillis();
 		boolean success = questType.download(bbox, new MapDataWithGeometryHandler()
 		{
 			@Override public void handle(@NonNull Element element, @Nullable ElementGeometry geometry)
 			{
-				if(mayCreateQuestFrom(questType, element, geometry, blacklistedPositions))
+				result.add(questType, element, geometry);
+				result.flushIfBatchIsFull();
+			}
+		});
+		if(!success) return false;
+
+		result.finish();
+		return true;
+	}
+
+	/* Note that elements and geometry that are not referenced by any quest anymore after the
+	   download are not removed here but should be removed once after all quest types have been
+	   downloaded, see deleteUnreferenced */
+
+	/** Downloads the quests of all the given quest types with one single request: The union of
+	 *  the tag filters of all quest types is queried and each element received is then assigned
+	 *  locally to the quest types whose tag filters match it.
+	 *
+	 * @return true if successful (false if interrupted). Either all quest types have been
+	 *         downloaded or none */
+	public boolean download(final List<SimpleOverpassQuestType> questTypes, BoundingBox bbox,
+							final Set<LatLon> blacklistedPositions)
+	{
+		List<TagFilterExpression> filters = new ArrayList<>(questTypes.size());
+		for(SimpleOverpassQuestType questType : questTypes)
+		{
+			filters.add(questType.getTagFilterExpression());
+		}
+		String query = TagFilterExpression.toOverpassQLString(filters, bbox);
+
+		final DownloadedQuests result = new DownloadedQuests(questTypes, bbox, blacklistedPositions, false);
+		final OsmElementQuestTypeIndex<SimpleOverpassQuestType> questTypeIndex =
+				new OsmElementQuestTypeIndex<>(questTypes);
+
+		boolean success = overpassServer.getAndHandleQuota(query, new MapDataWithGeometryHandler()
+		{
+			@Override public void handle(@NonNull Element element, @Nullable ElementGeometry geometry)
+			{
+				for(SimpleOverpassQuestType questType : questTypeIndex.getCandidates(element))
 				{
-					Element.Type elementType = element.getType();
-					long elementId = element.getId();
+					if(questType.appliesTo(element))
+					{
+						result.add(questType, element, geometry);
+					}
+				}
+				result.flushIfBatchIsFull();
+			}
+		});
+		if(!success) return false;
+
+		result.finish();
+		return true;
+	}
 
-					OsmQuest quest = new OsmQuest(questType, elementType, elementId, geometry);
+	/** Refreshes the quests of all the given quest types incrementally: Only the (tagged) elements
+	 *  that changed since the given date are downloaded. Quests are created for those that now
+	 *  match the tag filters of a quest type and removed for those that do not match anymore.
+	 *
+	 *  Note that this does not notice deleted elements nor ways whose geometry changed only because
+	 *  their nodes have been moved. So, a full download should be done every now and then anyway.
+	 *
+	 * @return true if successful (false if interrupted) */
+	public boolean refresh(final List<SimpleOverpassQuestType> questTypes, BoundingBox bbox,
+						   long changedSince, final Set<LatLon> blacklistedPositions)
+	{
+		String query = getChangedElementsOverpassQuery(bbox, changedSince);
+
+		final DownloadedQuests result = new DownloadedQuests(questTypes, bbox, blacklistedPositions, true);
+		final OsmElementQuestTypeIndex<SimpleOverpassQuestType> questTypeIndex =
+				new OsmElementQuestTypeIndex<>(questTypes);
 
-					geometryRows.add(new ElementGeometryDao.Row(
-							elementType, elementId, quest.getGeometry()));
-					quests.add(quest);
-					OsmElementKey elementKey = new OsmElementKey(elementType, elementId);
-					elements.put(elementKey, element);
-					previousQuests.remove(elementKey);
+		boolean success = overpassServer.getAndHandleQuota(query, new MapDataWithGeometryHandler()
+		{
+			@Override public void handle(@NonNull Element element, @Nullable ElementGeometry geometry)
+			{
+				List<SimpleOverpassQuestType> candidates = questTypeIndex.getCandidates(element);
+				for(SimpleOverpassQuestType questType : questTypes)
+				{
+					if(candidates.contains(questType) && questType.appliesTo(element))
+					{
+						result.add(questType, element, geometry);
+					}
+					else
+					{
+						result.remove(questType, element);
+					}
 				}
+				result.flushIfBatchIsFull();
 			}
 		});
 		if(!success) return false;
 
-		// geometry and elements must be put into DB first because quests have foreign keys on it
-		geometryDB.putAll(geometryRows);
-		elementDB.putAll(elements.values());
+		result.finish();
+		return true;
+	}
+
+	private static String getChangedElementsOverpassQuery(BoundingBox bbox, long changedSince)
+	{
+		/* the Overpass database lags a bit behind the OSM database, so rather take some more
+		   changes than missing some */
+		long since = changedSince - OVERPASS_LAG;
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		String newer = "(newer:\"" + dateFormat.format(new Date(since)) + "\")";
+
+		// untagged nodes are not interesting: They are only part of ways and no quest is about them
+		return "[bbox:" +
+				bbox.getMinLatitude() + "," + bbox.getMinLongitude() + "," +
+				bbox.getMaxLatitude() + "," + bbox.getMaxLongitude() +
+				"];" +
+				"(node" + newer + "[~\".\"~\".\"];way" + newer + ";relation" + newer + ";);" +
+				"out meta geom;";
+	}
+
+	/** The quests created from the data downloaded for one or several quest types. The data is
+	 *  written to the database in batches while it is being received so that the memory used
+	 *  does not depend on the size of the downloaded data */
+	private class DownloadedQuests
+	{
+		private final Set<LatLon> blacklistedPositions;
+		private final long startTime = System.currentTimeMillis();
+
+		private final Map<OsmElementQuestType, QuestTypeResult> results = new LinkedHashMap<>();
+
+		// the current batch
+		private final ArrayList<ElementGeometryDao.Row> geometryRows = new ArrayList<>();
+		private final Map<OsmElementKey,Element> elements = new HashMap<>();
+
+		/* if only the changed elements are downloaded, the quests that have not been found in the
+		   downloaded data are not obsolete. Only those of elements that do not match anymore */
+		private final boolean onlyChanges;
+
+		DownloadedQuests(Collection<? extends OsmElementQuestType> questTypes, BoundingBox bbox,
+						 Set<LatLon> blacklistedPositions, boolean onlyChanges)
+		{
+			this.blacklistedPositions = blacklistedPositions;
+			this.onlyChanges = onlyChanges;
+			for(OsmElementQuestType questType : questTypes)
+			{
+				results.put(questType, new QuestTypeResult(
+						getPreviousQuestsIdsByElementKey(questType, bbox)));
+			}
+		}
+
+		void add(OsmElementQuestType questType, Element element, ElementGeometry geometry)
+		{
+			if(!mayCreateQuestFrom(questType, element, geometry, blacklistedPositions)) return;
+
+			Element.Type elementType = element.getType();
+			long elementId = element.getId();
 
-		int newQuestsByQuestType = osmQuestDB.addAll(quests);
+			OsmQuest quest = new OsmQuest(questType, elementType, elementId, geometry);
 
-		if(questListener != null && !quests.isEmpty())
+			OsmElementKey elementKey = new OsmElementKey(elementType, elementId);
+			// the same element may be part of several quests (of different quest types)
+			if(!elements.containsKey(elementKey))
+			{
+				geometryRows.add(new ElementGeometryDao.Row(
+						elementType, elementId, quest.getGeometry()));
+				elements.put(elementKey, element);
+			}
+			QuestTypeResult result = results.get(questType);
+			result.quests.add(quest);
+			result.previousQuests.remove(elementKey);
+		}
+
+		/** Remove the quest of the given quest type for the given element, if there is any */
+		void remove(OsmElementQuestType questType, Element element)
+		{
+			QuestTypeResult result = results.get(questType);
+			Long questId = result.previousQuests.remove(
+					new OsmElementKey(element.getType(), element.getId()));
+			if(questId != null) result.obsoleteQuests.add(questId);
+		}
+
+		void flushIfBatchIsFull()
+		{
+			if(elements.size() >= BATCH_SIZE) flush();
+		}
+
+		private void flush()
+		{
+			if(elements.isEmpty()) return;
+
+			/* the batch is written in one transaction so that it becomes visible all at once: a
+			   cleanup of unreferenced data must not see its geometry and elements before the
+			   quests that reference them, and quests must not be visible without them */
+			SQLiteDatabase db = dbHelper.getWritableDatabase();
+			db.beginTransaction();
+			try
+			{
+				// geometry and elements must be put into DB first because quests have foreign keys on it
+				geometryDB.putAll(geometryRows);
+				elementDB.putAll(elements.values());
+				for(QuestTypeResult result : results.values())
+				{
+					addQuests(result);
+				}
+				db.setTransactionSuccessful();
+			}
+			finally
+			{
+				db.endTransaction();
+			}
+			geometryRows.clear();
+			elements.clear();
+
+			for(QuestTypeResult result : results.values())
+			{
+				dispatchCreatedQuests(result);
+			}
+		}
+
+		/** Write the rest and remove the quests that have not been found in the downloaded data
+		 *  anymore */
+		void finish()
+		{
+			flush();
+
+			for(Map.Entry<OsmElementQuestType, QuestTypeResult> e : results.entrySet())
+			{
+				QuestTypeResult result = e.getValue();
+				Collection<Long> obsoleteQuests = onlyChanges ?
+						result.obsoleteQuests : result.previousQuests.values();
+				int obsoleteAmount = removeObsoleteQuests(obsoleteQuests);
+
+				Log.i(TAG, getQuestTypeName(e.getKey()) + ": " +
+						"Added " + result.addedCount + " new and " +
+						"removed " + obsoleteAmount + " already resolved quests." +
+						" (Total: " + result.totalCount + ")" +
+						" in " + (System.currentTimeMillis() - startTime) + "ms");
+			}
+		}
+	}
+
+	/** The quests of one quest type created from the downloaded data */
+	private static class QuestTypeResult
+	{
+		// of the current batch
+		ArrayList<OsmQuest> quests = new ArrayList<>();
+		// of the whole download
+		final Map<OsmElementKey, Long> previousQuests;
+		final List<Long> obsoleteQuests = new ArrayList<>();
+		int addedCount, totalCount;
+
+		QuestTypeResult(Map<OsmElementKey, Long> previousQuests)
+		{
+			this.previousQuests = previousQuests;
+		}
+	}
+
+	private void addQuests(QuestTypeResult result)
+	{
+		ArrayList<OsmQuest> quests = result.quests;
+		if(quests.isEmpty()) return;
+
+		result.addedCount += osmQuestDB.addAll(quests);
+		result.totalCount += quests.size();
+	}
+
+	/** Notify the listener of the quests of the current batch after they have been written */
+	private void dispatchCreatedQuests(QuestTypeResult result)
+	{
+		ArrayList<OsmQuest> quests = result.quests;
+		if(quests.isEmpty()) return;
+
+		if(questListener != null)
 		{
 			Iterator<OsmQuest> it = quests.iterator();
 			while(it.hasNext())
@@ -100,30 +362,29 @@ public class OsmQuestDownload
 			}
 			questListener.onQuestsCreated(quests, QuestGroup.OSM);
 		}
+		// the listener may hold on to the list, so do not reuse it
+		result.quests = new ArrayList<>();
+	}
 
-		if(!previousQuests.isEmpty())
+	private int removeObsoleteQuests(Collection<Long> questIds)
+	{
+		if(!questIds.isEmpty())
 		{
 			if(questListener != null)
 			{
-				questListener.onQuestsRemoved(previousQuests.values(), QuestGroup.OSM);
+				questListener.onQuestsRemoved(questIds, QuestGroup.OSM);
 			}
 
-			osmQuestDB.deleteAll(previousQuests.values());
+			osmQuestDB.deleteAll(questIds);
 		}
+		return questIds.size();
+	}
 
-		// note: this could be done after ALL osm quest types have been downloaded if this
-		// turns out to be slow if done for every quest type
+	/** Cleans up elements and geometry that are not referenced by any quest anymore */
+	public void deleteUnreferenced()
+	{
 		geometryDB.deleteUnreferenced();
 		elementDB.deleteUnreferenced();
-
-		int obsoleteAmount = previousQuests.size();
-		Log.i(TAG, getQuestTypeName(questType) + ": " +
-				"Added " + newQuestsByQuestType + " new and " +
-				"removed " + obsoleteAmount + " already resolved quests." +
-				" (Total: " + quests.size() + ")" +
-				" in " + (System.currentTimeMillis() - time) + "ms");
-
-		return true;
 	}
 
 	private Map<OsmElementKey, Long> getPreviousQuestsIdsByElementKey(
@@ -0,0 +1,291 @@
+package de.westnordost.streetcomplete.data.osm.download;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import de.westnordost.osmapi.ApiResponseReader;
+
+/** Caches the raw responses of Overpass queries gzipped on disk for a limited time, so that the
+ *  same query does not need to be sent to Overpass again i.e. when a download is repeated.
+ *
+ *  The total size of the cache is limited, the least recently used responses are removed first
+ *  if it grows too big. */
+public class OverpassMapDataCache
+{
+	private static final String TAG = "OverpassMapDataCache";
+
+	private static final String
+			SUFFIX = ".gz",
+			TEMP_SUFFIX = ".tmp";
+
+	private final File directory;
+	private final long maxSize;
+	private final long timeToLive;
+
+	// file name -> file size, in order of access
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long size;
+	private boolean initialized;
+	/* incremented on clear(): responses to requests that have been made before are outdated and
+	   must not be put anymore */
+	private int generation;
+
+	/**
+	 * @param directory directory in which the responses are saved. The cache must have it for
+	 *                  itself alone
+	 * @param maxSize maximum size of all the responses in the cache in bytes
+	 * @param timeToLive time in ms after which a cached response is not used anymore
+	 */
+	public OverpassMapDataCache(File directory, long maxSize, long timeToLive)
+	{
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.timeToLive = timeToLive;
+	}
+
+	/** @return the cached response to the given query or null if there is none that is young
+	 *          enough */
+	public synchronized InputStream get(String query)
+	{
+		init();
+
+		String fileName = getFileName(query);
+		if(entries.get(fileName) == null) return null;
+
+		File file = new File(directory, fileName);
+		if(System.currentTimeMillis() - file.lastModified() > timeToLive)
+		{
+			remove(fileName);
+			return null;
+		}
+
+		try
+		{
+			return new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+		}
+		catch (IOException e)
+		{
+			Log.w(TAG, "Unable to read cached response", e);
+			remove(fileName);
+			return null;
+		}
+	}
+
+	/** @return a response reader that passes everything it reads on to the given reader and puts
+	 *          the response into the cache if the given reader parsed it successfully and the
+	 *          cache has not been cleared since. So, it must be created before the request is made */
+	public <T> ApiResponseReader<T> putting(final String query, final ApiResponseReader<T> reader)
+	{
+		final int requestGeneration = getGeneration();
+		return new ApiResponseReader<T>()
+		{
+			@Override public T parse(InputStream in) throws Exception
+			{
+				File tempFile = createTempFile();
+				OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+				boolean success = false;
+				try
+				{
+					T result = reader.parse(new CopyingInputStream(in, out));
+					success = true;
+					return result;
+				}
+				finally
+				{
+					try
+					{
+						out.close();
+					}
+					catch (IOException e)
+					{
+						success = false;
+					}
+					if(success) put(query, tempFile, requestGeneration);
+					else        tempFile.delete();
+				}
+			}
+		};
+	}
+
+	/** Removes all responses from the cache */
+	public synchronized void clear()
+	{
+		init();
+		for(String fileName : entries.keySet())
+		{
+			new File(directory, fileName).delete();
+		}
+		entries.clear();
+		size = 0;
+		generation++;
+	}
+
+	private synchronized int getGeneration()
+	{
+		return generation;
+	}
+
+	private synchronized File createTempFile() throws IOException
+	{
+		init();
+		return File.createTempFile("response", TEMP_SUFFIX, directory);
+	}
+
+	private synchronized void put(String query, File tempFile, int requestGeneration)
+	{
+		if(requestGeneration != generation)
+		{
+			tempFile.delete();
+			return;
+		}
+		String fileName = getFileName(query);
+		remove(fileName);
+		File file = new File(directory, fileName);
+		if(!tempFile.renameTo(file))
+		{
+			tempFile.delete();
+			return;
+		}
+		long fileSize = file.length();
+		entries.put(fileName, fileSize);
+		size += fileSize;
+		trimToSize();
+	}
+
+	private void remove(String fileName)
+	{
+		Long fileSize = entries.remove(fileName);
+		if(fileSize != null) size -= fileSize;
+		new File(directory, fileName).delete();
+	}
+
+	private void trimToSize()
+	{
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while(size > maxSize && it.hasNext())
+		{
+			Map.Entry<String, Long> eldest = it.next();
+			new File(directory, eldest.getKey()).delete();
+			size -= eldest.getValue();
+			it.remove();
+		}
+	}
+
+	/** Reads in what is in the cache directory already, lazily because it is disk IO */
+	private void init()
+	{
+		if(initialized) return;
+		initialized = true;
+
+		if(!directory.exists() && !directory.mkdirs())
+		{
+			Log.w(TAG, "Unable to create cache directory " + directory);
+		}
+		File[] files = directory.listFiles();
+		if(files == null) return;
+
+		// the last modified date is the date the response was cached: assume LRU order
+		Arrays.sort(files, new Comparator<File>()
+		{
+			@Override public int compare(File f1, File f2)
+			{
+				long m1 = f1.lastModified(), m2 = f2.lastModified();
+				return m1 < m2 ? -1 : (m1 == m2 ? 0 : +1);
+			}
+		});
+		for(File file : files)
+		{
+			String fileName = file.getName();
+			if(fileName.endsWith(SUFFIX))
+			{
+				entries.put(fileName, file.length());
+				size += file.length();
+			}
+			else if(fileName.endsWith(TEMP_SUFFIX))
+			{
+				// left over from a download that has been interrupted
+				file.delete();
+			}
+		}
+		trimToSize();
+	}
+
+	private static String getFileName(String query)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(query.getBytes("UTF-8"));
+			StringBuilder result = new StringBuilder(hash.length * 2 + SUFFIX.length());
+			for(byte b : hash)
+			{
+				result.append(String.format("%02x", b));
+			}
+			result.append(SUFFIX);
+			return result.toString();
+		}
+		catch (NoSuchAlgorithmException | UnsupportedEncodingException e)
+		{
+			// should never happen, SHA-1 and UTF-8 are always available
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Writes everything that is read from the input stream also to the output stream */
+	private static class CopyingInputStream extends FilterInputStream
+	{
+		private final OutputStream out;
+
+		CopyingInputStream(InputStream in, OutputStream out)
+		{
+			super(in);
+			this.out = out;
+		}
+
+		@Override public int read() throws IOException
+		{
+			int b = super.read();
+			if(b != -1) out.write(b);
+			return b;
+		}
+
+		@Override public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			int count = super.read(buffer, offset, length);
+			if(count > 0) out.write(buffer, offset, count);
+			return count;
+		}
+
+		@Override public long skip(long n) throws IOException
+		{
+			// skipped bytes must be copied too
+			long skipped = 0;
+			while(skipped < n && read() != -1) skipped++;
+			return skipped;
+		}
+
+		@Override public boolean markSupported()
+		{
+			return false;
+		}
+	}
+}
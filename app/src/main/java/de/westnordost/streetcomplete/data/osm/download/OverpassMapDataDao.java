@@ -1,8 +1,11 @@
 package de.westnordost.streetcomplete.data.osm.download;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
@@ -11,37 +14,112 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 
 import de.westnordost.osmapi.ApiRequestWriter;
+import de.westnordost.osmapi.ApiResponseReader;
 import de.westnordost.osmapi.OsmConnection;
 import de.westnordost.osmapi.common.errors.OsmApiException;
 import de.westnordost.osmapi.common.errors.OsmBadUserInputException;
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.streetcomplete.data.osm.ElementGeometry;
 
-/** Get map data from overpass api */
+/** Get map data from overpass api. Several requests may be made in parallel, as many as the
+ *  shared OverpassQuotaManager permits */
 public class OverpassMapDataDao
 {
 	private static final String TAG = "OverpassMapDataDao";
 
+	/** Queries that return more elements than this are aborted, rather query a smaller area then */
+	private static final int MAX_ELEMENTS = 50000;
+
 	private final OsmConnection osm;
-	private final Provider<OverpassMapDataParser> parserProvider;
+	private final Provider<MapDataWithGeometryParser> parserProvider;
+	private final OverpassQuotaManager quota;
+	private final OverpassMapDataCache cache;
 
-	@Inject public OverpassMapDataDao(OsmConnection osm, Provider<OverpassMapDataParser> parserProvider)
+	/** @param cache cache for the responses. May be null if responses should not be cached */
+	@Inject public OverpassMapDataDao(OsmConnection osm,
+									  Provider<MapDataWithGeometryParser> parserProvider,
+									  OverpassQuotaManager quota, OverpassMapDataCache cache)
 	{
 		this.osm = osm;
 		this.parserProvider = parserProvider;
+		this.quota = quota;
+		this.cache = cache;
 	}
 
 	/**
-	 * Feeds map data to the given MapDataWithGeometryHandler.
+	 * Feeds map data to the given MapDataWithGeometryHandler. The response is taken from the cache
+	 * if it has been cached.
 	 *
 	 * @param query Query string. Either Overpass QL or Overpass XML query string
 	 * @param handler map data handler that is fed the map data and geometry
 	 *
 	 * @throws OsmTooManyRequestsException if the user is over his request quota. See getStatus, killMyQueries
 	 * @throws OsmBadUserInputException if there is an error if the query
+	 * @throws OverpassQueryTooBigException if the query timed out, ran out of memory or returned
+	 *                                      too many elements
 	 */
-	public synchronized void get(final String query, MapDataWithGeometryHandler handler)
+	public void get(String query, MapDataWithGeometryHandler handler)
+	{
+		MapDataWithGeometryParser parser = createParser(handler);
+		String fullQuery = withSetting(query, parser.getOutputFormatSetting());
+		if(!getFromCache(fullQuery, parser))
+		{
+			request(fullQuery, parser);
+		}
+	}
+
+	private MapDataWithGeometryParser createParser(final MapDataWithGeometryHandler handler)
+	{
+		MapDataWithGeometryParser parser = parserProvider.get();
+		parser.setHandler(new MapDataWithGeometryHandler()
+		{
+			private int count = 0;
+
+			@Override public void handle(@NonNull Element element, @Nullable ElementGeometry geometry)
+			{
+				if(++count > MAX_ELEMENTS)
+				{
+					throw new OverpassQueryTooBigException("Query returned more than " + MAX_ELEMENTS + " elements");
+				}
+				handler.handle(element, geometry);
+			}
+		});
+		return parser;
+	}
+
+	private boolean getFromCache(String fullQuery, MapDataWithGeometryParser parser)
+	{
+		if(cache == null) return false;
+		InputStream in = cache.get(fullQuery);
+		if(in == null) return false;
+
+		Log.d(TAG, "Using cached response");
+		try
+		{
+			parser.parse(in);
+		}
+		catch(RuntimeException e)
+		{
+			throw e;
+		}
+		catch(Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+		finally
+		{
+			try
+			{
+				in.close();
+			}
+			catch (IOException ignore) {}
+		}
+		return true;
+	}
+
+	private void request(final String fullQuery, MapDataWithGeometryParser parser)
 	{
-		OverpassMapDataParser parser = parserProvider.get();
-		parser.setHandler(handler);
+		ApiResponseReader<Void> reader = cache != null ? cache.putting(fullQuery, parser) : parser;
 		try
 		{
 			ApiRequestWriter writer = new ApiRequestWriter()
@@ -53,57 +131,83 @@ public class OverpassMapDataDao
 
 				@Override public void write(OutputStream out) throws IOException
 				{
-					String request = "data=" + urlEncode(query);
+					String request = "data=" + urlEncode(fullQuery);
 					out.write(request.getBytes());
 				}
 			};
-			osm.makeRequest("interpreter", "POST", false, writer, parser);
+			osm.makeRequest("interpreter", "POST", false, writer, reader);
 		}
 		catch(OsmApiException e)
 		{
 			if(e.getErrorCode() == 429)
 				throw new OsmTooManyRequestsException(e.getErrorCode(), e.getErrorTitle(), e.getDescription());
 			else
-				throw e;
+				throw unwrapQueryTooBig(e);
+		}
+		catch(RuntimeException e)
+		{
+			throw unwrapQueryTooBig(e);
 		}
 	}
 
-	/** Same as get(String, MapDataWithGeometryHandler), only that it automatically waits until the
-	 *  app is allowed to do requests again by request quota if it hits the request quota.
+	/** Exceptions thrown while parsing the response may be wrapped by the connection */
+	private static RuntimeException unwrapQueryTooBig(RuntimeException e)
+	{
+		Throwable cause = e;
+		while(cause != null)
+		{
+			if(cause instanceof OverpassQueryTooBigException) return (OverpassQueryTooBigException) cause;
+			cause = cause.getCause();
+		}
+		return e;
+	}
+
+	/** Same as get(String, MapDataWithGeometryHandler), only that it waits for a permit of the
+	 *  shared quota before it makes the request and automatically waits until the app is allowed
+	 *  to do requests again by request quota if it hits the request quota.
 
 	 * @param query Query string. Either Overpass QL or Overpass XML query string
 	 * @param handler map data handler that is fed the map data and geometry
 	 * @return false if it was interrupted while waiting for the quota to be replenished
 	 *
 	 * @throws OsmBadUserInputException if there is an error if the query
+	 * @throws OverpassQueryTooBigException if the query timed out, ran out of memory or returned
+	 *                                      too many elements
 	 */
-	public synchronized boolean getAndHandleQuota(String query, MapDataWithGeometryHandler handler)
+	public boolean getAndHandleQuota(String query, MapDataWithGeometryHandler handler)
 	{
-		try
-		{
-			get(query, handler);
-		}
-		catch(OsmTooManyRequestsException e)
+		MapDataWithGeometryParser parser = createParser(handler);
+		String fullQuery = withSetting(query, parser.getOutputFormatSetting());
+		// no need to wait for the quota if the response is in the cache
+		if(getFromCache(fullQuery, parser)) return true;
+
+		while(true)
 		{
-			OverpassStatus status = getStatus();
-			if(status.availableSlots == 0)
+			try
 			{
-				// rather wait 1s longer than required cause we only get the time in seconds
-				int wait = (1 + status.nextAvailableSlotIn) * 1000;
-				Log.i(TAG, "Hit Overpass quota. Waiting " + wait + "ms before continuing");
-				try
-				{
-					Thread.sleep(wait);
-				}
-				catch (InterruptedException ie)
-				{
-					Log.d(TAG, "Thread interrupted while waiting for Overpass quota to be replenished");
-					return false;
-				}
+				quota.acquire();
+			}
+			catch (InterruptedException e)
+			{
+				Log.d(TAG, "Thread interrupted while waiting for Overpass quota to be replenished");
+				return false;
+			}
+
+			try
+			{
+				request(fullQuery, parser);
+				return true;
+			}
+			catch(OsmTooManyRequestsException e)
+			{
+				// the status is shared with all other callers, so they do not run into the quota too
+				quota.update(getStatus());
+			}
+			finally
+			{
+				quota.release();
 			}
-			return getAndHandleQuota(query, handler);
 		}
-		return true;
 	}
 
 	/** Kills all the queries sent from this IP. Useful if there is a runaway query that takes far
@@ -119,6 +223,14 @@ public class OverpassMapDataDao
 		return osm.makeRequest("status", new OverpassStatusParser());
 	}
 
+	private static String withSetting(String query, String setting)
+	{
+		if(setting == null) return query;
+		// settings are all in the first statement, i.e. "[out:json][bbox:1,2,3,4];"
+		if(query.startsWith("[")) return setting + query;
+		return setting + ";" + query;
+	}
+
 	private String urlEncode(String text)
 	{
 		try
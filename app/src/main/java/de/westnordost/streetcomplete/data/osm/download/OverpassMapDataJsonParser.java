@@ -0,0 +1,301 @@
+package de.westnordost.streetcomplete.data.osm.download;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.LongSparseArray;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.westnordost.osmapi.OsmConnection;
+import de.westnordost.osmapi.map.MapDataFactory;
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.RelationMember;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.streetcomplete.data.osm.ElementGeometry;
+
+/** A map data parser that also parses the geometry of elements from the JSON output of Overpass
+ *  (Overpass parameters "out:json" and "geom"). The response is read as a stream, element by
+ *  element */
+public class OverpassMapDataJsonParser implements MapDataWithGeometryParser, WayGeometrySource
+{
+	private static final String
+			ELEMENTS = "elements",
+			TYPE = "type",
+			ID = "id",
+			VERSION = "version",
+			LAT = "lat",
+			LON = "lon",
+			TAGS = "tags",
+			NODES = "nodes",
+			GEOMETRY = "geometry",
+			MEMBERS = "members",
+			REF = "ref",
+			ROLE = "role",
+			REMARK = "remark";
+
+	private final ElementGeometryCreator elementGeometryCreator;
+	private final MapDataFactory factory;
+
+	private MapDataWithGeometryHandler handler;
+
+	// reused for all elements
+	private final LongSparseArray<List<LatLon>> nodePositionsByWay = new LongSparseArray<>();
+	private final LatLonBuffer positions = new LatLonBuffer();
+	private final StringInterner strings = new StringInterner(4096, 32);
+
+	public OverpassMapDataJsonParser(
+			ElementGeometryCreator elementGeometryCreator,
+			MapDataFactory factory)
+	{
+		this.factory = factory;
+		this.elementGeometryCreator = elementGeometryCreator;
+		this.elementGeometryCreator.setWayGeometryProvider(this);
+	}
+
+	@Override public void setHandler(MapDataWithGeometryHandler handler)
+	{
+		this.handler = handler;
+	}
+
+	@Override public String getOutputFormatSetting()
+	{
+		return "[out:json]";
+	}
+
+	@Override
+	public Void parse(InputStream in) throws IOException
+	{
+		if(handler == null) throw new NullPointerException();
+
+		JsonReader reader = new JsonReader(new InputStreamReader(in, OsmConnection.CHARSET));
+		reader.beginObject();
+		while(reader.hasNext())
+		{
+			switch(reader.nextName())
+			{
+				case ELEMENTS:
+					reader.beginArray();
+					while(reader.hasNext())
+					{
+						parseElement(reader);
+					}
+					reader.endArray();
+					break;
+				case REMARK:
+					OverpassMapDataParser.checkRemark(reader.nextString());
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		return null;
+	}
+
+	private void parseElement(JsonReader reader) throws IOException
+	{
+		String type = null;
+		long id = -1;
+		int version = 0;
+		double lat = 0, lon = 0;
+		Map<String, String> tags = null;
+		List<Long> nodes = null;
+		List<LatLon> wayNodes = null;
+		List<RelationMember> members = null;
+
+		nodePositionsByWay.clear();
+
+		reader.beginObject();
+		while(reader.hasNext())
+		{
+			switch(reader.nextName())
+			{
+				case TYPE:
+					type = reader.nextString();
+					break;
+				case ID:
+					id = reader.nextLong();
+					break;
+				case VERSION:
+					version = reader.nextInt();
+					break;
+				case LAT:
+					lat = reader.nextDouble();
+					break;
+				case LON:
+					lon = reader.nextDouble();
+					break;
+				case TAGS:
+					tags = parseTags(reader);
+					break;
+				case NODES:
+					nodes = parseNodeIds(reader);
+					break;
+				case GEOMETRY:
+					wayNodes = parsePositions(reader);
+					break;
+				case MEMBERS:
+					members = parseMembers(reader);
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if(type == null) return;
+
+		Element element;
+		ElementGeometry geometry;
+
+		switch(OverpassMapDataParser.parseElementType(type))
+		{
+			case NODE:
+				Node node = factory.createNode(id, version, lat, lon, tags, null, null);
+				geometry = elementGeometryCreator.create(node);
+				element = node;
+				break;
+
+			case WAY:
+				if(nodes == null) nodes = new ArrayList<>();
+				if(wayNodes != null) nodePositionsByWay.put(id, wayNodes);
+				Way way = factory.createWay(id, version, nodes, tags, null, null);
+				geometry = elementGeometryCreator.create(way);
+				element = way;
+				break;
+
+			case RELATION:
+				if(members == null) members = new ArrayList<>();
+				Relation relation = factory.createRelation(id, version, members, tags, null, null);
+				geometry = elementGeometryCreator.create(relation);
+				element = relation;
+				break;
+
+			default:
+				return;
+		}
+
+		nodePositionsByWay.clear();
+		handler.handle(element, geometry);
+	}
+
+	private Map<String, String> parseTags(JsonReader reader) throws IOException
+	{
+		Map<String, String> tags = new HashMap<>();
+		reader.beginObject();
+		while(reader.hasNext())
+		{
+			tags.put(strings.intern(reader.nextName()), strings.intern(reader.nextString()));
+		}
+		reader.endObject();
+		return tags;
+	}
+
+	private static List<Long> parseNodeIds(JsonReader reader) throws IOException
+	{
+		List<Long> nodes = new ArrayList<>();
+		reader.beginArray();
+		while(reader.hasNext())
+		{
+			nodes.add(reader.nextLong());
+		}
+		reader.endArray();
+		return nodes;
+	}
+
+	private List<LatLon> parsePositions(JsonReader reader) throws IOException
+	{
+		positions.clear();
+		reader.beginArray();
+		while(reader.hasNext())
+		{
+			// Overpass outputs null for nodes whose position is not known
+			if(reader.peek() == JsonToken.NULL)
+			{
+				reader.nextNull();
+				continue;
+			}
+
+			double lat = 0, lon = 0;
+			reader.beginObject();
+			while(reader.hasNext())
+			{
+				switch(reader.nextName())
+				{
+					case LAT:
+						lat = reader.nextDouble();
+						break;
+					case LON:
+						lon = reader.nextDouble();
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+			positions.add(lat, lon);
+		}
+		reader.endArray();
+		return positions.toList();
+	}
+
+	private List<RelationMember> parseMembers(JsonReader reader) throws IOException
+	{
+		List<RelationMember> members = new ArrayList<>();
+		reader.beginArray();
+		while(reader.hasNext())
+		{
+			String type = null;
+			long ref = -1;
+			String role = null;
+			List<LatLon> wayNodes = null;
+
+			reader.beginObject();
+			while(reader.hasNext())
+			{
+				switch(reader.nextName())
+				{
+					case TYPE:
+						type = reader.nextString();
+						break;
+					case REF:
+						ref = reader.nextLong();
+						break;
+					case ROLE:
+						role = strings.intern(reader.nextString());
+						break;
+					case GEOMETRY:
+						wayNodes = parsePositions(reader);
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+
+			Element.Type memberType = OverpassMapDataParser.parseElementType(type);
+			members.add(factory.createRelationMember(ref, role, memberType));
+			if(memberType == Element.Type.WAY && wayNodes != null)
+			{
+				nodePositionsByWay.put(ref, wayNodes);
+			}
+		}
+		reader.endArray();
+		return members;
+	}
+
+	@Override public List<LatLon> getNodePositions(long wayId)
+	{
+		return nodePositionsByWay.get(wayId);
+	}
+}
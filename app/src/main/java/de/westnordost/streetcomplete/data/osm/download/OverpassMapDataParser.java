@@ -12,20 +12,18 @@ import java.util.Locale;
 import java.util.Map;
 
 import de.westnordost.streetcomplete.data.osm.ElementGeometry;
-import de.westnordost.osmapi.ApiResponseReader;
-import de.westnordost.osmapi.common.OsmXmlDateFormat;
 import de.westnordost.osmapi.common.XmlParser;
 import de.westnordost.osmapi.map.MapDataFactory;
 import de.westnordost.osmapi.map.data.Element;
 import de.westnordost.osmapi.map.data.LatLon;
 import de.westnordost.osmapi.map.data.Node;
-import de.westnordost.osmapi.map.data.OsmLatLon;
 import de.westnordost.osmapi.map.data.Relation;
 import de.westnordost.osmapi.map.data.RelationMember;
 import de.westnordost.osmapi.map.data.Way;
 
 /** A map data parser that also parses the geometry of elements. (Overpass parameter "geom")*/
-public class OverpassMapDataParser extends XmlParser implements ApiResponseReader<Void>, WayGeometrySource
+public class OverpassMapDataParser extends XmlParser
+		implements MapDataWithGeometryParser, WayGeometrySource
 {
 	private static final String
 			NODE = "node",
@@ -33,9 +31,8 @@ public class OverpassMapDataParser extends XmlParser implements ApiResponseReade
 			RELATION = "relation",
 			MEMBER = "member",
 			ND = "nd",
-			TAG = "tag";
-
-	private final OsmXmlDateFormat dateFormat = new OsmXmlDateFormat();
+			TAG = "tag",
+			REMARK = "remark";
 
 	private final ElementGeometryCreator elementGeometryCreator;
 	private final MapDataFactory factory;
@@ -45,16 +42,20 @@ public class OverpassMapDataParser extends XmlParser implements ApiResponseReade
 	private long id;
 	private int version;
 
-	private Double lat;
-	private Double lon;
+	private double lat;
+	private double lon;
 
 	private Map<String, String> tags;
 	private List<RelationMember> members;
 	private List<Long> nodes;
 
-	private LongSparseArray<List<LatLon>> nodePositionsByWay;
+	// reused for all elements
+	private final LongSparseArray<List<LatLon>> nodePositionsByWay = new LongSparseArray<>();
+	private final LatLonBuffer wayNodes = new LatLonBuffer();
+	private final StringInterner strings = new StringInterner(4096, 32);
 
-	private List<LatLon> wayNodes;
+	private long memberRef;
+	private Element.Type memberType;
 
 	public OverpassMapDataParser(
 			ElementGeometryCreator elementGeometryCreator,
@@ -65,11 +66,16 @@ public class OverpassMapDataParser extends XmlParser implements ApiResponseReade
 		this.elementGeometryCreator.setWayGeometryProvider(this);
 	}
 
-	void setHandler(MapDataWithGeometryHandler handler)
+	@Override public void setHandler(MapDataWithGeometryHandler handler)
 	{
 		this.handler = handler;
 	}
 
+	@Override public String getOutputFormatSetting()
+	{
+		return null;
+	}
+
 	@Override
 	public Void parse(InputStream in) throws IOException
 	{
@@ -83,6 +89,9 @@ public class OverpassMapDataParser extends XmlParser implements ApiResponseReade
 		return null;
 	}
 
+	/* The attributes are parsed into primitives directly, the getXXXAttribute methods of the
+	   XmlParser would box them. This is the hot path when parsing big responses */
+
 	@Override
 	protected void onStartElement() throws ParseException
 	{
@@ -95,59 +104,82 @@ public class OverpassMapDataParser extends XmlParser implements ApiResponseReade
 				{
 					tags = new HashMap<>();
 				}
-				tags.put(getAttribute("k"), getAttribute("v"));
+				tags.put(strings.intern(getAttribute("k")), strings.intern(getAttribute("v")));
 				break;
 
 			case ND:
-				Long ndRef = getLongAttribute("ref");
+				String ndRef = getAttribute("ref");
 				if(ndRef != null) // null for ND nodes in MEMBER
 				{
-					nodes.add(ndRef);
+					nodes.add(Long.parseLong(ndRef));
 				}
-
-				LatLon pos = new OsmLatLon(getDoubleAttribute("lat"), getDoubleAttribute("lon"));
-				wayNodes.add(pos);
+				wayNodes.add(parseDouble("lat"), parseDouble("lon"));
 				break;
 
 			case MEMBER:
-				long ref = getLongAttribute("ref");
-				String role = getAttribute("role");
-				Element.Type type = Element.Type.valueOf(getAttribute("type").toUpperCase(Locale.UK));
-				members.add(factory.createRelationMember(ref, role, type));
-				startWayGeometry(ref);
+				memberRef = parseLong("ref");
+				memberType = parseElementType(getAttribute("type"));
+				String role = strings.intern(getAttribute("role"));
+				members.add(factory.createRelationMember(memberRef, role, memberType));
+				wayNodes.clear();
 				break;
 
 			case NODE:
 				retrieveIdAndVersion();
-				lat = getDoubleAttribute("lat");
-				lon = getDoubleAttribute("lon");
+				lat = parseDouble("lat");
+				lon = parseDouble("lon");
 				break;
 
 			case WAY:
 				retrieveIdAndVersion();
 				nodes = new ArrayList<>();
-				nodePositionsByWay = new LongSparseArray<>();
-				startWayGeometry(id);
+				nodePositionsByWay.clear();
+				wayNodes.clear();
 				break;
 
 			case RELATION:
 				retrieveIdAndVersion();
 				members = new ArrayList<>();
-				nodePositionsByWay = new LongSparseArray<>();
+				nodePositionsByWay.clear();
 				break;
 		}
 	}
 
 	private void retrieveIdAndVersion()
 	{
-		id = getLongAttribute("id");
-		version = getIntAttribute("version");
+		id = parseLong("id");
+		version = Integer.parseInt(getAttribute("version"));
+	}
+
+	private long parseLong(String attribute)
+	{
+		return Long.parseLong(getAttribute(attribute));
+	}
+
+	private double parseDouble(String attribute)
+	{
+		return Double.parseDouble(getAttribute(attribute));
+	}
+
+	static Element.Type parseElementType(String type)
+	{
+		switch(type)
+		{
+			case NODE:		return Element.Type.NODE;
+			case WAY:		return Element.Type.WAY;
+			case RELATION:	return Element.Type.RELATION;
+			default:		return Element.Type.valueOf(type.toUpperCase(Locale.UK));
+		}
 	}
 
-	private void startWayGeometry(long wayId)
+	/** Overpass reports that it aborted a query in a remark after the (incomplete) output */
+	static void checkRemark(String remark)
 	{
-		wayNodes = new ArrayList<>();
-		nodePositionsByWay.put(wayId, wayNodes);
+		if(remark == null) return;
+		if(remark.contains("timed out") || remark.contains("out of memory"))
+		{
+			throw new OverpassQueryTooBigException(remark.trim());
+		}
 	}
 
 	@Override
@@ -160,8 +192,17 @@ public class OverpassMapDataParser extends XmlParser implements ApiResponseReade
 
 		switch(name)
 		{
+			case REMARK:
+				checkRemark(getText());
+				break;
+
 			case MEMBER:
-				wayNodes = null;
+				// only the geometry of ways is used (see ElementGeometryCreator)
+				if(memberType == Element.Type.WAY)
+				{
+					nodePositionsByWay.put(memberRef, wayNodes.toList());
+				}
+				wayNodes.clear();
 				break;
 
 			case NODE:
@@ -171,12 +212,13 @@ public class OverpassMapDataParser extends XmlParser implements ApiResponseReade
 				break;
 
 			case WAY:
+				nodePositionsByWay.put(id, wayNodes.toList());
 				Way way = factory.createWay(id, version, nodes, tags, null, null);
 				geometry = elementGeometryCreator.create(way);
 				element = way;
 				nodes = null;
-				nodePositionsByWay = null;
-				wayNodes = null;
+				nodePositionsByWay.clear();
+				wayNodes.clear();
 				break;
 
 			case RELATION:
@@ -184,7 +226,7 @@ public class OverpassMapDataParser extends XmlParser implements ApiResponseReade
 				geometry = elementGeometryCreator.create(relation);
 				element = relation;
 				members = null;
-				nodePositionsByWay = null;
+				nodePositionsByWay.clear();
 				break;
 		}
 
@@ -0,0 +1,14 @@
+package de.westnordost.streetcomplete.data.osm.download;
+
+/** Thrown if Overpass could not complete a query because it took too long or used up too much
+ *  memory, or if the query returned more elements than accepted. Querying a smaller area should
+ *  help */
+public class OverpassQueryTooBigException extends RuntimeException
+{
+	private static final long serialVersionUID = 1L;
+
+	public OverpassQueryTooBigException(String message)
+	{
+		super(message);
+	}
+}
@@ -0,0 +1,193 @@
+package de.westnordost.streetcomplete.data.osm.download;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/** Hands out permits to make requests to Overpass to all the callers in the app, so that not more
+ *  requests are made at the same time than Overpass has slots for this user.
+ *
+ *  Callers that have to wait for a permit are queued by priority first and then by order of
+ *  arrival. When Overpass replied that the quota is exceeded, the status reported by Overpass
+ *  is shared with all callers: No permits are handed out until a slot is available again. */
+@Singleton
+public class OverpassQuotaManager
+{
+	private static final String TAG = "OverpassQuota";
+
+	public static final int
+			PRIORITY_NORMAL = 0,
+			PRIORITY_HIGH = 1;
+
+	/** Assumed until Overpass tells otherwise. The public instance allows 2 slots per IP */
+	private static final int DEFAULT_SLOTS = 2;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+
+	// guarded by lock
+	private final PriorityQueue<Ticket> waiting = new PriorityQueue<>();
+	private long ticketsCount;
+	private int maxSlots = DEFAULT_SLOTS;
+	private int usedSlots;
+	private long noSlotsUntil;
+
+	// metrics, written only while holding the lock
+	private volatile int permitsCount;
+	private volatile int waitedPermitsCount;
+	private volatile long totalWaitTime;
+	private volatile long maxWaitTime;
+
+	private final ThreadLocal<Integer> threadPriority = new ThreadLocal<Integer>()
+	{
+		@Override protected Integer initialValue()
+		{
+			return PRIORITY_NORMAL;
+		}
+	};
+
+	@Inject public OverpassQuotaManager() {}
+
+	/** Set with which priority requests made from the current thread are queued */
+	public void setPriorityForCurrentThread(int priority)
+	{
+		threadPriority.set(priority);
+	}
+
+	/** Blocks until a request to Overpass may be made. Each acquired permit must be released
+	 *  again after the request finished, see release() */
+	public void acquire() throws InterruptedException
+	{
+		long startTime = System.currentTimeMillis();
+		lock.lock();
+		try
+		{
+			Ticket ticket = new Ticket(threadPriority.get(), ticketsCount++);
+			waiting.add(ticket);
+			boolean waited = false;
+			try
+			{
+				while(true)
+				{
+					boolean isNext = waiting.peek() == ticket;
+					long waitForSlot = noSlotsUntil - System.currentTimeMillis();
+					if(isNext && waitForSlot <= 0 && usedSlots < maxSlots) break;
+
+					waited = true;
+					if(isNext && waitForSlot > 0) changed.await(waitForSlot, TimeUnit.MILLISECONDS);
+					else                          changed.await();
+				}
+			}
+			finally
+			{
+				waiting.remove(ticket);
+				// the next one in the queue may be able to go now
+				changed.signalAll();
+			}
+			usedSlots++;
+
+			if(waited) onWaitedForPermit(System.currentTimeMillis() - startTime);
+			permitsCount++;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/** Release a permit acquired with acquire() */
+	public void release()
+	{
+		lock.lock();
+		try
+		{
+			usedSlots--;
+			changed.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/** Update the quota with the status reported by Overpass */
+	public void update(OverpassStatus status)
+	{
+		lock.lock();
+		try
+		{
+			if(status.maxAvailableSlots > 0) maxSlots = status.maxAvailableSlots;
+			if(status.availableSlots == 0 && status.nextAvailableSlotIn != null)
+			{
+				// rather wait 1s longer than required cause we only get the time in seconds
+				long wait = (1 + status.nextAvailableSlotIn) * 1000L;
+				noSlotsUntil = Math.max(noSlotsUntil, System.currentTimeMillis() + wait);
+				Log.i(TAG, "Hit Overpass quota. Waiting " + wait + "ms before continuing");
+			}
+			changed.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private void onWaitedForPermit(long waitTime)
+	{
+		waitedPermitsCount++;
+		totalWaitTime += waitTime;
+		maxWaitTime = Math.max(maxWaitTime, waitTime);
+		Log.d(TAG, "Waited " + waitTime + "ms for a slot. In total, " + waitedPermitsCount +
+				" requests waited " + totalWaitTime + "ms");
+	}
+
+	/** @return the number of permits handed out so far */
+	public int getPermitsCount()
+	{
+		return permitsCount;
+	}
+
+	/** @return the number of permits for which the callers had to wait */
+	public int getWaitedPermitsCount()
+	{
+		return waitedPermitsCount;
+	}
+
+	/** @return the time in ms all callers waited for permits in total */
+	public long getTotalWaitTime()
+	{
+		return totalWaitTime;
+	}
+
+	/** @return the longest time in ms a caller waited for a permit */
+	public long getMaxWaitTime()
+	{
+		return maxWaitTime;
+	}
+
+	/** A caller waiting for a permit, ordered by priority first and then by order of arrival */
+	private static class Ticket implements Comparable<Ticket>
+	{
+		final int priority;
+		final long order;
+
+		Ticket(int priority, long order)
+		{
+			this.priority = priority;
+			this.order = order;
+		}
+
+		@Override public int compareTo(@NonNull Ticket other)
+		{
+			if(priority != other.priority) return priority > other.priority ? -1 : +1;
+			return order < other.order ? -1 : (order == other.order ? 0 : +1);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package de.westnordost.streetcomplete.data.osm.download;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Returns always the same String instance for equal short strings, up to a maximum number of
+ *  different strings. Used for tag keys and values, which repeat a lot in the downloaded data
+ *  (e.g. "building"="yes"), so that the many elements created do not each keep their own copy */
+class StringInterner
+{
+	private final int maxSize;
+	private final int maxLength;
+	private final Map<String, String> strings;
+
+	StringInterner(int maxSize, int maxLength)
+	{
+		this.maxSize = maxSize;
+		this.maxLength = maxLength;
+		strings = new HashMap<>();
+	}
+
+	String intern(String str)
+	{
+		if(str == null || str.length() > maxLength) return str;
+
+		String result = strings.get(str);
+		if(result != null) return result;
+
+		// the strings that repeat most are usually also the ones that appear first
+		if(strings.size() < maxSize) strings.put(str, str);
+		return str;
+	}
+}
@@ -67,20 +67,19 @@ public abstract class AOsmElementDao<T extends Element>
 	public void deleteUnreferenced()
 	{
 		SQLiteDatabase db = dbHelper.getWritableDatabase();
-		String where = NodeTable.Columns.ID + " NOT IN ( " +
-				getSelectAllElementIdsIn(OsmQuestTable.NAME) +
-				" UNION " +
-				getSelectAllElementIdsIn(OsmQuestTable.NAME_UNDO) +
-				")";
+		String where =
+				"NOT EXISTS (" + getSelectElementIn(OsmQuestTable.NAME) + ") AND " +
+				"NOT EXISTS (" + getSelectElementIn(OsmQuestTable.NAME_UNDO) + ")";
 
 		db.delete(getTableName(), where, null);
 	}
 
-	private String getSelectAllElementIdsIn(String table)
+	private String getSelectElementIn(String table)
 	{
-		return 	"SELECT " + OsmQuestTable.Columns.ELEMENT_ID + " AS " + getIdColumnName() +
-				" FROM " + table +
-				" WHERE " + OsmQuestTable.Columns.ELEMENT_TYPE + " = \"" + getElementTypeName() +"\"";
+		return 	"SELECT 1 FROM " + table +
+				" WHERE " + table + "." + OsmQuestTable.Columns.ELEMENT_TYPE + " = '" + getElementTypeName() + "'" +
+				" AND " + table + "." + OsmQuestTable.Columns.ELEMENT_ID + " = " +
+				getTableName() + "." + getIdColumnName();
 	}
 
 	protected abstract String getElementTypeName();
@@ -5,14 +5,17 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
+import android.graphics.Point;
 
 import java.util.Date;
 import java.util.List;
 
+import de.westnordost.streetcomplete.ApplicationConstants;
 import de.westnordost.osmapi.map.data.BoundingBox;
 import de.westnordost.osmapi.map.data.Element;
 import de.westnordost.streetcomplete.data.AQuestDao;
 import de.westnordost.streetcomplete.data.QuestStatus;
+import de.westnordost.streetcomplete.data.QuestType;
 import de.westnordost.streetcomplete.data.QuestTypes;
 import de.westnordost.streetcomplete.data.WhereSelectionBuilder;
 import de.westnordost.streetcomplete.data.osm.ElementGeometry;
@@ -20,6 +23,7 @@ import de.westnordost.streetcomplete.data.osm.OsmElementQuestType;
 import de.westnordost.streetcomplete.data.osm.OsmQuest;
 import de.westnordost.streetcomplete.data.osm.changes.StringMapChanges;
 import de.westnordost.streetcomplete.util.Serializer;
+import de.westnordost.streetcomplete.util.SlippyMapMath;
 
 import static de.westnordost.streetcomplete.data.osm.persist.OsmQuestTable.Columns;
 
@@ -27,7 +31,7 @@ public abstract class AOsmQuestDao extends AQuestDao<OsmQuest>
 {
 	private final Serializer serializer;
 	private final QuestTypes questTypeList;
-	private final SQLiteStatement add, replace;
+	private final SQLiteStatement add, deleteExisting;
 
 	public AOsmQuestDao(SQLiteOpenHelper dbHelper, Serializer serializer,
 								QuestTypes questTypeList)
@@ -43,22 +47,25 @@ public abstract class AOsmQuestDao extends AQuestDao<OsmQuest>
 				Columns.CHANGES_SOURCE+","+
 				Columns.LAST_UPDATE+","+
 				Columns.ELEMENT_ID+","+
-				Columns.ELEMENT_TYPE+
-				") values (?,?,?,?,?,?,?,?);";
+				Columns.ELEMENT_TYPE+","+
+				Columns.TILE_X+","+
+				Columns.TILE_Y+
+				") values (?,?,?,?,?,?,?,?,?,?);";
 		SQLiteDatabase db = dbHelper.getWritableDatabase();
 		add = db.compileStatement("INSERT OR IGNORE INTO " + sql);
-		replace = db.compileStatement("INSERT OR REPLACE INTO " + sql);
+		/* not INSERT OR REPLACE because SQLite does not fire the delete triggers for rows that are
+		   replaced that way, so the quest count per tile would not be updated */
+		deleteExisting = db.compileStatement("DELETE FROM " + getTableName() + " WHERE " +
+				Columns.QUEST_ID + " = ? OR (" +
+				Columns.QUEST_TYPE + " = ? AND " +
+				Columns.ELEMENT_ID + " = ? AND " +
+				Columns.ELEMENT_TYPE + " = ?)");
 	}
 
 	public List<OsmQuest> getAll(BoundingBox bbox, QuestStatus status, String questTypeName,
 								 Element.Type elementType, Long elementId)
 	{
-		WhereSelectionBuilder qb = new WhereSelectionBuilder();
-		addBBox(bbox, qb);
-		addQuestStatus(status, qb);
-		addQuestType(questTypeName, qb);
-		addElementType(elementType, qb);
-		addElementId(elementId, qb);
+		WhereSelectionBuilder qb = createSelection(bbox, status, questTypeName, elementType, elementId);
 
 		return getAllThings(getMergedViewName(), null, qb, new CreateFromCursor<OsmQuest>()
 		{
@@ -69,6 +76,34 @@ public abstract class AOsmQuestDao extends AQuestDao<OsmQuest>
 		});
 	}
 
+	/** Like getAll, but the quests are read from the database while iterating over them */
+	public Iterable<OsmQuest> iterateAll(BoundingBox bbox, QuestStatus status, String questTypeName,
+										 Element.Type elementType, Long elementId)
+	{
+		WhereSelectionBuilder qb = createSelection(bbox, status, questTypeName, elementType, elementId);
+
+		return iterateAllThings(getMergedViewName(), qb, new CreateFromCursor<OsmQuest>()
+		{
+			@Override public OsmQuest create(Cursor cursor)
+			{
+				return createObjectFrom(cursor);
+			}
+		});
+	}
+
+	/** package-private so that the query plan of the selection can be checked in tests */
+	WhereSelectionBuilder createSelection(BoundingBox bbox, QuestStatus status, String questTypeName,
+										  Element.Type elementType, Long elementId)
+	{
+		WhereSelectionBuilder qb = new WhereSelectionBuilder();
+		addBBox(bbox, qb);
+		addQuestStatus(status, bbox == null, qb);
+		addQuestType(questTypeName, qb);
+		addElementType(elementType, qb);
+		addElementId(elementId, qb);
+		return qb;
+	}
+
 	private void addQuestType(String questTypeName, WhereSelectionBuilder builder)
 	{
 		if(questTypeName != null)
@@ -98,12 +133,39 @@ public abstract class AOsmQuestDao extends AQuestDao<OsmQuest>
 	@Override protected String getIdColumnName() { return Columns.QUEST_ID; }
 	@Override protected String getLatitudeColumnName() { return ElementGeometryTable.Columns.LATITUDE; }
 	@Override protected String getLongitudeColumnName() { return ElementGeometryTable.Columns.LONGITUDE; }
+	@Override protected String getMinLatitudeColumnName() { return ElementGeometryTable.Columns.MIN_LATITUDE; }
+	@Override protected String getMinLongitudeColumnName() { return ElementGeometryTable.Columns.MIN_LONGITUDE; }
+	@Override protected String getMaxLatitudeColumnName() { return ElementGeometryTable.Columns.MAX_LATITUDE; }
+	@Override protected String getMaxLongitudeColumnName() { return ElementGeometryTable.Columns.MAX_LONGITUDE; }
+	@Override protected String getMaxLatitudeExtent()
+	{
+		return "(SELECT " + ElementGeometryExtentTable.Columns.MAX_LATITUDE_EXTENT +
+				" FROM " + ElementGeometryExtentTable.NAME + ")";
+	}
+	@Override protected String getQuestTypeColumnName() { return Columns.QUEST_TYPE; }
 	@Override protected String getQuestStatusColumnName() { return Columns.QUEST_STATUS; }
 	@Override protected String getLastChangedColumnName() {	return Columns.LAST_UPDATE; }
 
+	@Override protected QuestType getQuestType(String questTypeName)
+	{
+		return questTypeList.forName(questTypeName);
+	}
+
 	@Override protected synchronized long executeInsert(OsmQuest quest, boolean replace)
 	{
-		SQLiteStatement stmt = replace ? this.replace : this.add;
+		String questTypeName = quest.getType().getClass().getSimpleName();
+		if(replace)
+		{
+			if(quest.getId() != null) deleteExisting.bindLong(1, quest.getId());
+			else                      deleteExisting.bindNull(1);
+			deleteExisting.bindString(2, questTypeName);
+			deleteExisting.bindLong(3, quest.getElementId());
+			deleteExisting.bindString(4, quest.getElementType().name());
+			deleteExisting.executeUpdateDelete();
+			deleteExisting.clearBindings();
+		}
+
+		SQLiteStatement stmt = this.add;
 
 		if(quest.getId() != null)
 		{
@@ -114,7 +176,7 @@ public abstract class AOsmQuestDao extends AQuestDao<OsmQuest>
 			stmt.bindNull(1);
 		}
 
-		stmt.bindString(2, quest.getType().getClass().getSimpleName());
+		stmt.bindString(2, questTypeName);
 		stmt.bindString(3, quest.getStatus().name());
 		if(quest.getChanges() != null)
 		{
@@ -131,6 +193,10 @@ public abstract class AOsmQuestDao extends AQuestDao<OsmQuest>
 		stmt.bindLong(6, new Date().getTime());
 		stmt.bindLong(7, quest.getElementId());
 		stmt.bindString(8, quest.getElementType().name());
+		Point tile = SlippyMapMath.enclosingTile(
+				quest.getMarkerLocation(), ApplicationConstants.QUEST_TILE_ZOOM);
+		stmt.bindLong(9, tile.x);
+		stmt.bindLong(10, tile.y);
 
 		long result = stmt.executeInsert();
 		stmt.clearBindings();
@@ -198,7 +264,7 @@ public abstract class AOsmQuestDao extends AQuestDao<OsmQuest>
 			changesSource = cursor.getString(colChangesSource);
 		}
 
-		ElementGeometry geometry = ElementGeometryDao.createObjectFrom(serializer, cursor);
+		ElementGeometry geometry = ElementGeometryDao.createObjectFrom(cursor);
 
 		Date lastChange = new Date(cursor.getLong(colLastChange));
 
@@ -0,0 +1,70 @@
+package de.westnordost.streetcomplete.data.osm.persist;
+
+/** Reads what has been written with CompactOutput */
+class CompactInput
+{
+	private final byte[] bytes;
+	private int position;
+
+	CompactInput(byte[] bytes)
+	{
+		this.bytes = bytes;
+	}
+
+	int readVarInt()
+	{
+		int result = 0;
+		for(int shift = 0; shift < 32; shift += 7)
+		{
+			byte b = readByte();
+			result |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return result;
+		}
+		throw new IllegalArgumentException("Malformed data");
+	}
+
+	long readVarLong()
+	{
+		long result = 0;
+		for(int shift = 0; shift < 64; shift += 7)
+		{
+			byte b = readByte();
+			result |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return result;
+		}
+		throw new IllegalArgumentException("Malformed data");
+	}
+
+	int readSignedVarInt()
+	{
+		int n = readVarInt();
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	long readSignedVarLong()
+	{
+		long n = readVarLong();
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	String readString()
+	{
+		int length = readVarInt();
+		if(length < 0 || position + length > bytes.length)
+		{
+			throw new IllegalArgumentException("Unexpected end of data");
+		}
+		String result = new String(bytes, position, length, CompactOutput.UTF_8);
+		position += length;
+		return result;
+	}
+
+	private byte readByte()
+	{
+		if(position >= bytes.length)
+		{
+			throw new IllegalArgumentException("Unexpected end of data");
+		}
+		return bytes[position++];
+	}
+}
@@ -0,0 +1,75 @@
+package de.westnordost.streetcomplete.data.osm.persist;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/** Writes numbers as varints (7 bits per byte, the highest bit marks that another byte follows)
+ *  and strings into a growing byte array */
+class CompactOutput
+{
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private byte[] bytes;
+	private int size;
+
+	CompactOutput(int capacity)
+	{
+		bytes = new byte[Math.max(capacity, 16)];
+	}
+
+	void writeVarInt(int n)
+	{
+		ensureCapacity(5);
+		while((n & ~0x7F) != 0)
+		{
+			bytes[size++] = (byte) ((n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		bytes[size++] = (byte) n;
+	}
+
+	void writeVarLong(long n)
+	{
+		ensureCapacity(10);
+		while((n & ~0x7FL) != 0)
+		{
+			bytes[size++] = (byte) ((n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		bytes[size++] = (byte) n;
+	}
+
+	/** writes a number that is likely small but may be negative */
+	void writeSignedVarInt(int n)
+	{
+		writeVarInt((n << 1) ^ (n >> 31));
+	}
+
+	/** writes a number that is likely small but may be negative */
+	void writeSignedVarLong(long n)
+	{
+		writeVarLong((n << 1) ^ (n >> 63));
+	}
+
+	void writeString(String string)
+	{
+		byte[] utf8 = string.getBytes(UTF_8);
+		writeVarInt(utf8.length);
+		ensureCapacity(utf8.length);
+		System.arraycopy(utf8, 0, bytes, size, utf8.length);
+		size += utf8.length;
+	}
+
+	byte[] toByteArray()
+	{
+		return Arrays.copyOf(bytes, size);
+	}
+
+	private void ensureCapacity(int additional)
+	{
+		if(size + additional > bytes.length)
+		{
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package de.westnordost.streetcomplete.data.osm.persist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.OsmRelationMember;
+import de.westnordost.osmapi.map.data.RelationMember;
+
+/** Compact binary format for the tags, node ids and relation members of OSM elements.
+ *
+ *  Strings (tag keys, tag values and member roles) that are in the built-in dictionary are stored
+ *  as a varint of their position in it + 1, all others as a 0 followed by the string itself. Node
+ *  ids and member refs are stored as the difference to the previous one, as zigzag encoded
+ *  varints, because the ids of the nodes of a way are often close to each other.
+ *
+ *  Formats:
+ *  tags: version, number of tags, then for each the key and value
+ *  node ids: version, number of node ids, then the id differences
+ *  members: version, number of members, then for each the element type, ref difference and role */
+public class ElementCodec
+{
+	private static final int VERSION = 1;
+
+	/* NEVER CHANGE THE ORDER OF THE ENTRIES, the position of a string in the dictionary is what is
+	   persisted in the database. New entries may only be appended */
+	static final String[] DICTIONARY = {
+			// keys
+			"highway", "building", "name", "amenity", "shop", "landuse", "natural", "waterway",
+			"surface", "oneway", "lanes", "maxspeed", "access", "service", "layer", "bridge",
+			"tunnel", "ref", "type", "route", "leisure", "sport", "barrier", "tourism",
+			"addr:housenumber", "addr:street", "addr:city", "addr:postcode", "addr:country",
+			"source", "opening_hours", "wheelchair", "website", "phone", "operator", "brand",
+			"cuisine", "religion", "denomination", "parking", "lit", "sidewalk", "cycleway",
+			"foot", "bicycle", "motor_vehicle", "smoothness", "tracktype", "crossing", "railway",
+			"power", "public_transport", "bus", "height", "building:levels", "roof:shape", "level",
+			"entrance", "capacity", "note", "fixme", "created_by", "wikidata", "wikipedia",
+			// values
+			"yes", "no", "residential", "footway", "track", "path", "unclassified",
+			"tertiary", "secondary", "primary", "trunk", "motorway", "living_street", "pedestrian",
+			"steps", "house", "detached", "apartments", "garage", "commercial",
+			"industrial", "retail", "roof", "asphalt", "paved", "unpaved", "gravel", "ground",
+			"grass", "dirt", "concrete", "paving_stones", "sett", "compacted", "fine_gravel",
+			"parking_aisle", "driveway", "bench", "waste_basket", "restaurant", "cafe",
+			"fast_food", "school", "place_of_worship", "toilets", "post_box", "recycling",
+			"bicycle_parking", "supermarket", "convenience", "bakery", "clothes", "hairdresser",
+			"farmland", "forest", "meadow", "grassland", "wood", "scrub", "water", "stream",
+			"ditch", "river", "fence", "wall", "hedge", "gate", "bollard", "stop", "bus_stop",
+			"platform", "stop_position", "traffic_signals", "uncontrolled",
+			"marked", "zebra", "multipolygon", "restriction", "designated",
+			"permissive", "private", "destination", "separate", "both", "left", "right", "-1",
+			"1", "2", "3", "4", "30", "50", "pitch", "playground", "park", "garden", "swimming_pool",
+			"christian", "catholic", "protestant", "bing", "survey",
+			// roles
+			"outer", "inner", "forward", "backward", "from", "to", "via",
+	};
+
+	private static final Map<String, Integer> CODES = new HashMap<>();
+	static
+	{
+		for(int i = 0; i < DICTIONARY.length; ++i)
+		{
+			CODES.put(DICTIONARY[i], i + 1);
+		}
+	}
+
+	private static final Element.Type[] ELEMENT_TYPES = Element.Type.values();
+
+	private ElementCodec() {}
+
+	public static byte[] encodeTags(Map<String, String> tags)
+	{
+		CompactOutput out = new CompactOutput(2 + tags.size() * 4);
+		out.writeVarInt(VERSION);
+		out.writeVarInt(tags.size());
+		for(Map.Entry<String, String> tag : tags.entrySet())
+		{
+			writeString(out, tag.getKey());
+			writeString(out, tag.getValue());
+		}
+		return out.toByteArray();
+	}
+
+	/** @return the unmodifiable tags encoded in the given bytes */
+	public static Map<String, String> decodeTags(byte[] bytes)
+	{
+		CompactInput in = createInput(bytes);
+		String[] keysAndValues = new String[2 * in.readVarInt()];
+		for(int i = 0; i < keysAndValues.length; ++i)
+		{
+			keysAndValues[i] = readString(in);
+		}
+		return new PackedTagMap(keysAndValues);
+	}
+
+	public static byte[] encodeNodeIds(List<Long> nodeIds)
+	{
+		CompactOutput out = new CompactOutput(2 + nodeIds.size() * 2);
+		out.writeVarInt(VERSION);
+		out.writeVarInt(nodeIds.size());
+		long prevId = 0;
+		for(long id : nodeIds)
+		{
+			out.writeSignedVarLong(id - prevId);
+			prevId = id;
+		}
+		return out.toByteArray();
+	}
+
+	/** @return the unmodifiable list of node ids encoded in the given bytes */
+	public static List<Long> decodeNodeIds(byte[] bytes)
+	{
+		CompactInput in = createInput(bytes);
+		long[] nodeIds = new long[in.readVarInt()];
+		long prevId = 0;
+		for(int i = 0; i < nodeIds.length; ++i)
+		{
+			prevId += in.readSignedVarLong();
+			nodeIds[i] = prevId;
+		}
+		return new PackedLongList(nodeIds);
+	}
+
+	public static byte[] encodeMembers(List<RelationMember> members)
+	{
+		CompactOutput out = new CompactOutput(2 + members.size() * 4);
+		out.writeVarInt(VERSION);
+		out.writeVarInt(members.size());
+		long prevRef = 0;
+		for(RelationMember member : members)
+		{
+			out.writeVarInt(member.getType().ordinal());
+			out.writeSignedVarLong(member.getRef() - prevRef);
+			// parsers may leave the role of a member without one null, in OSM it is empty
+			String role = member.getRole();
+			writeString(out, role != null ? role : "");
+			prevRef = member.getRef();
+		}
+		return out.toByteArray();
+	}
+
+	/** @return the unmodifiable list of relation members encoded in the given bytes */
+	public static List<RelationMember> decodeMembers(byte[] bytes)
+	{
+		CompactInput in = createInput(bytes);
+		int count = in.readVarInt();
+		List<RelationMember> members = new ArrayList<>(count);
+		long prevRef = 0;
+		for(int i = 0; i < count; ++i)
+		{
+			int type = in.readVarInt();
+			if(type < 0 || type >= ELEMENT_TYPES.length)
+			{
+				throw new IllegalArgumentException("Unknown element type " + type);
+			}
+			prevRef += in.readSignedVarLong();
+			members.add(new OsmRelationMember(prevRef, readString(in), ELEMENT_TYPES[type]));
+		}
+		return Collections.unmodifiableList(members);
+	}
+
+	private static CompactInput createInput(byte[] bytes)
+	{
+		CompactInput in = new CompactInput(bytes);
+		int version = in.readVarInt();
+		if(version != VERSION)
+		{
+			throw new IllegalArgumentException("Unknown element format " + version);
+		}
+		return in;
+	}
+
+	private static void writeString(CompactOutput out, String string)
+	{
+		Integer code = CODES.get(string);
+		if(code != null)
+		{
+			out.writeVarInt(code);
+		}
+		else
+		{
+			out.writeVarInt(0);
+			out.writeString(string);
+		}
+	}
+
+	private static String readString(CompactInput in)
+	{
+		int code = in.readVarInt();
+		if(code == 0) return in.readString();
+		if(code < 0 || code > DICTIONARY.length)
+		{
+			throw new IllegalArgumentException("Unknown dictionary entry " + code);
+		}
+		return DICTIONARY[code - 1];
+	}
+}
@@ -0,0 +1,86 @@
+package de.westnordost.streetcomplete.data.osm.persist;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.westnordost.osmapi.map.data.LatLon;
+
+/** Compact binary format for the polygons and polylines of an ElementGeometry.
+ *
+ *  The coordinates are stored as fixed point numbers with 7 decimal places (the precision of
+ *  coordinates in OSM). Each coordinate is stored as the difference to the previous one, as a
+ *  zigzag encoded varint. The differences between neighbouring points are small, so most
+ *  coordinates take only one or two bytes.
+ *
+ *  Format: version, number of rings, then for each ring the number of points followed by the
+ *  latitude and longitude differences of each point. */
+public class ElementGeometryCodec
+{
+	private static final int VERSION = 1;
+
+	private ElementGeometryCodec() {}
+
+	public static byte[] encode(List<List<LatLon>> rings)
+	{
+		int points = 0;
+		for(List<LatLon> ring : rings)
+		{
+			points += ring.size();
+		}
+		// one varint takes at most 5 bytes
+		CompactOutput out = new CompactOutput(2 + rings.size() * 5 + points * 10);
+
+		out.writeVarInt(VERSION);
+		out.writeVarInt(rings.size());
+		int prevLat = 0, prevLon = 0;
+		for(List<LatLon> ring : rings)
+		{
+			out.writeVarInt(ring.size());
+			for(LatLon pos : ring)
+			{
+				int lat = toFixedPoint(pos.getLatitude());
+				int lon = toFixedPoint(pos.getLongitude());
+				out.writeSignedVarInt(lat - prevLat);
+				out.writeSignedVarInt(lon - prevLon);
+				prevLat = lat;
+				prevLon = lon;
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/** @return the rings encoded in the given bytes. The positions of each ring are only
+	 *          created when they are accessed */
+	public static List<List<LatLon>> decode(byte[] bytes)
+	{
+		CompactInput in = new CompactInput(bytes);
+
+		int version = in.readVarInt();
+		if(version != VERSION)
+		{
+			throw new IllegalArgumentException("Unknown element geometry format " + version);
+		}
+
+		int ringCount = in.readVarInt();
+		List<List<LatLon>> result = new ArrayList<>(ringCount);
+		int prevLat = 0, prevLon = 0;
+		for(int i = 0; i < ringCount; ++i)
+		{
+			int[] coords = new int[2 * in.readVarInt()];
+			for(int j = 0; j < coords.length; j += 2)
+			{
+				prevLat += in.readSignedVarInt();
+				prevLon += in.readSignedVarInt();
+				coords[j] = prevLat;
+				coords[j+1] = prevLon;
+			}
+			result.add(new PackedLatLonList(coords));
+		}
+		return result;
+	}
+
+	private static int toFixedPoint(double coordinate)
+	{
+		return (int) Math.round(coordinate * PackedLatLonList.E7);
+	}
+}
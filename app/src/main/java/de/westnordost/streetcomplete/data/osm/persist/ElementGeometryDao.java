@@ -6,14 +6,13 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
 import javax.inject.Inject;
 
 import de.westnordost.streetcomplete.data.osm.ElementGeometry;
-import de.westnordost.streetcomplete.util.Serializer;
+import de.westnordost.osmapi.map.data.BoundingBox;
 import de.westnordost.osmapi.map.data.Element;
 import de.westnordost.osmapi.map.data.LatLon;
 import de.westnordost.osmapi.map.data.OsmLatLon;
@@ -21,7 +20,6 @@ import de.westnordost.osmapi.map.data.OsmLatLon;
 public class ElementGeometryDao
 {
 	private final SQLiteOpenHelper dbHelper;
-	private final Serializer serializer;
 
 	private final SQLiteStatement insert;
 
@@ -39,10 +37,9 @@ public class ElementGeometryDao
 		public ElementGeometry geometry;
 	}
 
-	@Inject public ElementGeometryDao(SQLiteOpenHelper dbHelper, Serializer serializer)
+	@Inject public ElementGeometryDao(SQLiteOpenHelper dbHelper)
 	{
 		this.dbHelper = dbHelper;
-		this.serializer = serializer;
 
 		String sql = "INSERT OR REPLACE INTO " + ElementGeometryTable.NAME + " ("+
 				ElementGeometryTable.Columns.ELEMENT_TYPE+","+
@@ -50,8 +47,12 @@ public class ElementGeometryDao
 				ElementGeometryTable.Columns.GEOMETRY_POLYGONS+","+
 				ElementGeometryTable.Columns.GEOMETRY_POLYLINES+","+
 				ElementGeometryTable.Columns.LATITUDE+","+
-				ElementGeometryTable.Columns.LONGITUDE+
-				") values (?,?,?,?,?,?);";
+				ElementGeometryTable.Columns.LONGITUDE+","+
+				ElementGeometryTable.Columns.MIN_LATITUDE+","+
+				ElementGeometryTable.Columns.MIN_LONGITUDE+","+
+				ElementGeometryTable.Columns.MAX_LATITUDE+","+
+				ElementGeometryTable.Columns.MAX_LONGITUDE+
+				") values (?,?,?,?,?,?,?,?,?,?);";
 		SQLiteDatabase db = dbHelper.getWritableDatabase();
 		insert = db.compileStatement(sql);
 	}
@@ -86,15 +87,20 @@ public class ElementGeometryDao
 		insert.bindString(1, type.name());
 		insert.bindLong(2, id);
 		if (geometry.polygons != null)
-			insert.bindBlob(3, serializer.toBytes(geometry.polygons));
+			insert.bindBlob(3, ElementGeometryCodec.encode(geometry.polygons));
 		else
 			insert.bindNull(3);
 		if (geometry.polylines != null)
-			insert.bindBlob(4, serializer.toBytes(geometry.polylines));
+			insert.bindBlob(4, ElementGeometryCodec.encode(geometry.polylines));
 		else
 			insert.bindNull(4);
 		insert.bindDouble(5, geometry.center.getLatitude());
 		insert.bindDouble(6, geometry.center.getLongitude());
+		BoundingBox bounds = geometry.getBounds();
+		insert.bindDouble(7, bounds.getMinLatitude());
+		insert.bindDouble(8, bounds.getMinLongitude());
+		insert.bindDouble(9, bounds.getMaxLatitude());
+		insert.bindDouble(10, bounds.getMaxLongitude());
 
 		insert.executeInsert();
 		insert.clearBindings();
@@ -112,7 +118,7 @@ public class ElementGeometryDao
 		try
 		{
 			if(!cursor.moveToFirst()) return null;
-			return createObjectFrom(serializer, cursor);
+			return createObjectFrom(cursor);
 		}
 		finally
 		{
@@ -120,7 +126,7 @@ public class ElementGeometryDao
 		}
 	}
 
-	static ElementGeometry createObjectFrom(Serializer serializer, Cursor cursor)
+	static ElementGeometry createObjectFrom(Cursor cursor)
 	{
 		int colGeometryPolygons = cursor.getColumnIndexOrThrow(ElementGeometryTable.Columns.GEOMETRY_POLYGONS),
 			colGeometryPolylines = cursor.getColumnIndexOrThrow(ElementGeometryTable.Columns.GEOMETRY_POLYLINES),
@@ -131,11 +137,11 @@ public class ElementGeometryDao
 
 		if(!cursor.isNull(colGeometryPolygons))
 		{
-			polygons = serializer.toObject(cursor.getBlob(colGeometryPolygons), ArrayList.class);
+			polygons = ElementGeometryCodec.decode(cursor.getBlob(colGeometryPolygons));
 		}
 		if(!cursor.isNull(colGeometryPolylines))
 		{
-			polylines = serializer.toObject(cursor.getBlob(colGeometryPolylines), ArrayList.class);
+			polylines = ElementGeometryCodec.decode(cursor.getBlob(colGeometryPolylines));
 		}
 		LatLon center = new OsmLatLon(cursor.getDouble(colCenterLat), cursor.getDouble(colCenterLon));
 		return new ElementGeometry(polylines, polygons, center);
@@ -147,28 +153,34 @@ public class ElementGeometryDao
 	{
 		SQLiteDatabase db = dbHelper.getWritableDatabase();
 
-		/* SQLite does not allow selecting multiple columns in a DELETE subquery. Using a workaround
-		*  as described here:
-		*  http://blog.programmingsolution.net/sql-server-2008/tsql/delete-rows-of-a-table-matching-multiple-columns-of-another-table/*/
+		/* SQLite does not allow selecting multiple columns in a DELETE subquery, so a correlated
+		*  NOT EXISTS is used. It can use the index on the element key of the quest tables */
 		String where =
-				"(" +
-					ElementGeometryTable.Columns.ELEMENT_TYPE +
-					LUMP +
-					ElementGeometryTable.Columns.ELEMENT_ID +
-				")  NOT IN ( " +
-					getSelectAllElementsIn(OsmQuestTable.NAME) +
-					" UNION " +
-					getSelectAllElementsIn(OsmQuestTable.NAME_UNDO) +
-				")";
-
-		return db.delete(ElementGeometryTable.NAME, where, null);
+				"NOT EXISTS (" + getSelectElementIn(OsmQuestTable.NAME) + ") AND " +
+				"NOT EXISTS (" + getSelectElementIn(OsmQuestTable.NAME_UNDO) + ")";
+
+		int rows = db.delete(ElementGeometryTable.NAME, where, null);
+		if(rows > 0) updateMaxLatitudeExtent(db);
+		return rows;
 	}
 
-	private static final String LUMP = "+'#'+";
+	/** The trigger on inserts only ever widens the stored extent, so it is recomputed after
+	 *  geometries have been removed */
+	private static void updateMaxLatitudeExtent(SQLiteDatabase db)
+	{
+		db.execSQL("UPDATE " + ElementGeometryExtentTable.NAME + " SET " +
+				ElementGeometryExtentTable.Columns.MAX_LATITUDE_EXTENT + " = (" +
+				"SELECT IFNULL(MAX(" + ElementGeometryTable.Columns.MAX_LATITUDE + " - " +
+				ElementGeometryTable.Columns.MIN_LATITUDE + "), 0) " +
+				"FROM " + ElementGeometryTable.NAME + ")");
+	}
 
-	private static String getSelectAllElementsIn(String table)
+	private static String getSelectElementIn(String table)
 	{
-		return "SELECT " + OsmQuestTable.Columns.ELEMENT_TYPE + LUMP + OsmQuestTable.Columns.ELEMENT_ID +
-				" FROM " + table;
+		return "SELECT 1 FROM " + table + " WHERE " +
+				table + "." + OsmQuestTable.Columns.ELEMENT_TYPE + " = " +
+				ElementGeometryTable.NAME + "." + ElementGeometryTable.Columns.ELEMENT_TYPE + " AND " +
+				table + "." + OsmQuestTable.Columns.ELEMENT_ID + " = " +
+				ElementGeometryTable.NAME + "." + ElementGeometryTable.Columns.ELEMENT_ID;
 	}
 }
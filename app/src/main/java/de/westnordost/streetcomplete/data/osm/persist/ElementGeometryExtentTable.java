@@ -0,0 +1,14 @@
+package de.westnordost.streetcomplete.data.osm.persist;
+
+/** The largest extent in latitude of all element geometries, in a single row. It is kept up to
+ *  date by a trigger on the element geometry table */
+public class ElementGeometryExtentTable
+{
+	public static final String NAME = "elements_geometry_extent";
+
+	public static class Columns
+	{
+		public static final String
+				MAX_LATITUDE_EXTENT = "max_latitude_extent";
+	}
+}
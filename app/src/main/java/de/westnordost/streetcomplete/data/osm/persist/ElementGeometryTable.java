@@ -12,6 +12,10 @@ public class ElementGeometryTable
 				GEOMETRY_POLYGONS = "geometry_polygons",
 				GEOMETRY_POLYLINES = "geometry_polylines",
 				LATITUDE = "latitude",
-				LONGITUDE = "longitude";
+				LONGITUDE = "longitude",
+				MIN_LATITUDE = "min_latitude",
+				MIN_LONGITUDE = "min_longitude",
+				MAX_LATITUDE = "max_latitude",
+				MAX_LONGITUDE = "max_longitude";
 	}
 }
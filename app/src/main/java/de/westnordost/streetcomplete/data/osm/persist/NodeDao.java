@@ -6,12 +6,10 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import javax.inject.Inject;
 
-import de.westnordost.streetcomplete.util.Serializer;
 import de.westnordost.osmapi.map.data.LatLon;
 import de.westnordost.osmapi.map.data.Node;
 import de.westnordost.osmapi.map.data.OsmLatLon;
@@ -19,14 +17,11 @@ import de.westnordost.osmapi.map.data.OsmNode;
 
 public class NodeDao extends AOsmElementDao<Node>
 {
-	private final Serializer serializer;
-
 	private final SQLiteStatement insert;
 
-	@Inject public NodeDao(SQLiteOpenHelper dbHelper, Serializer serializer)
+	@Inject public NodeDao(SQLiteOpenHelper dbHelper)
 	{
 		super(dbHelper);
-		this.serializer = serializer;
 
 		String sql = "INSERT OR REPLACE INTO " + NodeTable.NAME + " ("+
 				NodeTable.Columns.ID+","+
@@ -63,9 +58,7 @@ public class NodeDao extends AOsmElementDao<Node>
 		insert.bindDouble(4, node.getPosition().getLongitude());
 		if(node.getTags() != null)
 		{
-			HashMap<String,String> map = new HashMap<>();
-			map.putAll(node.getTags());
-			insert.bindBlob(5, serializer.toBytes(map));
+			insert.bindBlob(5, ElementCodec.encodeTags(node.getTags()));
 		}
 		else
 		{
@@ -90,7 +83,7 @@ public class NodeDao extends AOsmElementDao<Node>
 		Map<String,String> tags = null;
 		if(!cursor.isNull(colTags))
 		{
-			tags = serializer.toObject(cursor.getBlob(colTags), HashMap.class);
+			tags = ElementCodec.decodeTags(cursor.getBlob(colTags));
 		}
 		return new OsmNode(id, version, latLon, tags);
 	}
@@ -1,6 +1,10 @@
 package de.westnordost.streetcomplete.data.osm.persist;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.graphics.Rect;
 
 import javax.inject.Inject;
 
@@ -17,4 +21,40 @@ public class OsmQuestDao extends AOsmQuestDao
 
 	@Override protected String getTableName() { return OsmQuestTable.NAME; }
 	@Override protected String getMergedViewName() { return OsmQuestTable.NAME_MERGED_VIEW; }
+
+	/** @return the number of NEW quests in the given tile range (at the quest tile zoom). This is
+	 *          looked up from the quest count per tile, so it is fast regardless of how many quests
+	 *          there are */
+	public int getNewQuestCount(Rect tiles)
+	{
+		SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+		String[] args = {
+				String.valueOf(tiles.left), String.valueOf(tiles.right),
+				String.valueOf(tiles.top), String.valueOf(tiles.bottom)
+		};
+		Cursor cursor = db.rawQuery(getNewQuestCountSql(), args);
+
+		try
+		{
+			cursor.moveToFirst();
+			return cursor.getInt(0);
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+
+	/** @return SQL with the arguments left, right, top and bottom of the tile range. Package-private
+	 *          so that its query plan can be checked in tests */
+	String getNewQuestCountSql()
+	{
+		String where =
+				OsmQuestTileCountTable.Columns.X + " BETWEEN ? AND ? AND " +
+				OsmQuestTileCountTable.Columns.Y + " BETWEEN ? AND ?";
+		String[] cols = {"SUM(" + OsmQuestTileCountTable.Columns.NEW_QUESTS + ")"};
+		return SQLiteQueryBuilder.buildQueryString(false, OsmQuestTileCountTable.NAME, cols, where,
+				null, null, null, null);
+	}
 }
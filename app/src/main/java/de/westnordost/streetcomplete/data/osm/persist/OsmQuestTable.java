@@ -19,7 +19,10 @@ public class OsmQuestTable
 				QUEST_STATUS = "quest_status",
 				TAG_CHANGES = "tag_changes",
 				CHANGES_SOURCE = "changes_source",
-				LAST_UPDATE = "last_update";
+				LAST_UPDATE = "last_update",
+				// the tile (at the quest tile zoom) the quest is located in
+				TILE_X = "tile_x",
+				TILE_Y = "tile_y";
 
 		public static final String[] ALL = {
 				QUEST_ID, QUEST_TYPE, ELEMENT_ID, ELEMENT_TYPE, QUEST_STATUS, TAG_CHANGES,
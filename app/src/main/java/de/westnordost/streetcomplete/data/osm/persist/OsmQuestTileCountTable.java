@@ -0,0 +1,16 @@
+package de.westnordost.streetcomplete.data.osm.persist;
+
+/** The number of NEW osm quests per tile at the quest tile zoom. It is kept up to date by triggers
+ *  on the osm quests table */
+public class OsmQuestTileCountTable
+{
+	public static final String NAME = "osm_quests_tile_count";
+
+	public static class Columns
+	{
+		public static final String
+				X = "x",
+				Y = "y",
+				NEW_QUESTS = "new_quests";
+	}
+}
@@ -0,0 +1,37 @@
+package de.westnordost.streetcomplete.data.osm.persist;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.OsmLatLon;
+
+/** An unmodifiable list of positions that are stored in one int array as fixed point numbers with
+ *  7 decimal places (the precision of coordinates in OSM). The LatLon objects are only created
+ *  when they are accessed */
+class PackedLatLonList extends AbstractList<LatLon> implements RandomAccess, Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	static final double E7 = 1e7;
+
+	// lat, lon, lat, lon, ...
+	private final int[] coords;
+
+	PackedLatLonList(int[] coords)
+	{
+		this.coords = coords;
+	}
+
+	@Override public LatLon get(int index)
+	{
+		if(index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index);
+		return new OsmLatLon(coords[2*index] / E7, coords[2*index+1] / E7);
+	}
+
+	@Override public int size()
+	{
+		return coords.length / 2;
+	}
+}
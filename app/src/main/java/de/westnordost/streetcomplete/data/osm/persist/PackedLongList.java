@@ -0,0 +1,29 @@
+package de.westnordost.streetcomplete.data.osm.persist;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/** An unmodifiable list of longs that are stored in a primitive array */
+class PackedLongList extends AbstractList<Long> implements RandomAccess, Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final long[] values;
+
+	PackedLongList(long[] values)
+	{
+		this.values = values;
+	}
+
+	@Override public Long get(int index)
+	{
+		if(index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index);
+		return values[index];
+	}
+
+	@Override public int size()
+	{
+		return values.length;
+	}
+}
@@ -0,0 +1,88 @@
+package de.westnordost.streetcomplete.data.osm.persist;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/** An unmodifiable map of tags that are stored in one array. Elements usually have only few tags,
+ *  so looking up a tag by going through the array is fast enough and needs much less memory than
+ *  a HashMap */
+class PackedTagMap extends AbstractMap<String, String> implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	// key, value, key, value, ...
+	private final String[] keysAndValues;
+
+	PackedTagMap(String[] keysAndValues)
+	{
+		this.keysAndValues = keysAndValues;
+	}
+
+	@Override public int size()
+	{
+		return keysAndValues.length / 2;
+	}
+
+	@Override public boolean containsKey(Object key)
+	{
+		return indexOf(key) != -1;
+	}
+
+	@Override public String get(Object key)
+	{
+		int index = indexOf(key);
+		return index != -1 ? keysAndValues[index + 1] : null;
+	}
+
+	private int indexOf(Object key)
+	{
+		for(int i = 0; i < keysAndValues.length; i += 2)
+		{
+			if(keysAndValues[i].equals(key)) return i;
+		}
+		return -1;
+	}
+
+	@Override public Set<Entry<String, String>> entrySet()
+	{
+		return new AbstractSet<Entry<String, String>>()
+		{
+			@Override public Iterator<Entry<String, String>> iterator()
+			{
+				return new Iterator<Entry<String, String>>()
+				{
+					private int i = 0;
+
+					@Override public boolean hasNext()
+					{
+						return i < keysAndValues.length;
+					}
+
+					@Override public Entry<String, String> next()
+					{
+						if(!hasNext()) throw new NoSuchElementException();
+						Map.Entry<String, String> result = new SimpleImmutableEntry<>(
+								keysAndValues[i], keysAndValues[i + 1]);
+						i += 2;
+						return result;
+					}
+
+					@Override public void remove()
+					{
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override public int size()
+			{
+				return PackedTagMap.this.size();
+			}
+		};
+	}
+}
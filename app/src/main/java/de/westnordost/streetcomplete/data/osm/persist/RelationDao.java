@@ -5,27 +5,22 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.inject.Inject;
 
-import de.westnordost.streetcomplete.util.Serializer;
 import de.westnordost.osmapi.map.data.OsmRelation;
 import de.westnordost.osmapi.map.data.Relation;
 import de.westnordost.osmapi.map.data.RelationMember;
 
 public class RelationDao extends AOsmElementDao<Relation>
 {
-	private final Serializer serializer;
 	private final SQLiteStatement insert;
 
-	@Inject public RelationDao(SQLiteOpenHelper dbHelper, Serializer serializer)
+	@Inject public RelationDao(SQLiteOpenHelper dbHelper)
 	{
 		super(dbHelper);
-		this.serializer = serializer;
 
 		String sql = "INSERT OR REPLACE INTO " + RelationTable.NAME + " ("+
 				RelationTable.Columns.ID+","+
@@ -56,12 +51,10 @@ public class RelationDao extends AOsmElementDao<Relation>
 	{
 		insert.bindLong(1, relation.getId());
 		insert.bindLong(2, relation.getVersion());
-		insert.bindBlob(3, serializer.toBytes(new ArrayList<>(relation.getMembers())));
+		insert.bindBlob(3, ElementCodec.encodeMembers(relation.getMembers()));
 		if(relation.getTags() != null)
 		{
-			HashMap<String,String> map = new HashMap<>();
-			map.putAll(relation.getTags());
-			insert.bindBlob(4, serializer.toBytes(map));
+			insert.bindBlob(4, ElementCodec.encodeTags(relation.getTags()));
 		}
 		else
 		{
@@ -84,9 +77,9 @@ public class RelationDao extends AOsmElementDao<Relation>
 		Map<String,String> tags = null;
 		if(!cursor.isNull(colTags))
 		{
-			tags = serializer.toObject(cursor.getBlob(colTags), HashMap.class);
+			tags = ElementCodec.decodeTags(cursor.getBlob(colTags));
 		}
-		List<RelationMember> members = serializer.toObject(cursor.getBlob(colMembers), ArrayList.class);
+		List<RelationMember> members = ElementCodec.decodeMembers(cursor.getBlob(colMembers));
 
 		return new OsmRelation(id, version, members, tags);
 	}
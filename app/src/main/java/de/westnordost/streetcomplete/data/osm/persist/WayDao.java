@@ -5,26 +5,21 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.inject.Inject;
 
-import de.westnordost.streetcomplete.util.Serializer;
 import de.westnordost.osmapi.map.data.OsmWay;
 import de.westnordost.osmapi.map.data.Way;
 
 public class WayDao extends AOsmElementDao<Way>
 {
-	private final Serializer serializer;
 	private final SQLiteStatement insert;
 
-	@Inject public WayDao(SQLiteOpenHelper dbHelper, Serializer serializer)
+	@Inject public WayDao(SQLiteOpenHelper dbHelper)
 	{
 		super(dbHelper);
-		this.serializer = serializer;
 
 		String sql = "INSERT OR REPLACE INTO " + WayTable.NAME + " ("+
 				WayTable.Columns.ID+","+
@@ -55,12 +50,10 @@ public class WayDao extends AOsmElementDao<Way>
 	{
 		insert.bindLong(1, way.getId());
 		insert.bindLong(2, way.getVersion());
-		insert.bindBlob(3, serializer.toBytes(new ArrayList<>(way.getNodeIds())));
+		insert.bindBlob(3, ElementCodec.encodeNodeIds(way.getNodeIds()));
 		if(way.getTags() != null)
 		{
-			HashMap<String,String> map = new HashMap<>();
-			map.putAll(way.getTags());
-			insert.bindBlob(4, serializer.toBytes(map));
+			insert.bindBlob(4, ElementCodec.encodeTags(way.getTags()));
 		}
 		else
 		{
@@ -83,9 +76,9 @@ public class WayDao extends AOsmElementDao<Way>
 		Map<String, String> tags = null;
 		if(!cursor.isNull(colTags))
 		{
-			tags = serializer.toObject(cursor.getBlob(colTags), HashMap.class);
+			tags = ElementCodec.decodeTags(cursor.getBlob(colTags));
 		}
-		List<Long> nodeIds = serializer.toObject(cursor.getBlob(colNodeIds), ArrayList.class);
+		List<Long> nodeIds = ElementCodec.decodeNodeIds(cursor.getBlob(colNodeIds));
 
 		return new OsmWay(id, version, nodeIds, tags);
 	}
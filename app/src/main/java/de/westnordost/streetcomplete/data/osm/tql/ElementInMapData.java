@@ -0,0 +1,20 @@
+package de.westnordost.streetcomplete.data.osm.tql;
+
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.streetcomplete.data.osm.ElementGeometry;
+
+/** An element together with its geometry and the map data it is in, which is what a
+ *  BooleanExpression with SpatialFilterValues needs to be matched on */
+class ElementInMapData
+{
+	final Element element;
+	final ElementGeometry geometry;
+	final MapDataIndex mapData;
+
+	ElementInMapData(Element element, ElementGeometry geometry, MapDataIndex mapData)
+	{
+		this.element = element;
+		this.geometry = geometry;
+		this.mapData = mapData;
+	}
+}
@@ -10,6 +10,12 @@ import java.util.List;
  *
  * <tt>"ways with (highway = residential or highway = tertiary) and !name"</tt> (finds all
  * residential and tertiary roads that have no name)
+ *
+ * Besides tags, elements can be filtered by what is around them or by the areas they are inside:
+ *
+ * <tt>"nodes with amenity = bench and !around(30, nodes with amenity = waste_basket)"</tt> (finds
+ * all benches that have no waste basket within 30 meters), <tt>"nodes with shop and
+ * inside(ways with building = retail)"</tt>
  */
 public class FiltersParser
 {
@@ -19,9 +25,10 @@ public class FiltersParser
 	private static final String WITH = "with";
 	private static final String OR = "or";
 	private static final String AND = "and";
-	private static final String AROUND = "around";
+	private static final String AROUND = SpatialFilterValue.AROUND;
+	private static final String INSIDE = SpatialFilterValue.INSIDE;
 
-	private static final String[] RESERVED_WORDS = {WITH, OR, AND, AROUND};
+	private static final String[] RESERVED_WORDS = {WITH, OR, AND, AROUND, INSIDE};
 
 	private StringWithCursor input;
 
@@ -33,9 +40,10 @@ public class FiltersParser
 			this.input = new StringWithCursor(input.replaceAll("\\s", " "));
 
 			List<ElementsTypeFilter> elementsTypeFilters = parseElementsDeclaration();
-			BooleanExpression<OQLExpressionValue> tagExprRoot = parseTags();
+			BooleanExpression<BooleanExpressionValue> tagExprRoot = parseTags();
 
-			return new TagFilterExpression(elementsTypeFilters, tagExprRoot);
+			return new TagFilterExpression(
+					elementsTypeFilters, tagExprRoot, new TagFilterMatcher(tagExprRoot));
 		}
 		catch(ParseException e)
 		{
@@ -89,7 +97,7 @@ public class FiltersParser
 				"Any of: nodes, ways or relations, separated by ','", input.getCursorPos());
 	}
 
-	private BooleanExpression<OQLExpressionValue> parseTags() throws ParseException
+	private BooleanExpression<BooleanExpressionValue> parseTags() throws ParseException
 	{
 		// tags are optional...
 		if(!input.nextIsAndAdvanceIgnoreCase(WITH))
@@ -102,7 +110,7 @@ public class FiltersParser
 			return new BooleanExpression<>();
 		}
 
-		BooleanExpressionBuilder<OQLExpressionValue> builder = new BooleanExpressionBuilder<>();
+		BooleanExpressionBuilder<BooleanExpressionValue> builder = new BooleanExpressionBuilder<>();
 
 		do
 		{
@@ -111,7 +119,7 @@ public class FiltersParser
 				throw new ParseException("Expected a whitespace or bracket before the tag",
 						input.getCursorPos());
 
-			builder.addValue(parseTag());
+			builder.addValue(parseTagOrSpatialFilter());
 
 			// parseTag() might have "eaten up" a whitespace after the key in expectation of an
 			// operator.
@@ -176,6 +184,100 @@ public class FiltersParser
 		return characterCount > 0;
 	}
 
+	private BooleanExpressionValue parseTagOrSpatialFilter() throws ParseException
+	{
+		for(String operator : new String[]{AROUND, INSIDE})
+		{
+			if(input.nextIsIgnoreCase(operator + "(") || input.nextIsIgnoreCase("!" + operator + "("))
+			{
+				return parseSpatialFilter(operator);
+			}
+		}
+		return parseTag();
+	}
+
+	/** around(distance in meters, filters) or inside(filters), each optionally negated by "!" */
+	private SpatialFilterValue parseSpatialFilter(String operator) throws ParseException
+	{
+		boolean negated = input.nextIsAndAdvance('!');
+		input.advanceBy(operator.length() + 1);
+		int startPos = input.getCursorPos();
+
+		double distance = 0;
+		if(operator.equals(AROUND))
+		{
+			distance = parseDistance();
+		}
+
+		expectAnyNumberOfSpaces();
+		int length = findClosingBracketLength();
+		String filters = input.advanceBy(length);
+		input.advance();
+
+		try
+		{
+			if(operator.equals(AROUND)) return SpatialFilterValue.around(negated, distance, filters);
+			else                        return SpatialFilterValue.inside(negated, filters);
+		}
+		catch(RuntimeException e)
+		{
+			throw new ParseException("Invalid filters within '" + operator + "': " +
+					e.getMessage(), startPos);
+		}
+	}
+
+	private double parseDistance() throws ParseException
+	{
+		expectAnyNumberOfSpaces();
+		int length = input.findNext(',');
+		if(input.isAtEnd(length))
+		{
+			throw new ParseException("Expected a distance followed by ','", input.getCursorPos());
+		}
+		int pos = input.getCursorPos();
+		String distance = input.advanceBy(length).trim();
+		input.advance();
+		try
+		{
+			double result = Double.parseDouble(distance);
+			if(result >= 0) return result;
+		}
+		catch(NumberFormatException ignore) { }
+		throw new ParseException("Expected a distance in meters", pos);
+	}
+
+	/** @return the length until the bracket that closes the one just before the cursor */
+	private int findClosingBracketLength() throws ParseException
+	{
+		int depth = 0;
+		Character quot = null;
+		for(int length = 0; ; ++length)
+		{
+			Character c = input.peek(length);
+			if(c == null)
+			{
+				throw new ParseException("Did not close bracket", input.getCursorPos());
+			}
+			if(quot != null)
+			{
+				if(c.equals(quot)) quot = null;
+			}
+			else if(c == '"' || c == '\'')
+			{
+				quot = c;
+			}
+			else if(c == '(')
+			{
+				depth++;
+			}
+			else if(c == ')')
+			{
+				if(depth == 0) return length;
+				depth--;
+			}
+		}
+	}
+
 	private TagFilterValue parseTag() throws ParseException
 	{
 		String operator = null;
@@ -0,0 +1,314 @@
+package de.westnordost.streetcomplete.data.osm.tql;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.streetcomplete.data.osm.ElementGeometry;
+import de.westnordost.streetcomplete.data.osm.download.MapDataWithGeometryHandler;
+import de.westnordost.streetcomplete.util.SphericalEarthMath;
+
+/** Map data (elements with their geometry) indexed in a grid, so that tag filter expressions with
+ *  the "around" and "inside" operators can be evaluated locally on it.
+ *
+ *  Distances are calculated on a plane that is locally tangent to the earth at the element that
+ *  is being checked, which is precise enough for the short distances these operators are meant
+ *  for. */
+public class MapDataIndex implements MapDataWithGeometryHandler
+{
+	/** size of a cell of the grid in degrees, ~200m in latitude */
+	private static final double CELL_SIZE = 0.002;
+	/** elements that span more cells are not put into the grid but are candidates everywhere. I.e.
+	 *  areas that contain the whole downloaded bbox */
+	private static final int MAX_CELLS_PER_ENTRY = 256;
+
+	private static final double METERS_PER_DEGREE = Math.PI / 180 * SphericalEarthMath.EARTH_RADIUS;
+
+	private final List<Entry> entries = new ArrayList<>();
+	private final Map<Long, List<Entry>> grid = new HashMap<>();
+	private final List<Entry> largeEntries = new ArrayList<>();
+
+	@Override public void handle(@NonNull Element element, @Nullable ElementGeometry geometry)
+	{
+		add(element, geometry);
+	}
+
+	/** Adds the given element. Elements without geometry can be found with tag filters, but they
+	 *  are never around or inside other elements */
+	public void add(Element element, ElementGeometry geometry)
+	{
+		Entry entry = new Entry(element, geometry);
+		entries.add(entry);
+		if(geometry == null) return;
+
+		BoundingBox bounds = geometry.getBounds();
+		double minLat = bounds.getMinLatitude(), minLon = bounds.getMinLongitude();
+		double maxLat = bounds.getMaxLatitude(), maxLon = bounds.getMaxLongitude();
+		if(getCellsCount(minLat, minLon, maxLat, maxLon) > MAX_CELLS_PER_ENTRY)
+		{
+			largeEntries.add(entry);
+			return;
+		}
+		for(long cell : getCells(minLat, minLon, maxLat, maxLon))
+		{
+			List<Entry> cellEntries = grid.get(cell);
+			if(cellEntries == null)
+			{
+				cellEntries = new ArrayList<>();
+				grid.put(cell, cellEntries);
+			}
+			cellEntries.add(entry);
+		}
+	}
+
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/** Feeds all the elements in this map data that match the given expression to the handler */
+	public void findAll(TagFilterExpression expression, MapDataWithGeometryHandler handler)
+	{
+		for(Entry entry : entries)
+		{
+			if(expression.matches(entry.element, entry.geometry, this))
+			{
+				handler.handle(entry.element, entry.geometry);
+			}
+		}
+	}
+
+	/** @return whether any other element that matches the given expression is at most the given
+	 *          distance in meters away from the given element */
+	boolean isAround(Element element, ElementGeometry geometry, double distance,
+					 TagFilterExpression expression)
+	{
+		if(geometry == null) return false;
+
+		BoundingBox bounds = geometry.getBounds();
+		double refLatitude = bounds.getMinLatitude();
+		double latDistance = distance / METERS_PER_DEGREE;
+		double lonDistance = latDistance / Math.max(Math.cos(Math.toRadians(refLatitude)), 0.01);
+
+		List<Entry> candidates = getEntriesInCells(
+				bounds.getMinLatitude() - latDistance, bounds.getMinLongitude() - lonDistance,
+				bounds.getMaxLatitude() + latDistance, bounds.getMaxLongitude() + lonDistance);
+
+		List<List<LatLon>> lines = getLines(geometry);
+		for(Entry candidate : candidates)
+		{
+			if(isSameElement(element, candidate.element)) continue;
+			if(!expression.matches(candidate.element, candidate.geometry, this)) continue;
+			if(getDistance(lines, getLines(candidate.geometry), refLatitude) <= distance) return true;
+		}
+		return false;
+	}
+
+	/** @return whether the center of the given element is inside an area of any other element
+	 *          that matches the given expression */
+	boolean isInside(Element element, ElementGeometry geometry, TagFilterExpression expression)
+	{
+		if(geometry == null || geometry.center == null) return false;
+
+		LatLon pos = geometry.center;
+		List<Entry> candidates = getEntriesInCells(
+				pos.getLatitude(), pos.getLongitude(), pos.getLatitude(), pos.getLongitude());
+
+		for(Entry candidate : candidates)
+		{
+			if(candidate.geometry.polygons == null) continue;
+			if(isSameElement(element, candidate.element)) continue;
+			if(!isInPolygons(pos, candidate.geometry.polygons)) continue;
+			if(expression.matches(candidate.element, candidate.geometry, this)) return true;
+		}
+		return false;
+	}
+
+	private List<Entry> getEntriesInCells(double minLat, double minLon, double maxLat, double maxLon)
+	{
+		// looking into that many cells is slower than looking at all elements
+		if(getCellsCount(minLat, minLon, maxLat, maxLon) > grid.size())
+		{
+			List<Entry> result = new ArrayList<>(entries.size());
+			for(Entry entry : entries)
+			{
+				if(entry.geometry != null) result.add(entry);
+			}
+			return result;
+		}
+		// an element that is in several cells should only be checked once
+		Set<Entry> result = Collections.newSetFromMap(new IdentityHashMap<Entry, Boolean>());
+		for(long cell : getCells(minLat, minLon, maxLat, maxLon))
+		{
+			List<Entry> cellEntries = grid.get(cell);
+			if(cellEntries != null) result.addAll(cellEntries);
+		}
+		result.addAll(largeEntries);
+		return new ArrayList<>(result);
+	}
+
+	private static long getCellsCount(double minLat, double minLon, double maxLat, double maxLon)
+	{
+		long rows = (long) Math.floor(maxLat / CELL_SIZE) - (long) Math.floor(minLat / CELL_SIZE) + 1;
+		long columns = (long) Math.floor(maxLon / CELL_SIZE) - (long) Math.floor(minLon / CELL_SIZE) + 1;
+		return rows * columns;
+	}
+
+	private static List<Long> getCells(double minLat, double minLon, double maxLat, double maxLon)
+	{
+		int minY = (int) Math.floor(minLat / CELL_SIZE), maxY = (int) Math.floor(maxLat / CELL_SIZE);
+		int minX = (int) Math.floor(minLon / CELL_SIZE), maxX = (int) Math.floor(maxLon / CELL_SIZE);
+		List<Long> result = new ArrayList<>((maxY - minY + 1) * (maxX - minX + 1));
+		for(int y = minY; y <= maxY; ++y)
+		{
+			for(int x = minX; x <= maxX; ++x)
+			{
+				result.add(((long) y << 32) | (x & 0xffffffffL));
+			}
+		}
+		return result;
+	}
+
+	private static boolean isSameElement(Element element, Element other)
+	{
+		return element.getType() == other.getType() && element.getId() == other.getId();
+	}
+
+	/** @return the outlines of the given geometry. A point is a line with only one position */
+	private static List<List<LatLon>> getLines(ElementGeometry geometry)
+	{
+		if(geometry.polygons != null) return geometry.polygons;
+		if(geometry.polylines != null) return geometry.polylines;
+		return Collections.singletonList(Collections.singletonList(geometry.center));
+	}
+
+	/** @return the shortest distance in meters between any segments of the given lines */
+	private static double getDistance(List<List<LatLon>> lines1, List<List<LatLon>> lines2,
+									  double refLatitude)
+	{
+		double lonFactor = Math.cos(Math.toRadians(refLatitude));
+		double result = Double.MAX_VALUE;
+		for(List<LatLon> line1 : lines1)
+		{
+			double[] points1 = project(line1, lonFactor);
+			for(List<LatLon> line2 : lines2)
+			{
+				double[] points2 = project(line2, lonFactor);
+				result = Math.min(result, getDistance(points1, points2));
+			}
+		}
+		return result * METERS_PER_DEGREE;
+	}
+
+	/** @return the positions of the given line as x,y,x,y,... on a plane */
+	private static double[] project(List<LatLon> line, double lonFactor)
+	{
+		double[] result = new double[line.size() * 2];
+		for(int i = 0; i < line.size(); ++i)
+		{
+			result[i * 2] = line.get(i).getLongitude() * lonFactor;
+			result[i * 2 + 1] = line.get(i).getLatitude();
+		}
+		return result;
+	}
+
+	private static double getDistance(double[] line1, double[] line2)
+	{
+		double result = Double.MAX_VALUE;
+		// a line with one position is one degenerate segment
+		int segments1 = Math.max(line1.length / 2 - 1, 1);
+		int segments2 = Math.max(line2.length / 2 - 1, 1);
+		for(int i = 0; i < segments1; ++i)
+		{
+			int a = i * 2, b = Math.min(a + 2, line1.length - 2);
+			for(int j = 0; j < segments2; ++j)
+			{
+				int c = j * 2, d = Math.min(c + 2, line2.length - 2);
+				result = Math.min(result, getSegmentsDistance(
+						line1[a], line1[a+1], line1[b], line1[b+1],
+						line2[c], line2[c+1], line2[d], line2[d+1]));
+				if(result == 0) return 0;
+			}
+		}
+		return result;
+	}
+
+	private static double getSegmentsDistance(double ax, double ay, double bx, double by,
+											  double cx, double cy, double dx, double dy)
+	{
+		if(isIntersecting(ax, ay, bx, by, cx, cy, dx, dy)) return 0;
+		return Math.min(
+				Math.min(getPointSegmentDistance(ax, ay, cx, cy, dx, dy),
+						getPointSegmentDistance(bx, by, cx, cy, dx, dy)),
+				Math.min(getPointSegmentDistance(cx, cy, ax, ay, bx, by),
+						getPointSegmentDistance(dx, dy, ax, ay, bx, by)));
+	}
+
+	private static boolean isIntersecting(double ax, double ay, double bx, double by,
+										  double cx, double cy, double dx, double dy)
+	{
+		double d1 = cross(cx, cy, dx, dy, ax, ay);
+		double d2 = cross(cx, cy, dx, dy, bx, by);
+		double d3 = cross(ax, ay, bx, by, cx, cy);
+		double d4 = cross(ax, ay, bx, by, dx, dy);
+		return (d1 > 0 && d2 < 0 || d1 < 0 && d2 > 0) && (d3 > 0 && d4 < 0 || d3 < 0 && d4 > 0);
+	}
+
+	private static double cross(double ax, double ay, double bx, double by, double px, double py)
+	{
+		return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+	}
+
+	private static double getPointSegmentDistance(double px, double py,
+												  double ax, double ay, double bx, double by)
+	{
+		double dx = bx - ax, dy = by - ay;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+		t = Math.max(0, Math.min(1, t));
+		return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+	}
+
+	/** @return whether the given position is inside the given polygons. Holes do not need to be
+	 *          known as such because a position in a hole is inside two rings (even-odd rule) */
+	private static boolean isInPolygons(LatLon pos, List<List<LatLon>> polygons)
+	{
+		double x = pos.getLongitude(), y = pos.getLatitude();
+		boolean result = false;
+		for(List<LatLon> ring : polygons)
+		{
+			for(int i = 0, j = ring.size() - 1; i < ring.size(); j = i++)
+			{
+				double xi = ring.get(i).getLongitude(), yi = ring.get(i).getLatitude();
+				double xj = ring.get(j).getLongitude(), yj = ring.get(j).getLatitude();
+				if((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi)
+				{
+					result = !result;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static class Entry
+	{
+		final Element element;
+		final ElementGeometry geometry;
+
+		Entry(Element element, ElementGeometry geometry)
+		{
+			this.element = element;
+			this.geometry = geometry;
+		}
+	}
+}
@@ -0,0 +1,363 @@
+package de.westnordost.streetcomplete.data.osm.tql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.westnordost.osmapi.map.data.BoundingBox;
+
+/** Creates a short Overpass query for the union of terms of ANDed tag filters (= an expression in
+ *  disjunctive normal form). The fully expanded form of nested expressions becomes very large
+ *  quickly, so per element type
+ *  <ul>
+ *    <li>terms that are implied by other terms are dropped: "a or a and b" is "a"</li>
+ *    <li>terms that differ only in the value of one key are merged into one filter:
+ *        "a=x and b or a=y and b" is "a~x|y and b"</li>
+ *    <li>a filter on tag values that many terms have in common is queried only once into a named
+ *        set which is then filtered further by each of the terms, if that makes the query shorter:
+ *        <tt>node[a]->.n1;(node.n1[b];node.n1[c];);</tt></li>
+ *  </ul>
+ *
+ *  Terms are only minimized together with the terms that are searched for in the same place. If
+ *  all terms are searched for in the same bounding box, it is set globally for the query,
+ *  otherwise every statement has its own spatial filter. */
+class OverpassQueryMinimizer
+{
+	private final Map<String, Scope> scopes = new LinkedHashMap<>();
+	private int areaSetsCount = 0;
+
+	/** Adds a term of ANDed filters that should be found for the given elements type in the given
+	 *  bounding box. If the bounding box is null, it is searched for everywhere */
+	void add(ElementsTypeFilter elementsType, List<OQLExpressionValue> filters, BoundingBox bbox)
+	{
+		getScope(bbox).add(elementsType, filters);
+	}
+
+	/** Like add, but for terms that should match areas, so also those areas are found that contain
+	 *  the whole bounding box and thus have no nodes in it */
+	void addContainingAreas(ElementsTypeFilter elementsType, List<OQLExpressionValue> filters,
+							BoundingBox bbox)
+	{
+		add(elementsType, filters, bbox);
+		// nodes are never areas
+		if(bbox == null || elementsType == ElementsTypeFilter.NODES) return;
+
+		double lat = (bbox.getMinLatitude() + bbox.getMaxLatitude()) / 2;
+		double lon = (bbox.getMinLongitude() + bbox.getMaxLongitude()) / 2;
+		String pivot = "is_in(" + lat + "," + lon + ")";
+		Scope scope = scopes.get(pivot);
+		if(scope == null)
+		{
+			String areaSet = "a" + (++areaSetsCount);
+			scope = new Scope(pivot + "->." + areaSet + ";", "(pivot." + areaSet + ")", null);
+			scopes.put(pivot, scope);
+		}
+		scope.add(elementsType, filters);
+	}
+
+	private Scope getScope(BoundingBox bbox)
+	{
+		String filter = bbox == null ? "" :
+				"(" + bbox.getMinLatitude() + "," + bbox.getMinLongitude() + "," +
+				bbox.getMaxLatitude() + "," + bbox.getMaxLongitude() + ")";
+		Scope scope = scopes.get(filter);
+		if(scope == null)
+		{
+			scope = new Scope("", filter, bbox);
+			scopes.put(filter, scope);
+		}
+		return scope;
+	}
+
+	/** @return the union of all the added terms as one Overpass query string (in a short one-liner
+	 *          form) */
+	String toOverpassQLString()
+	{
+		StringBuilder oql = new StringBuilder();
+		Scope onlyScope = scopes.size() == 1 ? scopes.values().iterator().next() : null;
+		boolean isGlobalBBox = onlyScope != null && onlyScope.prefix.isEmpty();
+		if(isGlobalBBox && onlyScope.bbox != null)
+		{
+			BoundingBox bbox = onlyScope.bbox;
+			oql.append(
+					"[bbox:" +
+							bbox.getMinLatitude() + "," + bbox.getMinLongitude() + "," +
+							bbox.getMaxLatitude() + "," + bbox.getMaxLongitude() +
+					"];");
+		}
+
+		/* Named sets must be created before the union, because the union contains the result of
+		   every statement within it, also of those that write into a named set */
+		List<String> namedSets = new ArrayList<>();
+		List<String> statements = new ArrayList<>();
+		for(Scope scope : scopes.values())
+		{
+			if(!scope.prefix.isEmpty()) namedSets.add(scope.prefix);
+			String filter = isGlobalBBox ? "" : scope.filter;
+			for(Map.Entry<ElementsTypeFilter, List<Term>> entry : scope.termsByElementsType.entrySet())
+			{
+				List<Term> terms = minimize(entry.getValue());
+				addStatements(entry.getKey().oqlName, filter, terms, namedSets, statements);
+			}
+		}
+
+		for(String namedSet : namedSets)
+		{
+			oql.append(namedSet);
+		}
+
+		final boolean useUnion = statements.size() > 1 || !namedSets.isEmpty();
+
+		if(useUnion) oql.append("(");
+		for(String statement : statements)
+		{
+			oql.append(statement);
+		}
+		if(useUnion) oql.append(");");
+
+		/* "body" print mode (default) does not include version, but "meta" does. "geom" prints out
+		 * geometry for every way and relation */
+		oql.append("out meta geom;");
+		return oql.toString();
+	}
+
+	private static List<Term> minimize(List<Term> terms)
+	{
+		List<Term> result = terms;
+		do
+		{
+			result = removeImpliedTerms(result);
+		}
+		while(mergeTermsWithSameKey(result));
+		return result;
+	}
+
+	/** @return the given terms without those that contain all the filters of another term */
+	private static List<Term> removeImpliedTerms(List<Term> terms)
+	{
+		List<Term> result = new ArrayList<>(terms.size());
+		for(int i = 0; i < terms.size(); ++i)
+		{
+			Term term = terms.get(i);
+			boolean isImplied = false;
+			for(int j = 0; j < terms.size() && !isImplied; ++j)
+			{
+				if(i == j) continue;
+				Term other = terms.get(j);
+				// of equal terms, the first is kept
+				boolean isLarger = term.filters.size() > other.filters.size();
+				isImplied = term.containsAll(other) && (isLarger || j < i);
+			}
+			if(!isImplied) result.add(term);
+		}
+		return result;
+	}
+
+	/** Merges two terms that differ only in one filter each into one term, if these two filters
+	 *  can be expressed as one
+	 *
+	 *  @return whether any terms have been merged */
+	private static boolean mergeTermsWithSameKey(List<Term> terms)
+	{
+		boolean merged = false;
+		for(int i = 0; i < terms.size(); ++i)
+		{
+			for(int j = i + 1; j < terms.size(); ++j)
+			{
+				Term mergedTerm = terms.get(i).mergeWith(terms.get(j));
+				if(mergedTerm != null)
+				{
+					terms.set(i, mergedTerm);
+					terms.remove(j--);
+					merged = true;
+				}
+			}
+		}
+		return merged;
+	}
+
+	/** @param spatialFilter the filter that limits where the terms are searched for, appended to
+	 *                       every statement that does not filter a named set */
+	private static void addStatements(String oqlName, String spatialFilter, List<Term> terms,
+									  List<String> namedSets, List<String> statements)
+	{
+		List<Term> remainingTerms = new ArrayList<>(terms);
+		while(true)
+		{
+			String setName = oqlName.charAt(0) + String.valueOf(namedSets.size() + 1);
+			String filter = findMostWorthwhileCommonFilter(
+					oqlName, spatialFilter, setName, remainingTerms);
+			if(filter == null) break;
+
+			namedSets.add(oqlName + filter + spatialFilter + "->." + setName + ";");
+			for(int i = 0; i < remainingTerms.size(); ++i)
+			{
+				Term term = remainingTerms.get(i);
+				if(!term.filters.containsKey(filter)) continue;
+				statements.add(oqlName + "." + setName + term.toOverpassQLString(filter) + ";");
+				remainingTerms.remove(i--);
+			}
+		}
+		for(Term term : remainingTerms)
+		{
+			statements.add(oqlName + term.toOverpassQLString(null) + spatialFilter + ";");
+		}
+	}
+
+	/** @return the selective filter which, if queried only once into a named set, shortens the
+	 *          statements of the given terms the most or null if there is none that shortens them */
+	private static String findMostWorthwhileCommonFilter(String oqlName, String spatialFilter,
+														 String setName, List<Term> terms)
+	{
+		Map<String, Integer> counts = new HashMap<>();
+		for(Term term : terms)
+		{
+			for(Map.Entry<String, OQLExpressionValue> filter : term.filters.entrySet())
+			{
+				if(!isSelective(filter.getValue())) continue;
+				Integer count = counts.get(filter.getKey());
+				counts.put(filter.getKey(), count == null ? 1 : count + 1);
+			}
+		}
+
+		String result = null;
+		int maxSaving = 0;
+		for(Map.Entry<String, Integer> entry : counts.entrySet())
+		{
+			int count = entry.getValue();
+			int filterLength = entry.getKey().length() + spatialFilter.length();
+			// "node[a][b](bbox);node[a][c](bbox);" vs "node[a](bbox)->.n1;node.n1[b];node.n1[c];"
+			int saving = count * filterLength
+					- (oqlName.length() + filterLength + "->.".length() + setName.length() + 1)
+					- count * (1 + setName.length());
+			if(saving > maxSaving)
+			{
+				maxSaving = saving;
+				result = entry.getKey();
+			}
+		}
+		return result;
+	}
+
+	/** @return whether the given filter requires certain tag values. Only such filters are queried
+	 *          into a named set, because Overpass needs to look at all elements in the bbox to find
+	 *          those that match a negated filter and at very many to find those with a certain key */
+	private static boolean isSelective(OQLExpressionValue filter)
+	{
+		if(!(filter instanceof TagFilterValue)) return false;
+		TagFilterValue tagFilter = (TagFilterValue) filter;
+		return tagFilter.getRequiredKey() != null && tagFilter.getRequiredValues() != null;
+	}
+
+	/** The terms that are searched for in one place */
+	private static class Scope
+	{
+		/** statements that must be run before the statements of this scope */
+		final String prefix;
+		/** the filter that limits the statements of this scope to that place */
+		final String filter;
+		final BoundingBox bbox;
+		final Map<ElementsTypeFilter, List<Term>> termsByElementsType = new LinkedHashMap<>();
+
+		Scope(String prefix, String filter, BoundingBox bbox)
+		{
+			this.prefix = prefix;
+			this.filter = filter;
+			this.bbox = bbox;
+		}
+
+		void add(ElementsTypeFilter elementsType, List<OQLExpressionValue> filters)
+		{
+			List<Term> terms = termsByElementsType.get(elementsType);
+			if(terms == null)
+			{
+				terms = new ArrayList<>();
+				termsByElementsType.put(elementsType, terms);
+			}
+			terms.add(new Term(filters));
+		}
+	}
+
+	/** Filters that are ANDed, by their Overpass string */
+	private static class Term
+	{
+		final Map<String, OQLExpressionValue> filters;
+
+		Term(List<OQLExpressionValue> filters)
+		{
+			this.filters = new LinkedHashMap<>();
+			for(OQLExpressionValue filter : filters)
+			{
+				this.filters.put(filter.toOverpassQLString(), filter);
+			}
+		}
+
+		private Term(Map<String, OQLExpressionValue> filters)
+		{
+			this.filters = filters;
+		}
+
+		boolean containsAll(Term other)
+		{
+			return filters.keySet().containsAll(other.filters.keySet());
+		}
+
+		/** @return a term that matches if this or the other term matches, or null if that cannot
+		 *          be expressed as one term */
+		Term mergeWith(Term other)
+		{
+			if(filters.size() != other.filters.size()) return null;
+
+			String differentFilter = null;
+			for(String filter : filters.keySet())
+			{
+				if(other.filters.containsKey(filter)) continue;
+				if(differentFilter != null) return null;
+				differentFilter = filter;
+			}
+			String otherDifferentFilter = null;
+			for(String filter : other.filters.keySet())
+			{
+				if(filters.containsKey(filter)) continue;
+				otherDifferentFilter = filter;
+			}
+			if(differentFilter == null || otherDifferentFilter == null) return null;
+
+			OQLExpressionValue value = filters.get(differentFilter);
+			OQLExpressionValue otherValue = other.filters.get(otherDifferentFilter);
+			if(!(value instanceof TagFilterValue) || !(otherValue instanceof TagFilterValue))
+			{
+				return null;
+			}
+			TagFilterValue mergedValue = ((TagFilterValue) value).or((TagFilterValue) otherValue);
+			if(mergedValue == null) return null;
+
+			// the merged filter takes the place of the one it replaces
+			Map<String, OQLExpressionValue> result = new LinkedHashMap<>();
+			for(Map.Entry<String, OQLExpressionValue> filter : filters.entrySet())
+			{
+				if(filter.getKey().equals(differentFilter))
+				{
+					result.put(mergedValue.toOverpassQLString(), mergedValue);
+				}
+				else
+				{
+					result.put(filter.getKey(), filter.getValue());
+				}
+			}
+			return new Term(result);
+		}
+
+		String toOverpassQLString(String withoutFilter)
+		{
+			StringBuilder result = new StringBuilder();
+			for(String filter : filters.keySet())
+			{
+				if(!filter.equals(withoutFilter)) result.append(filter);
+			}
+			return result.toString();
+		}
+	}
+}
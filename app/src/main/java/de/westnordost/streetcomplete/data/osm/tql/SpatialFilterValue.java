@@ -0,0 +1,87 @@
+package de.westnordost.streetcomplete.data.osm.tql;
+
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.streetcomplete.util.SphericalEarthMath;
+
+/** A value within a BooleanExpression that filters by the elements around an element
+ *  (around(30, ways with highway)) or the areas an element is inside (inside(ways with building)).
+ *
+ *  It can only be matched on an element within the map data it is in (see MapDataIndex). Overpass
+ *  does not know such filters within one statement, so they are not part of the Overpass query,
+ *  but the elements they refer to are (see TagFilterExpression.toOverpassQLString) */
+class SpatialFilterValue implements BooleanExpressionValue
+{
+	static final String AROUND = "around";
+	static final String INSIDE = "inside";
+
+	private final String operator;
+	private final boolean negated;
+	private final double distance;
+	private final TagFilterExpression expression;
+	private final String filters;
+
+	private SpatialFilterValue(String operator, boolean negated, double distance, String filters)
+	{
+		this.operator = operator;
+		this.negated = negated;
+		this.distance = distance;
+		this.filters = filters;
+		expression = new FiltersParser().parse(filters);
+	}
+
+	/** @param distance in meters */
+	static SpatialFilterValue around(boolean negated, double distance, String filters)
+	{
+		return new SpatialFilterValue(AROUND, negated, distance, filters);
+	}
+
+	static SpatialFilterValue inside(boolean negated, String filters)
+	{
+		return new SpatialFilterValue(INSIDE, negated, 0, filters);
+	}
+
+	/** Adds the terms of the expression to the query so that all the elements that are relevant
+	 *  for whether an element in the given bbox matches are found: those around it also beyond
+	 *  the bbox and the whole areas it is inside of */
+	void addReferencedTermsTo(OverpassQueryMinimizer query, BoundingBox bbox)
+	{
+		if(operator.equals(AROUND))
+		{
+			BoundingBox enlargedBBox = bbox != null
+					? SphericalEarthMath.enlargedBoundingBox(bbox, distance)
+					: null;
+			expression.addTermsTo(query, enlargedBBox, false);
+		}
+		else
+		{
+			expression.addTermsTo(query, bbox, true);
+		}
+	}
+
+	@Override public boolean matches(Object obj)
+	{
+		if(!(obj instanceof ElementInMapData))
+		{
+			throw new IllegalStateException("The \"" + operator + "\" filter can only be " +
+					"matched on an element within its map data");
+		}
+		ElementInMapData e = (ElementInMapData) obj;
+
+		boolean result;
+		if(operator.equals(AROUND))
+		{
+			result = e.mapData.isAround(e.element, e.geometry, distance, expression);
+		}
+		else
+		{
+			result = e.mapData.isInside(e.element, e.geometry, expression);
+		}
+		return result != negated;
+	}
+
+	@Override public String toString()
+	{
+		String params = operator.equals(AROUND) ? distance + ", " + filters : filters;
+		return (negated ? "!" : "") + operator + "(" + params + ")";
+	}
+}
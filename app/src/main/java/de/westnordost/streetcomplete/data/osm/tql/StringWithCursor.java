@@ -83,6 +83,13 @@ public class StringWithCursor
 		return string.charAt(cursor);
 	}
 
+	/** @return the character x positions after the cursor or null if that is beyond the end */
+	public Character peek(int x)
+	{
+		if(cursor + x >= string.length()) return null;
+		return string.charAt(cursor + x);
+	}
+
 	public boolean previousIs(char c)
 	{
 		return c == string.charAt(cursor-1);
@@ -1,142 +1,306 @@
 package de.westnordost.streetcomplete.data.osm.tql;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import de.westnordost.osmapi.map.data.BoundingBox;
 import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.streetcomplete.data.osm.ElementGeometry;
 
 /** Represents a parse result of a string in filter syntax, i.e.
  *  <tt>"ways with (highway = residential or highway = tertiary) and !name"</tt> */
 public class TagFilterExpression
 {
 	private List<ElementsTypeFilter> elementsTypeFilters;
-	private BooleanExpression<OQLExpressionValue> tagExprRoot;
+	private BooleanExpression<BooleanExpressionValue> tagExprRoot;
+	/** the tag expression compiled for matching or null if it is matched on the tree itself */
+	private final TagFilterMatcher matcher;
+
+	private final boolean matchesNodes, matchesWays, matchesRelations;
 
 	public TagFilterExpression(List<ElementsTypeFilter> elementsTypeFilters,
-							   BooleanExpression<OQLExpressionValue> tagExprRoot)
+							   BooleanExpression<BooleanExpressionValue> tagExprRoot)
+	{
+		this(elementsTypeFilters, tagExprRoot, null);
+	}
+
+	TagFilterExpression(List<ElementsTypeFilter> elementsTypeFilters,
+						BooleanExpression<BooleanExpressionValue> tagExprRoot, TagFilterMatcher matcher)
 	{
 		this.elementsTypeFilters = elementsTypeFilters;
 		this.tagExprRoot = tagExprRoot;
+		this.matcher = matcher;
+
+		matchesNodes = elementsTypeFilters.contains(ElementsTypeFilter.NODES);
+		matchesWays = elementsTypeFilters.contains(ElementsTypeFilter.WAYS);
+		matchesRelations = elementsTypeFilters.contains(ElementsTypeFilter.RELATIONS);
 	}
 
 	/** @return whether the given element is found through (=matches) this expression */
 	public boolean matches(Element element)
 	{
-		Element.Type eleType = element.getType();
+		if(!matchesElementsOfType(element.getType())) return false;
+		if(matcher != null) return matcher.matches(element, element);
+		return tagExprRoot.matches(element);
+	}
+
+	/** @return whether the given element with the given geometry within the given map data is found
+	 *          through (=matches) this expression. Unlike matches(Element), this can also be used
+	 *          if this expression contains around or inside filters */
+	public boolean matches(Element element, ElementGeometry geometry, MapDataIndex mapData)
+	{
+		if(!matchesElementsOfType(element.getType())) return false;
+		ElementInMapData elementInMapData = new ElementInMapData(element, geometry, mapData);
+		if(matcher != null) return matcher.matches(element, elementInMapData);
+		return tagExprRoot.matches(elementInMapData);
+	}
+
+	/** @return whether this expression contains around or inside filters, which means that whether
+	 *          an element matches it cannot be determined by looking at that element alone */
+	public boolean hasSpatialFilters()
+	{
+		return !getSpatialFilters(tagExprRoot).isEmpty();
+	}
 
-		boolean elementTypeMatches = false;
+	private static List<SpatialFilterValue> getSpatialFilters(BooleanExpression<BooleanExpressionValue> expr)
+	{
+		List<SpatialFilterValue> result = new ArrayList<>();
+		if(expr.isValue())
+		{
+			if(expr.getValue() instanceof SpatialFilterValue)
+			{
+				result.add((SpatialFilterValue) expr.getValue());
+			}
+		}
+		else
+		{
+			for(BooleanExpression<BooleanExpressionValue> child : expr.getChildren())
+			{
+				result.addAll(getSpatialFilters(child));
+			}
+		}
+		return result;
+	}
 
+	/** @return whether elements of the given type can be found through this expression */
+	public boolean matchesElementsOfType(Element.Type eleType)
+	{
 		switch(eleType)
 		{
 			case NODE:
-				elementTypeMatches = elementsTypeFilters.contains(ElementsTypeFilter.NODES);
-				break;
+				return matchesNodes;
 			case WAY:
-				elementTypeMatches = elementsTypeFilters.contains(ElementsTypeFilter.WAYS);
-				break;
+				return matchesWays;
 			case RELATION:
-				elementTypeMatches = elementsTypeFilters.contains(ElementsTypeFilter.RELATIONS);
-				break;
+				return matchesRelations;
 		}
+		return false;
+	}
 
-		return elementTypeMatches && tagExprRoot.matches(element);
+	/** @return the tags every element found through this expression has: For each tag key the
+	 *          values one of which the element has for that key, or null if it may have any
+	 *          value. I.e. for "highway = residential or highway = tertiary and name", it is
+	 *          highway -> [residential, tertiary] */
+	public Map<String, Set<String>> getRequiredTags()
+	{
+		return Collections.unmodifiableMap(getRequiredTags(tagExprRoot));
 	}
 
-	/** @return this expression as a Overpass query string (in a short one-liner form) */
-	public String toOverpassQLString(BoundingBox bbox)
+	private static Map<String, Set<String>> getRequiredTags(BooleanExpression<BooleanExpressionValue> expr)
 	{
-		StringBuilder oql = new StringBuilder();
-		if(bbox != null)
+		Map<String, Set<String>> result = new HashMap<>();
+		if(expr.isValue())
 		{
-			oql.append(
-					"[bbox:" +
-							bbox.getMinLatitude() + "," + bbox.getMinLongitude() + "," +
-							bbox.getMaxLatitude() + "," + bbox.getMaxLongitude() +
-					"];");
+			if(expr.getValue() instanceof TagFilterValue)
+			{
+				TagFilterValue value = (TagFilterValue) expr.getValue();
+				String key = value.getRequiredKey();
+				if(key != null) result.put(key, value.getRequiredValues());
+			}
 		}
-
-		BooleanExpression<OQLExpressionValue> expandedExpression = createExpandedExpression();
-
-		List<String> elements = getTagFiltersOverpassList(expandedExpression);
-
-		final boolean useUnion = elementsTypeFilters.size() > 1 || elements.size() > 1;
-
-		if(useUnion) oql.append("(");
-		for(ElementsTypeFilter filter : elementsTypeFilters)
+		else if(expr.isAnd())
 		{
-			oql.append(getTagFiltersOverpassString(filter, elements));
+			// an element must have the required tags of every child
+			for(BooleanExpression<BooleanExpressionValue> child : expr.getChildren())
+			{
+				for(Map.Entry<String, Set<String>> tag : getRequiredTags(child).entrySet())
+				{
+					String key = tag.getKey();
+					if(!result.containsKey(key))
+					{
+						result.put(key, tag.getValue());
+					}
+					else
+					{
+						result.put(key, intersect(result.get(key), tag.getValue()));
+					}
+				}
+			}
 		}
-		if(useUnion) oql.append(");");
+		else if(expr.isOr())
+		{
+			// an element must have only those tags that are required by every child
+			boolean first = true;
+			for(BooleanExpression<BooleanExpressionValue> child : expr.getChildren())
+			{
+				Map<String, Set<String>> childTags = getRequiredTags(child);
+				if(first)
+				{
+					result.putAll(childTags);
+					first = false;
+					continue;
+				}
+				Iterator<Map.Entry<String, Set<String>>> it = result.entrySet().iterator();
+				while(it.hasNext())
+				{
+					Map.Entry<String, Set<String>> tag = it.next();
+					if(!childTags.containsKey(tag.getKey())) it.remove();
+					else tag.setValue(unite(tag.getValue(), childTags.get(tag.getKey())));
+				}
+			}
+		}
+		else
+		{
+			// root or brackets
+			BooleanExpression<BooleanExpressionValue> child = expr.getFirstChild();
+			if(child != null && child == getLastChild(expr)) result.putAll(getRequiredTags(child));
+		}
+		return result;
+	}
 
-		/* "body" print mode (default) does not include version, but "meta" does. "geom" prints out
-		 * geometry for every way and relation */
-		oql.append("out meta geom;");
-		return oql.toString();
+	private static BooleanExpression<BooleanExpressionValue> getLastChild(
+			BooleanExpression<BooleanExpressionValue> expr)
+	{
+		BooleanExpression<BooleanExpressionValue> result = null;
+		for(BooleanExpression<BooleanExpressionValue> child : expr.getChildren()) result = child;
+		return result;
 	}
 
-	private BooleanExpression<OQLExpressionValue> createExpandedExpression()
+	/** null means any value */
+	private static Set<String> intersect(Set<String> values1, Set<String> values2)
 	{
-		BooleanExpression<OQLExpressionValue> result = tagExprRoot.copy();
-		result.flatten();
-		result.expand();
+		if(values1 == null) return values2;
+		if(values2 == null) return values1;
+		Set<String> result = new HashSet<>(values1);
+		result.retainAll(values2);
 		return result;
 	}
 
-	private static String getTagFiltersOverpassString(ElementsTypeFilter elementType, List<String> elements)
+	/** null means any value */
+	private static Set<String> unite(Set<String> values1, Set<String> values2)
+	{
+		if(values1 == null || values2 == null) return null;
+		Set<String> result = new HashSet<>(values1);
+		result.addAll(values2);
+		return result;
+	}
+
+	/** @return this expression as a Overpass query string (in a short one-liner form) */
+	public String toOverpassQLString(BoundingBox bbox)
+	{
+		return toOverpassQLString(Collections.singletonList(this), bbox);
+	}
+
+	/** @return the union of all the given expressions as one Overpass query string (in a short
+	 *          one-liner form), so that the data for all of them can be fetched in one request.
+	 *
+	 *          Around and inside filters are left out of the statements, so the query finds more
+	 *          elements than match. The elements these filters refer to are queried too, also
+	 *          beyond the bbox as far as they can be relevant for the elements in it, so that the
+	 *          filters can be evaluated locally on the result, see MapDataIndex */
+	public static String toOverpassQLString(Collection<TagFilterExpression> expressions,
+											BoundingBox bbox)
 	{
-		StringBuilder oql = new StringBuilder();
-		for(String element : elements)
+		OverpassQueryMinimizer query = new OverpassQueryMinimizer();
+		for(TagFilterExpression expression : expressions)
 		{
-			oql.append(elementType.oqlName);
-			oql.append(element);
+			expression.addTermsTo(query, bbox, false);
 		}
-		return oql.toString();
+		return query.toOverpassQLString();
 	}
 
-	private static List<String> getTagFiltersOverpassList(
-			BooleanExpression<OQLExpressionValue> expandedExpression)
+	/** Adds each term of the expanded form of this expression for every element type and those of
+	 *  the expressions of its around and inside filters
+	 *
+	 *  @param asContainingAreas whether also the areas that contain the whole bbox should be found */
+	void addTermsTo(OverpassQueryMinimizer query, BoundingBox bbox, boolean asContainingAreas)
 	{
-		BooleanExpression<OQLExpressionValue> child = expandedExpression.getFirstChild();
-		if(child == null) return Collections.singletonList(";");
-
-		if(child.isOr())
+		List<List<OQLExpressionValue>> terms = getTerms(createExpandedExpression());
+		for(ElementsTypeFilter filter : elementsTypeFilters)
 		{
-			return getUnionOverpassQueryString(child);
+			for(List<OQLExpressionValue> term : terms)
+			{
+				if(asContainingAreas) query.addContainingAreas(filter, term, bbox);
+				else query.add(filter, term, bbox);
+			}
 		}
-		else if(child.isAnd() || child.isValue())
+		for(SpatialFilterValue spatialFilter : getSpatialFilters(tagExprRoot))
 		{
-			return Collections.singletonList(getSingleOverpassQueryString(child));
+			spatialFilter.addReferencedTermsTo(query, bbox);
 		}
+	}
 
-		throw new RuntimeException("The boolean expression is not in the expected format");
+	private BooleanExpression<BooleanExpressionValue> createExpandedExpression()
+	{
+		BooleanExpression<BooleanExpressionValue> result = tagExprRoot.copy();
+		result.flatten();
+		result.expand();
+		return result;
 	}
 
-	private static List<String> getUnionOverpassQueryString(BooleanExpression<OQLExpressionValue> child)
+	private static List<List<OQLExpressionValue>> getTerms(
+			BooleanExpression<BooleanExpressionValue> expandedExpression)
 	{
-		List<String> result = new ArrayList<>();
-		for(BooleanExpression<OQLExpressionValue> orChild : child.getChildren())
+		BooleanExpression<BooleanExpressionValue> child = expandedExpression.getFirstChild();
+		if(child == null) return Collections.singletonList(Collections.<OQLExpressionValue>emptyList());
+
+		if(child.isOr())
 		{
-			result.add(getSingleOverpassQueryString(orChild));
+			List<List<OQLExpressionValue>> result = new ArrayList<>();
+			for(BooleanExpression<BooleanExpressionValue> orChild : child.getChildren())
+			{
+				result.add(getTerm(orChild));
+			}
+			return result;
 		}
-		return result;
+		else if(child.isAnd() || child.isValue())
+		{
+			return Collections.singletonList(getTerm(child));
+		}
+
+		throw new RuntimeException("The boolean expression is not in the expected format");
 	}
 
-	private static String getSingleOverpassQueryString(BooleanExpression<OQLExpressionValue> child)
+	private static List<OQLExpressionValue> getTerm(BooleanExpression<BooleanExpressionValue> child)
 	{
-		if(child.isValue()) return child.getValue().toOverpassQLString() + ";";
+		if(child.isValue()) return getOverpassValues(Collections.singletonList(child));
 
 		if(!child.isAnd())
 			throw new RuntimeException("The boolean expression is not in the expected format");
 
-		StringBuilder result = new StringBuilder();
-		for(BooleanExpression<OQLExpressionValue> valueChild : child.getChildren())
+		return getOverpassValues(child.getChildren());
+	}
+
+	/** @return the values of the given leaves that have an Overpass equivalent. The others, i.e.
+	 *          around and inside filters, are evaluated only locally */
+	private static List<OQLExpressionValue> getOverpassValues(
+			Iterable<BooleanExpression<BooleanExpressionValue>> leaves)
+	{
+		List<OQLExpressionValue> result = new ArrayList<>();
+		for(BooleanExpression<BooleanExpressionValue> leaf : leaves)
 		{
-			result.append(valueChild.getValue().toOverpassQLString());
+			if(leaf.getValue() instanceof OQLExpressionValue)
+			{
+				result.add((OQLExpressionValue) leaf.getValue());
+			}
 		}
-		result.append(";");
-
-		return result.toString();
+		return result;
 	}
 }
@@ -0,0 +1,98 @@
+package de.westnordost.streetcomplete.data.osm.tql;
+
+import java.util.Map;
+
+import de.westnordost.osmapi.map.data.Element;
+
+/** A BooleanExpression compiled for fast matching.
+ *
+ *  The tree is flattened into arrays of its leaves in the order in which they are evaluated. For
+ *  each leaf, it is stored at which leaf matching continues if it matches and if it does not, or
+ *  whether matching ends there with that result. So matching is a loop over the leaves, without
+ *  recursion and without a virtual call per node of the tree. Tag filters are matched directly on
+ *  the tags of the element, which are retrieved only once per element. */
+final class TagFilterMatcher
+{
+	private static final int TRUE = -1, FALSE = -2;
+
+	/** for each leaf its tag filter, or null if it is another kind of value */
+	private final TagFilterValue[] tagFilters;
+	private final BooleanExpressionValue[] values;
+	/** for each leaf the leaf to continue with if it matches / does not match, or TRUE or FALSE */
+	private final int[] onTrue, onFalse;
+	private final int start;
+
+	private int count;
+
+	TagFilterMatcher(BooleanExpression<? extends BooleanExpressionValue> expr)
+	{
+		int size = countLeaves(expr);
+		tagFilters = new TagFilterValue[size];
+		values = new BooleanExpressionValue[size];
+		onTrue = new int[size];
+		onFalse = new int[size];
+		// an expression without any filters matches everything
+		start = size > 0 ? 0 : TRUE;
+		compile(expr, TRUE, FALSE);
+	}
+
+	/** @param element the element to match
+	 *  @param obj what values that are not tag filters are matched on, i.e. the element together
+	 *             with its map data
+	 *  @return whether the given element matches */
+	boolean matches(Element element, Object obj)
+	{
+		Map<String, String> tags = element.getTags();
+		int i = start;
+		while(i >= 0)
+		{
+			TagFilterValue tagFilter = tagFilters[i];
+			boolean result = tagFilter != null ? tagFilter.matchesTags(tags) : values[i].matches(obj);
+			i = result ? onTrue[i] : onFalse[i];
+		}
+		return i == TRUE;
+	}
+
+	/** Adds the leaves of the given expression, which continue with whenTrue if the expression
+	 *  matches and with whenFalse if it does not */
+	private void compile(BooleanExpression<? extends BooleanExpressionValue> expr,
+						 int whenTrue, int whenFalse)
+	{
+		if(expr.isValue())
+		{
+			int i = count++;
+			BooleanExpressionValue value = expr.getValue();
+			if(value instanceof TagFilterValue) tagFilters[i] = (TagFilterValue) value;
+			values[i] = value;
+			onTrue[i] = whenTrue;
+			onFalse[i] = whenFalse;
+			return;
+		}
+
+		// the root and brackets have only one child, so they can be treated as an AND
+		boolean isOr = expr.isOr();
+		BooleanExpression<? extends BooleanExpressionValue> child = null;
+		for(BooleanExpression<? extends BooleanExpressionValue> next : expr.getChildren())
+		{
+			if(child != null)
+			{
+				int nextLeaf = count + countLeaves(child);
+				if(isOr) compile(child, whenTrue, nextLeaf);
+				else compile(child, nextLeaf, whenFalse);
+			}
+			child = next;
+		}
+		if(child != null) compile(child, whenTrue, whenFalse);
+	}
+
+	private static int countLeaves(BooleanExpression<? extends BooleanExpressionValue> expr)
+	{
+		if(expr.isValue()) return 1;
+		int result = 0;
+		for(BooleanExpression<? extends BooleanExpressionValue> child : expr.getChildren())
+		{
+			result += countLeaves(child);
+		}
+		return result;
+	}
+}
@@ -1,5 +1,12 @@
 package de.westnordost.streetcomplete.data.osm.tql;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
 import de.westnordost.osmapi.map.data.Element;
 
 /** A value within a BooleanExpression that filters by a tag (key-value) combination. I.e.
@@ -11,34 +18,58 @@ import de.westnordost.osmapi.map.data.Element;
  *  */
 public class TagFilterValue implements OQLExpressionValue
 {
+	private static final String ANY_VALUE = ".*";
+	private static final String REGEX_SPECIAL_CHARACTERS = ".[]{}()<>*+-=!?^$|\\";
+
 	public TagFilterValue(String key, String op, String value)
 	{
 		this.key = key;
 		this.op = op;
 		this.value = value;
+
+		/* the regex is compiled only once here instead of on every match. A regex that is just a
+		   choice between some plain values (i.e. residential|tertiary) is matched with a set */
+		if(isValueRegex() && !value.equals(ANY_VALUE))
+		{
+			valueChoices = parseValueChoices(value);
+			valuePattern = valueChoices == null ? Pattern.compile(value) : null;
+		}
+		else
+		{
+			valueChoices = null;
+			valuePattern = null;
+		}
 	}
 
-	private String key;
-	private String op;
-	private String value;
+	private final String key;
+	private final String op;
+	private final String value;
+
+	private final Set<String> valueChoices;
+	private final Pattern valuePattern;
 
 	public boolean matches(Object obj)
 	{
+		if(obj instanceof ElementInMapData) obj = ((ElementInMapData) obj).element;
 		if(!(obj instanceof Element)) return false;
-		Element element = (Element) obj;
+		return matchesTags(((Element) obj).getTags());
+	}
 
+	/** @return whether an element with the given tags matches this */
+	final boolean matchesTags(Map<String, String> tags)
+	{
 		if(value == null)
 		{
-			return element.getTags() != null && element.getTags().containsKey(key);
+			return tags != null && tags.containsKey(key);
 		}
 
-		String tagValue = element.getTags() != null ? element.getTags().get(key) : null;
+		String tagValue = tags != null ? tags.get(key) : null;
 
 		if(tagValue == null) return op.startsWith("!");
 		if(isValueRegex())
 		{
-			if(op.equals("!~")) return !tagValue.matches(value);
-			if(op.equals("~")) return tagValue.matches(value);
+			if(op.equals("!~")) return !matchesRegex(tagValue);
+			if(op.equals("~")) return matchesRegex(tagValue);
 		}
 		else
 		{
@@ -48,11 +79,90 @@ public class TagFilterValue implements OQLExpressionValue
 		return false;
 	}
 
+	private boolean matchesRegex(String tagValue)
+	{
+		if(valueChoices != null) return valueChoices.contains(tagValue);
+		if(valuePattern != null) return valuePattern.matcher(tagValue).matches();
+		// ANY_VALUE
+		return true;
+	}
+
+	/** @return the key an element must have to match this or null if also elements without that
+	 *          key can match this */
+	String getRequiredKey()
+	{
+		if(op == null || op.equals("=") || op.equals("~")) return key;
+		return null;
+	}
+
+	/** @return the values one of which the required key must have to match this or null if it
+	 *          may have any value */
+	Set<String> getRequiredValues()
+	{
+		if(op == null) return null;
+		if(op.equals("=")) return Collections.singleton(value);
+		if(op.equals("~") && valueChoices != null) return Collections.unmodifiableSet(valueChoices);
+		return null;
+	}
+
 	private boolean isValueRegex()
 	{
 		return op != null && op.indexOf('~') != -1;
 	}
 
+	/** @return the choices in the given regex if it consists only of plain values separated by "|"
+	 *          or null if it is any other regex */
+	private static Set<String> parseValueChoices(String regex)
+	{
+		String[] choices = regex.split("\\|", -1);
+		for(String choice : choices)
+		{
+			if(choice.isEmpty()) return null;
+			for(int i = 0; i < choice.length(); ++i)
+			{
+				if(REGEX_SPECIAL_CHARACTERS.indexOf(choice.charAt(i)) != -1) return null;
+			}
+		}
+		return new LinkedHashSet<>(Arrays.asList(choices));
+	}
+
+	/** @return a filter that matches exactly the elements that match this or the given filter or
+	 *          null if that cannot be expressed as one filter. I.e. highway=residential or
+	 *          highway~tertiary|service is highway~residential|tertiary|service */
+	TagFilterValue or(TagFilterValue other)
+	{
+		if(!key.equals(other.key)) return null;
+		Set<String> values = getPlainRequiredValues();
+		Set<String> otherValues = other.getPlainRequiredValues();
+		if(values == null || otherValues == null) return null;
+
+		Set<String> allValues = new LinkedHashSet<>(values);
+		allValues.addAll(otherValues);
+		StringBuilder regex = new StringBuilder();
+		for(String value : allValues)
+		{
+			if(regex.length() > 0) regex.append('|');
+			regex.append(value);
+		}
+		return new TagFilterValue(key, "~", regex.toString());
+	}
+
+	/** @return the required values if they can be put into a regex as they are */
+	private Set<String> getPlainRequiredValues()
+	{
+		Set<String> values = getRequiredValues();
+		if(values == null) return null;
+		for(String value : values)
+		{
+			if(value.isEmpty() || value.indexOf('"') != -1 || value.indexOf('\'') != -1) return null;
+			for(int i = 0; i < value.length(); ++i)
+			{
+				if(REGEX_SPECIAL_CHARACTERS.indexOf(value.charAt(i)) != -1) return null;
+			}
+		}
+		return values;
+	}
+
 	public String toString()
 	{
 		return toString(key, op, value);
@@ -88,13 +88,15 @@ public abstract class AOsmQuestChangesUpload
 		this.visibleQuestListener = visibleQuestListener;
 	}
 
-	public synchronized void upload(AtomicBoolean cancelState)
+	/** @return the number of answered quests that have been handled, be it that their changes
+	 *          were uploaded or dropped */
+	public synchronized int upload(AtomicBoolean cancelState)
 	{
 		int commits = 0, obsolete = 0;
 		changesetIdsCache = new HashMap<>();
 		unlockedQuests = new ArrayList<>();
 
-		for(OsmQuest quest : questDB.getAll(null, QuestStatus.ANSWERED))
+		for(OsmQuest quest : questDB.iterateAll(null, QuestStatus.ANSWERED))
 		{
 			if(cancelState.get()) break; // break so that the unreferenced stuff is deleted still
 
@@ -132,6 +134,8 @@ public abstract class AOsmQuestChangesUpload
 		}
 
 		closeOpenChangesets();
+
+		return commits + obsolete;
 	}
 
 	private void cleanUp()
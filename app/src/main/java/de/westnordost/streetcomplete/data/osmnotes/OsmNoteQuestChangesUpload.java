@@ -30,7 +30,7 @@ public class OsmNoteQuestChangesUpload
 	public void upload(AtomicBoolean cancelState)
 	{
 		int created = 0, obsolete = 0;
-		for(OsmNoteQuest quest : questDB.getAll(null, QuestStatus.ANSWERED))
+		for(OsmNoteQuest quest : questDB.iterateAll(null, QuestStatus.ANSWERED))
 		{
 			if(cancelState.get()) break;
 
@@ -13,6 +13,7 @@ import javax.inject.Inject;
 
 import de.westnordost.streetcomplete.data.AQuestDao;
 import de.westnordost.streetcomplete.data.QuestStatus;
+import de.westnordost.streetcomplete.data.QuestType;
 import de.westnordost.streetcomplete.data.WhereSelectionBuilder;
 import de.westnordost.streetcomplete.util.Serializer;
 import de.westnordost.osmapi.map.data.BoundingBox;
@@ -69,6 +70,8 @@ public class OsmNoteQuestDao extends AQuestDao<OsmNoteQuest>
 	@Override protected String getQuestStatusColumnName() { return Columns.QUEST_STATUS; }
 	@Override protected String getLastChangedColumnName() {	return Columns.LAST_UPDATE; }
 
+	@Override protected QuestType getQuestType(String questTypeName) { return questType; }
+
 	@Override protected synchronized long executeInsert(OsmNoteQuest quest, boolean replace)
 	{
 		SQLiteStatement stmt = replace ? this.replace : this.add;
@@ -1,5 +1,6 @@
 package de.westnordost.streetcomplete.data.tiles;
 
+import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -7,20 +8,24 @@ import android.database.sqlite.SQLiteStatement;
 import android.graphics.Point;
 import android.graphics.Rect;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 /** Keeps info in which areas quests have been downloaded already in a tile grid of zoom level 14
- *  (~0.022° per tile -> a few kilometers sidelength)*/
+ *  (~0.022° per tile -> a few kilometers sidelength). All the info is also held in memory, the
+ *  database is only written to */
+@Singleton
 public class DownloadedTilesDao
 {
 	private final SQLiteOpenHelper dbHelper;
 
 	private final SQLiteStatement insert;
 
+	private DownloadedTilesIndex index;
+
 	@Inject
 	public DownloadedTilesDao(SQLiteOpenHelper dbHelper)
 	{
@@ -33,14 +38,16 @@ public class DownloadedTilesDao
 					DownloadedTilesTable.Columns.X+","+
 					DownloadedTilesTable.Columns.Y+","+
 					DownloadedTilesTable.Columns.QUEST_TYPE+","+
-					DownloadedTilesTable.Columns.DATE+
-				") values (?,?,?,?);");
+					DownloadedTilesTable.Columns.DATE+","+
+					DownloadedTilesTable.Columns.FULL_DOWNLOAD_DATE+
+				") values (?,?,?,?,?);");
 	}
 
 	/** Persist that the given quest type has been downloaded in every tile in the given tile range */
-	public void put(Rect tiles, String questTypeName)
+	public synchronized void put(Rect tiles, String questTypeName)
 	{
 		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		DownloadedTilesIndex index = getIndex();
 
 		db.beginTransaction();
 		long time = System.currentTimeMillis();
@@ -52,51 +59,112 @@ public class DownloadedTilesDao
 				insert.bindLong(2,y);
 				insert.bindString(3, questTypeName);
 				insert.bindLong(4,time);
+				insert.bindLong(5,time);
 				insert.executeInsert();
 				insert.clearBindings();
 			}
 		}
 		db.setTransactionSuccessful();
 		db.endTransaction();
+
+		for(int x = tiles.left; x <= tiles.right; ++x)
+		{
+			for(int y = tiles.top; y <= tiles.bottom; ++y)
+			{
+				index.put(x, y, questTypeName, time, time);
+			}
+		}
+	}
+
+	/** Persist that the given quest type has been refreshed incrementally (only the changes since
+	 *  the last download were downloaded) in every tile in the given tile range. This does not
+	 *  change the date of the last full download */
+	public synchronized void putRefreshed(Rect tiles, String questTypeName)
+	{
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		DownloadedTilesIndex index = getIndex();
+
+		long time = System.currentTimeMillis();
+		ContentValues values = new ContentValues();
+		values.put(DownloadedTilesTable.Columns.DATE, time);
+
+		String where =
+				DownloadedTilesTable.Columns.X + " BETWEEN ? AND ? AND " +
+				DownloadedTilesTable.Columns.Y + " BETWEEN ? AND ? AND " +
+				DownloadedTilesTable.Columns.QUEST_TYPE + " = ?";
+		String[] whereArgs = {
+				String.valueOf(tiles.left), String.valueOf(tiles.right),
+				String.valueOf(tiles.top), String.valueOf(tiles.bottom),
+				questTypeName
+		};
+
+		db.update(DownloadedTilesTable.NAME, values, where, whereArgs);
+
+		for(int x = tiles.left; x <= tiles.right; ++x)
+		{
+			for(int y = tiles.top; y <= tiles.bottom; ++y)
+			{
+				index.putRefreshed(x, y, questTypeName, time);
+			}
+		}
 	}
 
 	/** Invalidate all quest types within the given tile. (consider them as not-downloaded)*/
-	public int remove(Point tile)
+	public synchronized int remove(Point tile)
 	{
 		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		DownloadedTilesIndex index = getIndex();
+
 		String[] whereArgs = {String.valueOf(tile.x), String.valueOf(tile.y)};
-		return db.delete(DownloadedTilesTable.NAME,
+		int result = db.delete(DownloadedTilesTable.NAME,
 				DownloadedTilesTable.Columns.X + " = ? AND " +
 				DownloadedTilesTable.Columns.Y + " = ?", whereArgs);
+
+		index.remove(tile.x, tile.y);
+		return result;
 	}
 
 	/** @return a list of quest type names which have already been downloaded in every tile in the
 	 *          given tile range */
-	public List<String> get(Rect tiles, long ignoreOlderThan)
+	public synchronized List<String> get(Rect tiles, long ignoreOlderThan)
 	{
-		SQLiteDatabase db = dbHelper.getReadableDatabase();
-
-		int tileCount = (1 + tiles.width()) * (1 + tiles.height());
+		return getIndex().get(tiles.left, tiles.top, tiles.right, tiles.bottom, ignoreOlderThan);
+	}
 
-		String where =
-				DownloadedTilesTable.Columns.X + " BETWEEN ? AND ? AND " +
-				DownloadedTilesTable.Columns.Y + " BETWEEN ? AND ? AND " +
-				DownloadedTilesTable.Columns.DATE + " > ?";
-		String[] whereArgs = {
-				String.valueOf(tiles.left), String.valueOf(tiles.right),
-				String.valueOf(tiles.top), String.valueOf(tiles.bottom),
-				String.valueOf(ignoreOlderThan)
-		};
+	/** @return for each quest type which has been downloaded in every tile in the given tile range
+	 *          and whose last full download in every one of these tiles is not older than the
+	 *          given time: the date of the oldest download in these tiles. So, all changes since
+	 *          then would need to be downloaded to be up-to-date in all the tiles. */
+	public synchronized Map<String, Long> getOldestDownloadDates(Rect tiles, long ignoreFullDownloadsOlderThan)
+	{
+		return getIndex().getOldestDownloadDates(
+				tiles.left, tiles.top, tiles.right, tiles.bottom, ignoreFullDownloadsOlderThan);
+	}
 
-		String[] cols = { DownloadedTilesTable.Columns.QUEST_TYPE};
-		String groupBy = DownloadedTilesTable.Columns.QUEST_TYPE;
-		String having = "COUNT(*) >= " + tileCount;
+	/** The index is loaded from the database on first use */
+	private DownloadedTilesIndex getIndex()
+	{
+		if(index == null)
+		{
+			index = loadIndex();
+		}
+		return index;
+	}
 
-		Cursor cursor = db.query(DownloadedTilesTable.NAME,	cols, where, whereArgs, groupBy, having, null);
+	private DownloadedTilesIndex loadIndex()
+	{
+		SQLiteDatabase db = dbHelper.getReadableDatabase();
 
-		if(cursor.getCount() == 0) return Collections.emptyList();
+		String[] cols = {
+				DownloadedTilesTable.Columns.X,
+				DownloadedTilesTable.Columns.Y,
+				DownloadedTilesTable.Columns.QUEST_TYPE,
+				DownloadedTilesTable.Columns.DATE,
+				DownloadedTilesTable.Columns.FULL_DOWNLOAD_DATE
+		};
+		Cursor cursor = db.query(DownloadedTilesTable.NAME, cols, null, null, null, null, null);
 
-		List<String> result = new ArrayList<>(cursor.getCount());
+		DownloadedTilesIndex result = new DownloadedTilesIndex();
 
 		try
 		{
@@ -104,8 +172,8 @@ public class DownloadedTilesDao
 			{
 				while(!cursor.isAfterLast())
 				{
-					String questTypeName = cursor.getString(0);
-					result.add(questTypeName);
+					result.put(cursor.getInt(0), cursor.getInt(1), cursor.getString(2),
+							cursor.getLong(3), cursor.getLong(4));
 					cursor.moveToNext();
 				}
 			}
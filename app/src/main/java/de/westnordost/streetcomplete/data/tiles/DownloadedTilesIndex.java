@@ -0,0 +1,167 @@
+package de.westnordost.streetcomplete.data.tiles;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** In-memory index of in which tiles which quest types have been downloaded and when. Used by the
+ *  DownloadedTilesDao to answer queries without going to the database.
+ *
+ *  For each quest type, the downloaded tiles are kept sorted by their x and then y coordinate in a
+ *  primitive array, next to the download dates. So, looking up a range of tiles is one binary
+ *  search per column of tiles. */
+class DownloadedTilesIndex
+{
+	private final Map<String, TileDates> byQuestType = new HashMap<>();
+
+	void put(int x, int y, String questTypeName, long date, long fullDownloadDate)
+	{
+		TileDates tiles = byQuestType.get(questTypeName);
+		if(tiles == null)
+		{
+			tiles = new TileDates();
+			byQuestType.put(questTypeName, tiles);
+		}
+		tiles.put(key(x, y), date, fullDownloadDate);
+	}
+
+	/** Sets the date of the given quest type in the given tile, if it has been downloaded there */
+	void putRefreshed(int x, int y, String questTypeName, long date)
+	{
+		TileDates tiles = byQuestType.get(questTypeName);
+		if(tiles == null) return;
+		int index = tiles.indexOf(key(x, y));
+		if(index >= 0) tiles.dates[index] = date;
+	}
+
+	/** @return the number of quest types removed from the given tile */
+	int remove(int x, int y)
+	{
+		int key = key(x, y);
+		int result = 0;
+		for(TileDates tiles : byQuestType.values())
+		{
+			if(tiles.remove(key)) result++;
+		}
+		return result;
+	}
+
+	/** @return quest type names which have been downloaded in every tile in the given tile range
+	 *          after the given time */
+	List<String> get(int left, int top, int right, int bottom, long ignoreOlderThan)
+	{
+		List<String> result = new ArrayList<>();
+		for(Map.Entry<String, TileDates> entry : byQuestType.entrySet())
+		{
+			TileDates tiles = entry.getValue();
+			if(tiles.getOldestDate(left, top, right, bottom, ignoreOlderThan, false) != null)
+			{
+				result.add(entry.getKey());
+			}
+		}
+		return result;
+	}
+
+	/** @return for each quest type which has been downloaded in every tile in the given tile range
+	 *          and whose last full download in every one of these tiles is after the given time:
+	 *          the date of the oldest download in these tiles. */
+	Map<String, Long> getOldestDownloadDates(int left, int top, int right, int bottom,
+											 long ignoreFullDownloadsOlderThan)
+	{
+		Map<String, Long> result = new HashMap<>();
+		for(Map.Entry<String, TileDates> entry : byQuestType.entrySet())
+		{
+			TileDates tiles = entry.getValue();
+			Long date = tiles.getOldestDate(left, top, right, bottom,
+					ignoreFullDownloadsOlderThan, true);
+			if(date != null)
+			{
+				result.put(entry.getKey(), date);
+			}
+		}
+		return result;
+	}
+
+	private static int key(int x, int y)
+	{
+		// at zoom 14, x and y are 14 bit numbers
+		return (x << 16) | y;
+	}
+
+	/** The tiles in which one quest type has been downloaded, with their dates */
+	private static class TileDates
+	{
+		private int[] keys = new int[16];
+		private long[] dates = new long[16];
+		private long[] fullDownloadDates = new long[16];
+		private int size;
+
+		int indexOf(int key)
+		{
+			return Arrays.binarySearch(keys, 0, size, key);
+		}
+
+		void put(int key, long date, long fullDownloadDate)
+		{
+			int index = indexOf(key);
+			if(index < 0)
+			{
+				index = -index - 1;
+				if(size == keys.length)
+				{
+					int capacity = keys.length * 2;
+					keys = Arrays.copyOf(keys, capacity);
+					dates = Arrays.copyOf(dates, capacity);
+					fullDownloadDates = Arrays.copyOf(fullDownloadDates, capacity);
+				}
+				int moved = size - index;
+				System.arraycopy(keys, index, keys, index + 1, moved);
+				System.arraycopy(dates, index, dates, index + 1, moved);
+				System.arraycopy(fullDownloadDates, index, fullDownloadDates, index + 1, moved);
+				keys[index] = key;
+				size++;
+			}
+			dates[index] = date;
+			fullDownloadDates[index] = fullDownloadDate;
+		}
+
+		boolean remove(int key)
+		{
+			int index = indexOf(key);
+			if(index < 0) return false;
+			int moved = size - index - 1;
+			System.arraycopy(keys, index + 1, keys, index, moved);
+			System.arraycopy(dates, index + 1, dates, index, moved);
+			System.arraycopy(fullDownloadDates, index + 1, fullDownloadDates, index, moved);
+			size--;
+			return true;
+		}
+
+		/** @return the oldest date of the tiles in the given tile range or null if not all tiles
+		 *          are contained or the (full download) date of any of them is not after the given
+		 *          time */
+		Long getOldestDate(int left, int top, int right, int bottom, long ignoreOlderThan,
+						   boolean byFullDownloadDate)
+		{
+			if(left > right || top > bottom) return null;
+
+			long[] filterDates = byFullDownloadDate ? fullDownloadDates : dates;
+			long oldest = Long.MAX_VALUE;
+			for(int x = left; x <= right; ++x)
+			{
+				int index = indexOf(key(x, top));
+				if(index < 0) return null;
+				for(int y = top; y <= bottom; ++y, ++index)
+				{
+					// the tiles of one column are next to each other in the array
+					if(index >= size || keys[index] != key(x, y)) return null;
+					if(filterDates[index] <= ignoreOlderThan) return null;
+					oldest = Math.min(oldest, dates[index]);
+				}
+			}
+			return oldest;
+		}
+	}
+}
@@ -10,6 +10,8 @@ public class DownloadedTilesTable
 				X = "x",
 				Y = "y",
 				QUEST_TYPE = "quest_type",
-				DATE = "date";
+				DATE = "date",
+				// date of the last download that was not only an incremental refresh
+				FULL_DOWNLOAD_DATE = "full_download_date";
 	}
 }
@@ -21,6 +21,7 @@ import de.westnordost.streetcomplete.ApplicationConstants;
 import de.westnordost.streetcomplete.Injector;
 import de.westnordost.streetcomplete.data.VisibleQuestListener;
 import de.westnordost.streetcomplete.data.VisibleQuestRelay;
+import de.westnordost.streetcomplete.data.osm.download.OverpassMapDataCache;
 import de.westnordost.streetcomplete.data.osm.upload.OsmQuestChangesUpload;
 import de.westnordost.streetcomplete.data.osm.upload.UndoOsmQuestChangesUpload;
 import de.westnordost.streetcomplete.data.osmnotes.CreateNoteUpload;
@@ -41,6 +42,7 @@ public class QuestChangesUploadService extends IntentService
 	@Inject Provider<UndoOsmQuestChangesUpload> undoQuestUploadProvider;
 	@Inject Provider<CreateNoteUpload> createNoteUploadProvider;
 	@Inject OAuthPrefs oAuth;
+	@Inject OverpassMapDataCache overpassCache;
 
 	private final IBinder binder = new Interface();
 
@@ -99,13 +101,17 @@ public class QuestChangesUploadService extends IntentService
 
 			UndoOsmQuestChangesUpload undoOsmQuestUpload = undoQuestUploadProvider.get();
 			undoOsmQuestUpload.setVisibleQuestListener(visibleQuestRelay);
-			undoOsmQuestUpload.upload(cancelState);
+			int osmChanges = undoOsmQuestUpload.upload(cancelState);
+			if (osmChanges > 0) overpassCache.clear();
 
 			if (cancelState.get()) return;
 
 			OsmQuestChangesUpload osmQuestUpload = questUploadProvider.get();
 			osmQuestUpload.setVisibleQuestListener(visibleQuestRelay);
-			osmQuestUpload.upload(cancelState);
+			osmChanges = osmQuestUpload.upload(cancelState);
+			/* the map data cached from Overpass is outdated now. Replaying it would bring back the
+			   elements as they were before the changes */
+			if (osmChanges > 0) overpassCache.clear();
 
 			if (cancelState.get()) return;
 
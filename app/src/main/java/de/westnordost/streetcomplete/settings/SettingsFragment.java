@@ -6,6 +6,9 @@ import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.inject.Inject;
 
 import de.westnordost.streetcomplete.Injector;
@@ -94,6 +97,7 @@ public class SettingsFragment extends PreferenceFragment implements SharedPrefer
 			{
 				@Override protected Void doInBackground(Void... params)
 				{
+					List<OsmNoteQuest> changedQuests = new ArrayList<>();
 					for(OsmNoteQuest quest : osmNoteQuestDao.getAll(null,null))
 					{
 						if (quest.getStatus() == QuestStatus.NEW || quest.getStatus() == QuestStatus.INVISIBLE)
@@ -105,10 +109,11 @@ public class SettingsFragment extends PreferenceFragment implements SharedPrefer
 							if (quest.getStatus() != newQuestStatus)
 							{
 								quest.setStatus(newQuestStatus);
-								osmNoteQuestDao.update(quest);
+								changedQuests.add(quest);
 							}
 						}
 					}
+					osmNoteQuestDao.updateAll(changedQuests);
 					return null;
 				}
 
@@ -24,6 +24,8 @@ import javax.inject.Inject;
 import de.westnordost.streetcomplete.Injector;
 import de.westnordost.streetcomplete.data.Quest;
 import de.westnordost.streetcomplete.data.QuestGroup;
+import de.westnordost.streetcomplete.data.QuestMarkers;
+import de.westnordost.streetcomplete.data.QuestType;
 import de.westnordost.streetcomplete.data.QuestTypes;
 import de.westnordost.streetcomplete.data.osm.ElementGeometry;
 import de.westnordost.streetcomplete.util.SlippyMapMath;
@@ -347,34 +349,60 @@ public class QuestsMapFragment extends MapFragment implements TouchInput.TapResp
 			else      geoJson.append(",");
 
 			LatLon pos = quest.getMarkerLocation();
-			String questIconName = getActivity().getResources().getResourceEntryName(quest.getType().getIcon());
-
-			geoJson.append("{\"type\":\"Feature\",");
-			geoJson.append("\"geometry\":{\"type\":\"Point\",\"coordinates\": [");
-			geoJson.append(pos.getLongitude());
-			geoJson.append(",");
-			geoJson.append(pos.getLatitude());
-			geoJson.append("]},\"properties\": {\"type\":\"point\", \"kind\":\"");
-			geoJson.append(questIconName);
-			geoJson.append("\",\"");
-			geoJson.append(MARKER_QUEST_GROUP);
-			geoJson.append("\":\"");
-			geoJson.append(group.name());
-			geoJson.append("\",\"");
-			geoJson.append(MARKER_QUEST_ID);
-			geoJson.append("\":\"");
-			geoJson.append(quest.getId());
-			geoJson.append("\",\"");
-			geoJson.append("order");
-			geoJson.append("\":\"");
-			geoJson.append(questTypes.getQuestTypesSortedByImportance().indexOf(quest.getType()));
-			geoJson.append("\"}}");
+			appendQuestFeature(geoJson, quest.getId(), quest.getType(),
+					pos.getLatitude(), pos.getLongitude(), group);
 		}
 		geoJson.append("]}");
 
 		questsLayer.addGeoJson(geoJson.toString());
 	}
 
+	public void addQuestMarkers(QuestMarkers markers, QuestGroup group)
+	{
+		if(questsLayer == null) return;
+
+		StringBuilder geoJson = new StringBuilder();
+		geoJson.append("{\"type\":\"FeatureCollection\",\"features\": [");
+
+		for(int i = 0; i < markers.size(); ++i)
+		{
+			if(i > 0) geoJson.append(",");
+
+			appendQuestFeature(geoJson, markers.getId(i), markers.getType(i),
+					markers.getLatitude(i), markers.getLongitude(i), group);
+		}
+		geoJson.append("]}");
+
+		questsLayer.addGeoJson(geoJson.toString());
+	}
+
+	private void appendQuestFeature(StringBuilder geoJson, long questId, QuestType questType,
+									double latitude, double longitude, QuestGroup group)
+	{
+		String questIconName = getActivity().getResources().getResourceEntryName(questType.getIcon());
+
+		geoJson.append("{\"type\":\"Feature\",");
+		geoJson.append("\"geometry\":{\"type\":\"Point\",\"coordinates\": [");
+		geoJson.append(longitude);
+		geoJson.append(",");
+		geoJson.append(latitude);
+		geoJson.append("]},\"properties\": {\"type\":\"point\", \"kind\":\"");
+		geoJson.append(questIconName);
+		geoJson.append("\",\"");
+		geoJson.append(MARKER_QUEST_GROUP);
+		geoJson.append("\":\"");
+		geoJson.append(group.name());
+		geoJson.append("\",\"");
+		geoJson.append(MARKER_QUEST_ID);
+		geoJson.append("\":\"");
+		geoJson.append(questId);
+		geoJson.append("\",\"");
+		geoJson.append("order");
+		geoJson.append("\":\"");
+		geoJson.append(questTypes.getQuestTypesSortedByImportance().indexOf(questType));
+		geoJson.append("\"}}");
+	}
+
 	public void removeQuests(Collection<Long> questIds, QuestGroup group)
 	{
 		// TODO: this method may also be called for quests that are not displayed on this map (anymore)
@@ -91,6 +91,27 @@ public class SlippyMapMath
 		return new Rect(left, top, right, bottom);
 	}
 
+	/** Splits the given tile range into (up to) four quadrants of roughly equal size. A single
+	 *  tile can not be split, so the result is empty then */
+	public static List<Rect> splitIntoQuadrants(Rect tiles)
+	{
+		List<Rect> result = new ArrayList<>(4);
+		if(tiles.width() == 0 && tiles.height() == 0) return result;
+
+		int midX = tiles.left + tiles.width() / 2;
+		int midY = tiles.top + tiles.height() / 2;
+
+		result.add(new Rect(tiles.left, tiles.top, midX, midY));
+		if(tiles.width() > 0)
+			result.add(new Rect(midX + 1, tiles.top, tiles.right, midY));
+		if(tiles.height() > 0)
+			result.add(new Rect(tiles.left, midY + 1, midX, tiles.bottom));
+		if(tiles.width() > 0 && tiles.height() > 0)
+			result.add(new Rect(midX + 1, midY + 1, tiles.right, tiles.bottom));
+
+		return result;
+	}
+
 	private static double tile2lon(int x, int z) {
 		return x / Math.pow(2.0, z) * 360.0 - 180;
 	}
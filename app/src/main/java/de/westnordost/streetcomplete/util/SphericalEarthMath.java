@@ -52,6 +52,24 @@ public class SphericalEarthMath
 		return new BoundingBox(minLat, minLon, maxLat, maxLon);
 	}
 
+	/**
+	 * Calculate a bounding box that contains the given bounding box and everything that is at most
+	 * the given distance away from it. It is cut off at the poles and the 180th meridian
+	 * @param distance in meters
+	 */
+	public static BoundingBox enlargedBoundingBox(BoundingBox bbox, double distance)
+	{
+		double latDistance = toDegrees(distance / EARTH_RADIUS);
+		double minLat = max(bbox.getMinLatitude() - latDistance, -90);
+		double maxLat = min(bbox.getMaxLatitude() + latDistance, 90);
+		// the degrees of longitude that make up the distance are the most near the poles
+		double cosLat = cos(toRadians(max(abs(minLat), abs(maxLat))));
+		double lonDistance = cosLat > 0 ? latDistance / cosLat : 360;
+		double minLon = max(bbox.getMinLongitude() - lonDistance, -180);
+		double maxLon = min(bbox.getMaxLongitude() + lonDistance, 180);
+		return new BoundingBox(minLat, minLon, maxLat, maxLon);
+	}
+
 	/** @return a new position in the given distance and angle from the original position */
 	public static LatLon translate(LatLon pos, double distance, double angle)
 	{
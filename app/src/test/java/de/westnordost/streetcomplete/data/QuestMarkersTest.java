@@ -0,0 +1,43 @@
+package de.westnordost.streetcomplete.data;
+
+import junit.framework.TestCase;
+
+import static org.mockito.Mockito.mock;
+
+public class QuestMarkersTest extends TestCase
+{
+	public void testEmpty()
+	{
+		QuestMarkers markers = new QuestMarkers(0);
+		assertTrue(markers.isEmpty());
+		assertEquals(0, markers.size());
+	}
+
+	public void testAddGet()
+	{
+		QuestType type1 = mock(QuestType.class), type2 = mock(QuestType.class);
+		QuestMarkers markers = new QuestMarkers(1);
+		markers.add(1, type1, 53.5, 9.9);
+		markers.add(2, type2, -33.8, 151.2);
+		markers.add(3, type1, 0, 0);
+
+		assertEquals(3, markers.size());
+		assertEquals(2, markers.getId(1));
+		assertSame(type2, markers.getType(1));
+		assertEquals(-33.8, markers.getLatitude(1));
+		assertEquals(151.2, markers.getLongitude(1));
+		assertEquals(3, markers.getId(2));
+	}
+
+	public void testOutOfBounds()
+	{
+		QuestMarkers markers = new QuestMarkers(10);
+		markers.add(1, mock(QuestType.class), 1, 2);
+		try
+		{
+			markers.getId(1);
+			fail();
+		}
+		catch (IndexOutOfBoundsException ignore) {}
+	}
+}
@@ -0,0 +1,152 @@
+package de.westnordost.streetcomplete.data.download;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+
+import de.westnordost.streetcomplete.data.download.QuestDownloadService.DownloadJob;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class QuestDownloadServiceTest extends TestCase
+{
+	private long jobsCount;
+
+	@Override public void setUp()
+	{
+		jobsCount = 0;
+	}
+
+	public void testQueueOrder()
+	{
+		DownloadJob resumedAuto = preempted(job(false)).createResumedJob();
+		DownloadJob resumedPriority = preempted(job(true)).createResumedJob();
+		DownloadJob oldAuto = job(false);
+		DownloadJob oldPriority = job(true);
+		DownloadJob newAuto = job(false);
+		DownloadJob newPriority = job(true);
+
+		assertEquals(
+				Arrays.asList(resumedPriority, newPriority, oldPriority, resumedAuto, newAuto, oldAuto),
+				pollAll(oldAuto, resumedAuto, newPriority, oldPriority, resumedPriority, newAuto));
+	}
+
+	public void testResumedJobIsNotStarvedByNewerJobs()
+	{
+		DownloadJob resumed = preempted(running(job(true))).createResumedJob();
+		DownloadJob newer1 = job(true);
+		DownloadJob newer2 = job(true);
+
+		assertEquals(Arrays.asList(resumed, newer2, newer1), pollAll(newer1, resumed, newer2));
+	}
+
+	public void testResumedJobDownloadsRemainingQuestTypes()
+	{
+		DownloadJob job = new DownloadJob(null, 10, true, false, 3, null);
+		job.start(downloadWith(4));
+		DownloadJob resumed = preempted(job).createResumedJob();
+
+		assertEquals(6, (int) resumed.maxQuestTypes);
+		assertTrue(resumed.isResumed);
+		assertTrue(resumed.isPriority);
+		assertEquals(3, resumed.order);
+		assertFalse(resumed.isPreempted());
+	}
+
+	public void testNothingToResume()
+	{
+		DownloadJob job = new DownloadJob(null, 10, true, false, 0, null);
+		job.start(downloadWith(10));
+
+		assertNull(preempted(job).createResumedJob());
+	}
+
+	public void testPreemptsLeastImportantRunningJob()
+	{
+		DownloadJob auto = running(job(false));
+		DownloadJob priority = running(job(true));
+
+		assertSame(auto, findJobToPreempt(2, job(true), auto, priority));
+	}
+
+	public void testPreemptsOlderOfSamePriority()
+	{
+		DownloadJob older = running(job(true));
+		DownloadJob newer = running(job(true));
+
+		assertSame(older, findJobToPreempt(2, job(true), newer, older));
+	}
+
+	public void testDoesNotPreemptIfAThreadIsFree()
+	{
+		DownloadJob auto = running(job(false));
+		DownloadJob waiting = job(false);
+
+		assertNull(findJobToPreempt(2, job(true), auto, waiting));
+	}
+
+	public void testDoesNotPreemptIfAThreadBecomesFreeAnyway()
+	{
+		DownloadJob auto = running(job(false));
+		DownloadJob preempted = preempted(running(job(false)));
+		assertNull(findJobToPreempt(2, job(true), auto, preempted));
+
+		DownloadJob cancelled = running(job(false));
+		cancelled.cancel();
+		assertNull(findJobToPreempt(2, job(true), auto, cancelled));
+	}
+
+	public void testDoesNotPreemptMoreImportantJob()
+	{
+		DownloadJob priority1 = running(job(true));
+		DownloadJob priority2 = running(job(true));
+		assertNull(findJobToPreempt(2, job(false), priority1, priority2));
+
+		DownloadJob resumed1 = running(preempted(running(job(true))).createResumedJob());
+		DownloadJob resumed2 = running(preempted(running(job(true))).createResumedJob());
+		assertNull(findJobToPreempt(2, job(true), resumed1, resumed2));
+	}
+
+	private DownloadJob job(boolean isPriority)
+	{
+		return new DownloadJob(null, null, isPriority, false, jobsCount++, null);
+	}
+
+	private static DownloadJob running(DownloadJob job)
+	{
+		job.start(downloadWith(0));
+		return job;
+	}
+
+	private static DownloadJob preempted(DownloadJob job)
+	{
+		job.preempt();
+		return job;
+	}
+
+	private static QuestDownload downloadWith(int downloadedQuestTypes)
+	{
+		QuestDownload download = mock(QuestDownload.class);
+		when(download.isFinished()).thenReturn(false);
+		when(download.getDownloadedQuestTypes()).thenReturn(downloadedQuestTypes);
+		return download;
+	}
+
+	private static DownloadJob findJobToPreempt(int threads, DownloadJob job, DownloadJob... jobs)
+	{
+		return QuestDownloadService.findJobToPreempt(Arrays.asList(jobs), job, threads);
+	}
+
+	/** @return the given jobs in the order in which the executor's queue runs them */
+	private static List<DownloadJob> pollAll(DownloadJob... jobs)
+	{
+		PriorityBlockingQueue<DownloadJob> queue = new PriorityBlockingQueue<>(Arrays.asList(jobs));
+		List<DownloadJob> result = new ArrayList<>();
+		while(!queue.isEmpty()) result.add(queue.poll());
+		return result;
+	}
+}
@@ -0,0 +1,108 @@
+package de.westnordost.streetcomplete.data.osm;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.OsmLatLon;
+import de.westnordost.osmapi.map.data.OsmNode;
+import de.westnordost.osmapi.map.data.OsmWay;
+import de.westnordost.streetcomplete.data.osm.tql.FiltersParser;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OsmElementQuestTypeIndexTest extends TestCase
+{
+	public void testByKey()
+	{
+		OsmElementQuestType shops = createQuestType("nodes with shop");
+		OsmElementQuestTypeIndex<OsmElementQuestType> index = createIndex(shops);
+
+		assertEquals(Collections.singletonList(shops), index.getCandidates(node("shop", "bakery")));
+		assertTrue(index.getCandidates(node("amenity", "bench")).isEmpty());
+	}
+
+	public void testByKeyAndValue()
+	{
+		OsmElementQuestType benches = createQuestType("nodes with amenity=bench and !backrest");
+		OsmElementQuestType toilets = createQuestType("nodes with amenity ~ toilets|bench");
+		OsmElementQuestTypeIndex<OsmElementQuestType> index = createIndex(benches, toilets);
+
+		assertEquals(Arrays.asList(benches, toilets), index.getCandidates(node("amenity", "bench")));
+		assertEquals(Collections.singletonList(toilets), index.getCandidates(node("amenity", "toilets")));
+		assertTrue(index.getCandidates(node("amenity", "cafe")).isEmpty());
+	}
+
+	public void testByElementType()
+	{
+		OsmElementQuestType nodes = createQuestType("nodes with highway");
+		OsmElementQuestType ways = createQuestType("ways with highway");
+		OsmElementQuestTypeIndex<OsmElementQuestType> index = createIndex(nodes, ways);
+
+		assertEquals(Collections.singletonList(nodes), index.getCandidates(node("highway", "stop")));
+		assertEquals(Collections.singletonList(ways), index.getCandidates(way("highway", "path")));
+	}
+
+	public void testWithoutRequiredTags()
+	{
+		OsmElementQuestType notNamed = createQuestType("nodes with !name");
+		OsmElementQuestType anyOf = createQuestType("nodes with shop or amenity");
+		OsmElementQuestTypeIndex<OsmElementQuestType> index = createIndex(notNamed, anyOf);
+
+		assertEquals(Arrays.asList(notNamed, anyOf), index.getCandidates(node("leisure", "park")));
+	}
+
+	public void testWithoutTagFilters()
+	{
+		OsmElementQuestType custom = mock(OsmElementQuestType.class);
+		OsmElementQuestTypeIndex<OsmElementQuestType> index = createIndex(custom);
+
+		assertEquals(Collections.singletonList(custom), index.getCandidates(node("a", "b")));
+		assertEquals(Collections.singletonList(custom), index.getCandidates(way("a", "b")));
+	}
+
+	public void testKeepsOrder()
+	{
+		List<OsmElementQuestType> questTypes = new ArrayList<>();
+		questTypes.add(createQuestType("nodes with name"));
+		questTypes.add(mock(OsmElementQuestType.class));
+		questTypes.add(createQuestType("nodes with amenity=bench"));
+		questTypes.add(createQuestType("nodes with !ref"));
+		questTypes.add(createQuestType("nodes with amenity"));
+		OsmElementQuestTypeIndex<OsmElementQuestType> index = new OsmElementQuestTypeIndex<>(questTypes);
+
+		Map<String, String> tags = new HashMap<>();
+		tags.put("amenity", "bench");
+		tags.put("name", "Bank");
+		assertEquals(questTypes, index.getCandidates(new OsmNode(1, 1, new OsmLatLon(0,0), tags)));
+	}
+
+	private static OsmElementQuestTypeIndex<OsmElementQuestType> createIndex(OsmElementQuestType... questTypes)
+	{
+		return new OsmElementQuestTypeIndex<>(Arrays.asList(questTypes));
+	}
+
+	private static OsmElementQuestType createQuestType(String tagFilters)
+	{
+		SimpleOverpassQuestType questType = mock(SimpleOverpassQuestType.class);
+		when(questType.getTagFilterExpression()).thenReturn(new FiltersParser().parse(tagFilters));
+		return questType;
+	}
+
+	private static Element node(String key, String value)
+	{
+		return new OsmNode(1, 1, new OsmLatLon(0,0), Collections.singletonMap(key, value));
+	}
+
+	private static Element way(String key, String value)
+	{
+		return new OsmWay(1, 1, Arrays.asList(1L, 2L), Collections.singletonMap(key, value));
+	}
+}
@@ -1,5 +1,7 @@
 package de.westnordost.streetcomplete.data.osm.download;
 
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Bundle;
 
 import junit.framework.TestCase;
@@ -12,6 +14,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -23,6 +26,7 @@ import de.westnordost.streetcomplete.data.VisibleQuestListener;
 import de.westnordost.streetcomplete.data.osm.ElementGeometry;
 import de.westnordost.streetcomplete.data.osm.OsmElementQuestType;
 import de.westnordost.streetcomplete.data.osm.OsmQuest;
+import de.westnordost.streetcomplete.data.osm.SimpleOverpassQuestType;
 import de.westnordost.streetcomplete.data.osm.changes.StringMapChangesBuilder;
 import de.westnordost.streetcomplete.data.osm.persist.ElementGeometryDao;
 import de.westnordost.streetcomplete.data.osm.persist.MergedElementDao;
@@ -43,15 +47,22 @@ import static org.mockito.internal.verification.VerificationModeFactory.times;
 
 public class OsmQuestDownloadTest extends TestCase
 {
+	private SQLiteDatabase db;
+	private SQLiteOpenHelper dbHelper;
 	private ElementGeometryDao geometryDb;
 	private MergedElementDao elementDb;
 	private OsmQuestDao osmQuestDao;
+	private OverpassMapDataDao overpassServer;
 
 	@Override public void setUp()
 	{
+		db = mock(SQLiteDatabase.class);
+		dbHelper = mock(SQLiteOpenHelper.class);
+		when(dbHelper.getWritableDatabase()).thenReturn(db);
 		geometryDb = mock(ElementGeometryDao.class);
 		elementDb = mock(MergedElementDao.class);
 		osmQuestDao = mock(OsmQuestDao.class);
+		overpassServer = mock(OverpassMapDataDao.class);
 	}
 
 	public void testIgnoreBlacklistedPositionsAndInvalidGeometry()
@@ -70,7 +81,7 @@ public class OsmQuestDownloadTest extends TestCase
 
 		setUpOsmQuestDaoMockWithNoPreviousElements();
 
-		OsmQuestDownload dl = new OsmQuestDownload(geometryDb, elementDb, osmQuestDao);
+		OsmQuestDownload dl = new OsmQuestDownload(dbHelper, geometryDb, elementDb, osmQuestDao, overpassServer);
 
 		VisibleQuestListener listener = mock(VisibleQuestListener.class);
 		dl.setQuestListener(listener);
@@ -113,7 +124,7 @@ public class OsmQuestDownloadTest extends TestCase
 			}
 		}).when(osmQuestDao).deleteAll(any(Collection.class));
 
-		OsmQuestDownload dl = new OsmQuestDownload(geometryDb, elementDb, osmQuestDao);
+		OsmQuestDownload dl = new OsmQuestDownload(dbHelper, geometryDb, elementDb, osmQuestDao, overpassServer);
 
 		VisibleQuestListener listener = mock(VisibleQuestListener.class);
 		dl.setQuestListener(listener);
@@ -125,6 +136,145 @@ public class OsmQuestDownloadTest extends TestCase
 		verify(listener).onQuestsRemoved(any(Collection.class), any(QuestGroup.class));
 	}
 
+	public void testWriteToDatabaseInBatches()
+	{
+		List<ElementWithGeometry> list = new ArrayList<>();
+		for (int i = 0; i < 1200; ++i)
+		{
+			LatLon pos = new OsmLatLon(0.0, i * 0.0001);
+			ElementWithGeometry node = new ElementWithGeometry();
+			node.element = new OsmNode(i,0,pos,null);
+			node.geometry = new ElementGeometry(pos);
+			list.add(node);
+		}
+		OsmElementQuestType questType = new ListBackedQuestType(list);
+
+		setUpOsmQuestDaoMockWithNoPreviousElements();
+
+		OsmQuestDownload dl = new OsmQuestDownload(dbHelper, geometryDb, elementDb, osmQuestDao, overpassServer);
+		dl.download(questType, new BoundingBox(0,0,1,1), null);
+
+		verify(geometryDb, times(3)).putAll(any(Collection.class));
+		verify(elementDb, times(3)).putAll(any(Collection.class));
+		verify(osmQuestDao, times(3)).addAll(any(Collection.class));
+		// each batch is written in one transaction
+		verify(db, times(3)).beginTransaction();
+		verify(db, times(3)).setTransactionSuccessful();
+		verify(db, times(3)).endTransaction();
+	}
+
+	public void testDownloadSeveralSimpleQuestTypesInOneRequest()
+	{
+		LatLon pos = new OsmLatLon(3.0,4.0);
+		final Element bench = new OsmNode(1,0,pos,Collections.singletonMap("amenity","bench"));
+		final Element shop = new OsmNode(2,0,pos,Collections.singletonMap("shop","bakery"));
+
+		final SimpleOverpassQuestType benchQuestType = new TagFiltersQuestType("nodes with amenity=bench");
+		final SimpleOverpassQuestType shopQuestType = new TagFiltersQuestType("nodes with shop");
+		final SimpleOverpassQuestType toiletsQuestType = new TagFiltersQuestType("nodes with amenity=toilets");
+
+		setUpOsmQuestDaoMockWithNoPreviousElements();
+		doAnswer(new Answer<Boolean>()
+		{
+			@Override public Boolean answer(InvocationOnMock invocation) throws Throwable
+			{
+				MapDataWithGeometryHandler handler = (MapDataWithGeometryHandler) invocation.getArguments()[1];
+				handler.handle(bench, new ElementGeometry(bench.getPosition()));
+				handler.handle(shop, new ElementGeometry(shop.getPosition()));
+				return true;
+			}
+		}).when(overpassServer).getAndHandleQuota(anyString(), any(MapDataWithGeometryHandler.class));
+
+		final Map<OsmElementQuestType, Integer> addedQuestsByType = new HashMap<>();
+		doAnswer(new Answer<Integer>()
+		{
+			@Override public Integer answer(InvocationOnMock invocation) throws Throwable
+			{
+				Collection<OsmQuest> quests = (Collection<OsmQuest>) (invocation.getArguments()[0]);
+				for (OsmQuest quest : quests)
+				{
+					OsmElementQuestType questType = quest.getOsmElementQuestType();
+					Integer count = addedQuestsByType.get(questType);
+					addedQuestsByType.put(questType, count == null ? 1 : count + 1);
+				}
+				return quests.size();
+			}
+		}).when(osmQuestDao).addAll(any(Collection.class));
+
+		OsmQuestDownload dl = new OsmQuestDownload(dbHelper, geometryDb, elementDb, osmQuestDao, overpassServer);
+		assertTrue(dl.download(Arrays.asList(benchQuestType, shopQuestType, toiletsQuestType),
+				new BoundingBox(0,0,1,1), null));
+
+		// only one request for all the quest types
+		verify(overpassServer, times(1)).getAndHandleQuota(anyString(), any(MapDataWithGeometryHandler.class));
+
+		assertEquals(1, (int) addedQuestsByType.get(benchQuestType));
+		assertEquals(1, (int) addedQuestsByType.get(shopQuestType));
+		assertFalse(addedQuestsByType.containsKey(toiletsQuestType));
+	}
+
+	public void testRefreshOnlyRemovesQuestsOfChangedElements()
+	{
+		LatLon pos = new OsmLatLon(3.0,4.0);
+		final Element changedNode = new OsmNode(1,2,pos,Collections.singletonMap("shop","bakery"));
+		final Element newNode = new OsmNode(3,1,pos,Collections.singletonMap("amenity","bench"));
+
+		final SimpleOverpassQuestType questType = new TagFiltersQuestType("nodes with amenity=bench");
+
+		// in the quest database mock, there are quests for node 1 and node 2
+		List<OsmQuest> quests = new ArrayList<>();
+		quests.add(new OsmQuest(
+				11L, questType, Element.Type.NODE, 1, QuestStatus.NEW, null, null,
+				new Date(), new ElementGeometry(pos)));
+		quests.add(new OsmQuest(
+				12L, questType, Element.Type.NODE, 2, QuestStatus.NEW, null, null,
+				new Date(), new ElementGeometry(pos)));
+		when(osmQuestDao.getAll(
+				any(BoundingBox.class), any(QuestStatus.class), anyString(),
+				any(Element.Type.class), anyLong()))
+				.thenReturn(quests);
+
+		// only node 1 (which is not a bench anymore) and node 3 (new bench) changed
+		doAnswer(new Answer<Boolean>()
+		{
+			@Override public Boolean answer(InvocationOnMock invocation) throws Throwable
+			{
+				MapDataWithGeometryHandler handler = (MapDataWithGeometryHandler) invocation.getArguments()[1];
+				handler.handle(changedNode, new ElementGeometry(changedNode.getPosition()));
+				handler.handle(newNode, new ElementGeometry(newNode.getPosition()));
+				return true;
+			}
+		}).when(overpassServer).getAndHandleQuota(anyString(), any(MapDataWithGeometryHandler.class));
+
+		doAnswer(new Answer<Integer>()
+		{
+			@Override public Integer answer(InvocationOnMock invocation) throws Throwable
+			{
+				Collection<Long> deletedQuests = (Collection<Long>) (invocation.getArguments()[0]);
+				assertEquals(1, deletedQuests.size());
+				assertEquals(11L, (long) deletedQuests.iterator().next());
+				return 1;
+			}
+		}).when(osmQuestDao).deleteAll(any(Collection.class));
+
+		doAnswer(new Answer<Integer>()
+		{
+			@Override public Integer answer(InvocationOnMock invocation) throws Throwable
+			{
+				Collection<OsmQuest> addedQuests = (Collection<OsmQuest>) (invocation.getArguments()[0]);
+				assertEquals(1, addedQuests.size());
+				assertEquals(3, addedQuests.iterator().next().getElementId());
+				return 1;
+			}
+		}).when(osmQuestDao).addAll(any(Collection.class));
+
+		OsmQuestDownload dl = new OsmQuestDownload(dbHelper, geometryDb, elementDb, osmQuestDao, overpassServer);
+		assertTrue(dl.refresh(Collections.singletonList(questType), new BoundingBox(0,0,1,1),
+				System.currentTimeMillis(), null));
+
+		verify(osmQuestDao).deleteAll(any(Collection.class));
+		verify(osmQuestDao).addAll(any(Collection.class));
+	}
 
 	private void setUpOsmQuestDaoMockWithNoPreviousElements()
 	{
@@ -140,6 +290,24 @@ public class OsmQuestDownloadTest extends TestCase
 		ElementGeometry geometry;
 	}
 
+	private class TagFiltersQuestType extends SimpleOverpassQuestType
+	{
+		private final String tagFilters;
+
+		public TagFiltersQuestType(String tagFilters)
+		{
+			super(null);
+			this.tagFilters = tagFilters;
+		}
+
+		@Override protected String getTagFilters() { return tagFilters; }
+		@Override public AbstractQuestAnswerFragment createForm() { return null; }
+		@Override public int getIcon() { return 0; }
+		@Override public int getTitle(Map<String,String> tags) { return 0; }
+		@Override public void applyAnswerTo(Bundle answer, StringMapChangesBuilder changes) {}
+		@Override public String getCommitMessage() { return null; }
+	}
+
 	private class ListBackedQuestType implements OsmElementQuestType
 	{
 		private final List<ElementWithGeometry> list;
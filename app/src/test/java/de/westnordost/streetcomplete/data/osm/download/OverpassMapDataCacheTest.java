@@ -0,0 +1,177 @@
+package de.westnordost.streetcomplete.data.osm.download;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import de.westnordost.osmapi.ApiResponseReader;
+
+public class OverpassMapDataCacheTest extends TestCase
+{
+	private static final long ONE_HOUR = 60*60*1000;
+
+	private File directory;
+
+	@Override protected void setUp() throws Exception
+	{
+		directory = File.createTempFile("overpass", "cache");
+		assertTrue(directory.delete());
+		assertTrue(directory.mkdir());
+	}
+
+	@Override protected void tearDown() throws Exception
+	{
+		File[] files = directory.listFiles();
+		if(files != null) for (File file : files) file.delete();
+		directory.delete();
+	}
+
+	public void testGetNothing()
+	{
+		OverpassMapDataCache cache = new OverpassMapDataCache(directory, 100000, ONE_HOUR);
+		assertNull(cache.get("query"));
+	}
+
+	public void testPutAndGet() throws Exception
+	{
+		OverpassMapDataCache cache = new OverpassMapDataCache(directory, 100000, ONE_HOUR);
+		byte[] response = randomBytes(1000);
+
+		assertTrue(Arrays.equals(response, cache.putting("query", new ReadAll()).parse(asStream(response))));
+		assertTrue(Arrays.equals(response, readAll(cache.get("query"))));
+		assertNull(cache.get("other query"));
+	}
+
+	public void testDoesNotPutIfReaderFailed() throws Exception
+	{
+		OverpassMapDataCache cache = new OverpassMapDataCache(directory, 100000, ONE_HOUR);
+
+		try
+		{
+			cache.putting("query", new ApiResponseReader<Void>()
+			{
+				@Override public Void parse(InputStream in) throws Exception
+				{
+					in.read();
+					throw new OverpassQueryTooBigException("too big");
+				}
+			}).parse(asStream(randomBytes(1000)));
+			fail();
+		}
+		catch (OverpassQueryTooBigException ignore) {}
+
+		assertNull(cache.get("query"));
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	public void testDoesNotGetExpired() throws Exception
+	{
+		OverpassMapDataCache cache = new OverpassMapDataCache(directory, 100000, -1);
+		cache.putting("query", new ReadAll()).parse(asStream(randomBytes(1000)));
+
+		assertNull(cache.get("query"));
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	public void testEvictsLeastRecentlyUsed() throws Exception
+	{
+		// random data does not compress, so each response takes a bit more than 1000 bytes
+		OverpassMapDataCache cache = new OverpassMapDataCache(directory, 2500, ONE_HOUR);
+		cache.putting("a", new ReadAll()).parse(asStream(randomBytes(1000)));
+		cache.putting("b", new ReadAll()).parse(asStream(randomBytes(1000)));
+		cache.get("a").close();
+		cache.putting("c", new ReadAll()).parse(asStream(randomBytes(1000)));
+
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+		assertEquals(2, directory.listFiles().length);
+	}
+
+	public void testClear() throws Exception
+	{
+		OverpassMapDataCache cache = new OverpassMapDataCache(directory, 100000, ONE_HOUR);
+		cache.putting("query", new ReadAll()).parse(asStream(randomBytes(1000)));
+		cache.clear();
+
+		assertNull(cache.get("query"));
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	public void testDoesNotPutResponseToRequestMadeBeforeClear() throws Exception
+	{
+		final OverpassMapDataCache cache = new OverpassMapDataCache(directory, 100000, ONE_HOUR);
+		ApiResponseReader<byte[]> reader = cache.putting("query", new ApiResponseReader<byte[]>()
+		{
+			@Override public byte[] parse(InputStream in) throws Exception
+			{
+				// i.e. an upload finished while the response was being received
+				cache.clear();
+				return readAll(in);
+			}
+		});
+		reader.parse(asStream(randomBytes(1000)));
+
+		assertNull(cache.get("query"));
+		assertEquals(0, directory.listFiles().length);
+
+		// requests made after the clear are cached again
+		cache.putting("query", new ReadAll()).parse(asStream(randomBytes(1000)));
+		assertNotNull(cache.get("query"));
+	}
+
+	public void testPersistent() throws Exception
+	{
+		byte[] response = randomBytes(1000);
+		new OverpassMapDataCache(directory, 100000, ONE_HOUR)
+				.putting("query", new ReadAll()).parse(asStream(response));
+
+		OverpassMapDataCache cache = new OverpassMapDataCache(directory, 100000, ONE_HOUR);
+		assertTrue(Arrays.equals(response, readAll(cache.get("query"))));
+	}
+
+	private static class ReadAll implements ApiResponseReader<byte[]>
+	{
+		@Override public byte[] parse(InputStream in) throws Exception
+		{
+			return readAll(in);
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException
+	{
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[256];
+			int count;
+			while((count = in.read(buffer)) != -1)
+			{
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static byte[] randomBytes(int size)
+	{
+		byte[] result = new byte[size];
+		new Random().nextBytes(result);
+		return result;
+	}
+
+	private static InputStream asStream(byte[] bytes)
+	{
+		return new ByteArrayInputStream(bytes);
+	}
+}
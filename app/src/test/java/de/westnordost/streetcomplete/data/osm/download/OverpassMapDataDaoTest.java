@@ -30,7 +30,7 @@ public class OverpassMapDataDaoTest extends TestCase
 		when(osm.makeRequest(eq("interpreter"), eq("POST"), eq(false), any(ApiRequestWriter.class), any(OverpassStatusParser.class)))
 				.thenThrow(OsmTooManyRequestsException.class);
 
-		final OverpassMapDataDao dao = new OverpassMapDataDao(osm, provider);
+		final OverpassMapDataDao dao = new OverpassMapDataDao(osm, provider, new OverpassQuotaManager(), null);
 
 		// the dao will call get(), get an exception in return, ask its status
 		// then and at least wait for the specified amount of time before calling again
@@ -0,0 +1,117 @@
+package de.westnordost.streetcomplete.data.osm.download;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class OverpassQuotaManagerTest extends TestCase
+{
+	public void testDoesNotHandOutMorePermitsThanSlots() throws InterruptedException
+	{
+		OverpassQuotaManager quota = createQuota(2);
+		quota.acquire();
+		quota.acquire();
+
+		final List<String> acquired = Collections.synchronizedList(new ArrayList<String>());
+		Thread thread = startAcquiring(quota, "third", OverpassQuotaManager.PRIORITY_NORMAL, acquired);
+
+		Thread.sleep(200);
+		assertTrue(acquired.isEmpty());
+
+		quota.release();
+		thread.join(1000);
+		assertEquals(1, acquired.size());
+		assertEquals(1, quota.getWaitedPermitsCount());
+		assertEquals(3, quota.getPermitsCount());
+	}
+
+	public void testHandsOutPermitsByPriority() throws InterruptedException
+	{
+		OverpassQuotaManager quota = createQuota(1);
+		quota.acquire();
+
+		final List<String> acquired = Collections.synchronizedList(new ArrayList<String>());
+		Thread normal = startAcquiring(quota, "normal", OverpassQuotaManager.PRIORITY_NORMAL, acquired);
+		Thread.sleep(100);
+		Thread high = startAcquiring(quota, "high", OverpassQuotaManager.PRIORITY_HIGH, acquired);
+		Thread.sleep(100);
+
+		quota.release();
+		normal.join(1000);
+		high.join(1000);
+
+		assertEquals(2, acquired.size());
+		assertEquals("high", acquired.get(0));
+		assertEquals("normal", acquired.get(1));
+	}
+
+	public void testWaitsUntilSlotIsAvailableAgain() throws InterruptedException
+	{
+		OverpassQuotaManager quota = createQuota(2);
+
+		long time = System.currentTimeMillis();
+		OverpassStatus status = new OverpassStatus();
+		status.maxAvailableSlots = 2;
+		status.availableSlots = 0;
+		status.nextAvailableSlotIn = 0;
+		quota.update(status);
+
+		quota.acquire();
+		// Overpass only reports the time in seconds, so one more second is waited to be sure
+		assertTrue(System.currentTimeMillis() - time >= 1000);
+		assertEquals(1, quota.getWaitedPermitsCount());
+	}
+
+	public void testInterruptWhileWaiting() throws InterruptedException
+	{
+		final OverpassQuotaManager quota = createQuota(1);
+		quota.acquire();
+
+		final List<String> acquired = Collections.synchronizedList(new ArrayList<String>());
+		Thread thread = startAcquiring(quota, "interrupted", OverpassQuotaManager.PRIORITY_NORMAL, acquired);
+		Thread.sleep(100);
+		thread.interrupt();
+		thread.join(1000);
+
+		// the interrupted caller does not block the queue
+		quota.release();
+		quota.acquire();
+		assertTrue(acquired.isEmpty());
+	}
+
+	private static OverpassQuotaManager createQuota(int slots)
+	{
+		OverpassQuotaManager quota = new OverpassQuotaManager();
+		OverpassStatus status = new OverpassStatus();
+		status.maxAvailableSlots = slots;
+		status.availableSlots = slots;
+		quota.update(status);
+		return quota;
+	}
+
+	private static Thread startAcquiring(final OverpassQuotaManager quota, final String name,
+										 final int priority, final List<String> acquired)
+	{
+		Thread thread = new Thread()
+		{
+			@Override public void run()
+			{
+				quota.setPriorityForCurrentThread(priority);
+				try
+				{
+					quota.acquire();
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				acquired.add(name);
+				quota.release();
+			}
+		};
+		thread.start();
+		return thread;
+	}
+}
@@ -0,0 +1,36 @@
+package de.westnordost.streetcomplete.data.osm.download;
+
+import junit.framework.TestCase;
+
+public class StringInternerTest extends TestCase
+{
+	public void testReturnsSameInstance()
+	{
+		StringInterner interner = new StringInterner(10, 10);
+		String a = interner.intern(new String("highway"));
+		String b = interner.intern(new String("highway"));
+		assertSame(a, b);
+	}
+
+	public void testDoesNotInternLongStrings()
+	{
+		StringInterner interner = new StringInterner(10, 3);
+		String a = new String("abcd");
+		interner.intern(a);
+		assertNotSame(a, interner.intern(new String("abcd")));
+	}
+
+	public void testIsBounded()
+	{
+		StringInterner interner = new StringInterner(1, 10);
+		interner.intern("a");
+		String b = new String("b");
+		interner.intern(b);
+		assertNotSame(b, interner.intern(new String("b")));
+	}
+
+	public void testNull()
+	{
+		assertNull(new StringInterner(1, 1).intern(null));
+	}
+}
@@ -0,0 +1,161 @@
+package de.westnordost.streetcomplete.data.osm.persist;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.OsmRelationMember;
+import de.westnordost.osmapi.map.data.RelationMember;
+
+public class ElementCodecTest extends TestCase
+{
+	public void testDictionaryHasNoDuplicates()
+	{
+		Set<String> strings = new HashSet<>();
+		for(String string : ElementCodec.DICTIONARY)
+		{
+			assertTrue("\"" + string + "\" is in the dictionary twice", strings.add(string));
+		}
+	}
+
+	public void testEmptyTags()
+	{
+		Map<String, String> tags = new HashMap<>();
+		assertEquals(tags, ElementCodec.decodeTags(ElementCodec.encodeTags(tags)));
+	}
+
+	public void testEncodeDecodeTags()
+	{
+		Map<String, String> tags = new HashMap<>();
+		tags.put("highway", "residential");
+		tags.put("name", "Hauptstraße");
+		tags.put("surface", "asphalt");
+		tags.put("", "");
+
+		Map<String, String> decoded = ElementCodec.decodeTags(ElementCodec.encodeTags(tags));
+		assertEquals(tags, decoded);
+		assertEquals("Hauptstraße", decoded.get("name"));
+		assertTrue(decoded.containsKey("highway"));
+		assertFalse(decoded.containsKey("building"));
+		assertNull(decoded.get("building"));
+	}
+
+	public void testTagsInDictionaryTakeLessSpace()
+	{
+		Map<String, String> common = new HashMap<>();
+		common.put("highway", "residential");
+		Map<String, String> uncommon = new HashMap<>();
+		uncommon.put("higway", "residental");
+
+		assertTrue(ElementCodec.encodeTags(common).length < ElementCodec.encodeTags(uncommon).length);
+	}
+
+	public void testDecodedTagsAreUnmodifiable()
+	{
+		Map<String, String> tags = new HashMap<>();
+		tags.put("a", "b");
+		Map<String, String> decoded = ElementCodec.decodeTags(ElementCodec.encodeTags(tags));
+		try
+		{
+			decoded.put("c", "d");
+			fail();
+		}
+		catch(UnsupportedOperationException ignore) { }
+	}
+
+	public void testEncodeDecodeNodeIds()
+	{
+		List<Long> nodeIds = Arrays.asList(5L, 6L, 3L, 5000000000L, -1L, 0L, Long.MAX_VALUE, Long.MIN_VALUE, 5L);
+		assertEquals(nodeIds, ElementCodec.decodeNodeIds(ElementCodec.encodeNodeIds(nodeIds)));
+	}
+
+	public void testEmptyNodeIds()
+	{
+		List<Long> nodeIds = new ArrayList<>();
+		assertEquals(nodeIds, ElementCodec.decodeNodeIds(ElementCodec.encodeNodeIds(nodeIds)));
+	}
+
+	public void testEncodeDecodeMembers()
+	{
+		List<RelationMember> members = new ArrayList<>();
+		members.add(new OsmRelationMember(4000000000L, "outer", Element.Type.WAY));
+		members.add(new OsmRelationMember(1L, "some role", Element.Type.NODE));
+		members.add(new OsmRelationMember(3L, "", Element.Type.RELATION));
+
+		List<RelationMember> decoded = ElementCodec.decodeMembers(ElementCodec.encodeMembers(members));
+		assertEquals(members.size(), decoded.size());
+		for(int i = 0; i < members.size(); ++i)
+		{
+			assertEquals(members.get(i).getRef(), decoded.get(i).getRef());
+			assertEquals(members.get(i).getRole(), decoded.get(i).getRole());
+			assertEquals(members.get(i).getType(), decoded.get(i).getType());
+		}
+	}
+
+	public void testMemberWithoutRole()
+	{
+		List<RelationMember> members = new ArrayList<>();
+		members.add(new OsmRelationMember(1L, null, Element.Type.NODE));
+
+		List<RelationMember> decoded = ElementCodec.decodeMembers(ElementCodec.encodeMembers(members));
+		assertEquals("", decoded.get(0).getRole());
+	}
+
+	public void testDecodedElementDataIsSerializable() throws Exception
+	{
+		Map<String, String> tags = new HashMap<>();
+		tags.put("amenity", "bench");
+		tags.put("backrest", "yes");
+		List<Long> nodeIds = Arrays.asList(1L, 2L, 3L);
+
+		Map<String, String> decodedTags = ElementCodec.decodeTags(ElementCodec.encodeTags(tags));
+		List<Long> decodedNodeIds = ElementCodec.decodeNodeIds(ElementCodec.encodeNodeIds(nodeIds));
+
+		assertEquals(tags, serializeAndDeserialize(decodedTags));
+		assertEquals(nodeIds, serializeAndDeserialize(decodedNodeIds));
+	}
+
+	public void testUnknownVersion()
+	{
+		try
+		{
+			ElementCodec.decodeTags(new byte[]{99, 0});
+			fail();
+		}
+		catch(IllegalArgumentException ignore) { }
+	}
+
+	public void testTruncatedData()
+	{
+		Map<String, String> tags = new HashMap<>();
+		tags.put("some key", "some value");
+		byte[] bytes = ElementCodec.encodeTags(tags);
+		try
+		{
+			ElementCodec.decodeTags(Arrays.copyOf(bytes, bytes.length - 1));
+			fail();
+		}
+		catch(IllegalArgumentException ignore) { }
+	}
+
+	private static Object serializeAndDeserialize(Object object) throws Exception
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bos);
+		out.writeObject(object);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		return in.readObject();
+	}
+}
@@ -0,0 +1,98 @@
+package de.westnordost.streetcomplete.data.osm.persist;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.OsmLatLon;
+
+public class ElementGeometryCodecTest extends TestCase
+{
+	public void testEmpty()
+	{
+		List<List<LatLon>> rings = new ArrayList<>();
+		assertEquals(rings, ElementGeometryCodec.decode(ElementGeometryCodec.encode(rings)));
+	}
+
+	public void testEncodeDecode()
+	{
+		List<List<LatLon>> rings = new ArrayList<>();
+		rings.add(Arrays.<LatLon>asList(
+				new OsmLatLon(53.5501234, 9.9934567),
+				new OsmLatLon(53.5502345, 9.9935678),
+				new OsmLatLon(53.5501234, 9.9934567)));
+		rings.add(Collections.<LatLon>emptyList());
+		rings.add(Arrays.<LatLon>asList(
+				new OsmLatLon(-33.8567844, 151.2152967),
+				new OsmLatLon(-33.8567845, 151.2152968)));
+
+		assertEquals(rings, ElementGeometryCodec.decode(ElementGeometryCodec.encode(rings)));
+	}
+
+	public void testExtremeCoordinates()
+	{
+		List<List<LatLon>> rings = new ArrayList<>();
+		rings.add(Arrays.<LatLon>asList(
+				new OsmLatLon(-90, -180),
+				new OsmLatLon(90, 180),
+				new OsmLatLon(-90, -180),
+				new OsmLatLon(0, 0)));
+
+		assertEquals(rings, ElementGeometryCodec.decode(ElementGeometryCodec.encode(rings)));
+	}
+
+	public void testRoundsToOsmPrecision()
+	{
+		List<List<LatLon>> rings = new ArrayList<>();
+		rings.add(Collections.<LatLon>singletonList(new OsmLatLon(1.123456789, 2.987654321)));
+
+		LatLon pos = ElementGeometryCodec.decode(ElementGeometryCodec.encode(rings)).get(0).get(0);
+		assertEquals(1.1234568, pos.getLatitude());
+		assertEquals(2.9876543, pos.getLongitude());
+	}
+
+	public void testIsCompact()
+	{
+		List<LatLon> ring = new ArrayList<>();
+		for(int i = 0; i < 100; ++i)
+		{
+			ring.add(new OsmLatLon(53.55 + i * 0.00001, 9.99 + i * 0.00001));
+		}
+		byte[] bytes = ElementGeometryCodec.encode(Collections.singletonList(ring));
+		// two doubles would take 16 bytes per point
+		assertTrue(bytes.length < ring.size() * 5);
+	}
+
+	public void testDecodedIsSerializable() throws Exception
+	{
+		List<List<LatLon>> rings = new ArrayList<>();
+		rings.add(Arrays.<LatLon>asList(new OsmLatLon(1, 2), new OsmLatLon(3, 4)));
+		List<List<LatLon>> decoded = ElementGeometryCodec.decode(ElementGeometryCodec.encode(rings));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(decoded);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+		assertEquals(rings, in.readObject());
+	}
+
+	public void testUnknownVersion()
+	{
+		try
+		{
+			ElementGeometryCodec.decode(new byte[]{99, 0});
+			fail();
+		}
+		catch (IllegalArgumentException ignore) {}
+	}
+}
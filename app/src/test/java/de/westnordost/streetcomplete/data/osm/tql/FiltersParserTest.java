@@ -3,6 +3,7 @@ package de.westnordost.streetcomplete.data.osm.tql;
 import junit.framework.TestCase;
 
 import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.streetcomplete.util.SphericalEarthMath;
 
 /** Integration test for the filter parser and the filter expression, the whole way from parsing
  *  the tag filters expression to returning it as a OQL string. More convenient this way since the
@@ -233,6 +234,76 @@ public class FiltersParserTest extends TestCase
 				"out meta geom;", bbox);
 	}
 
+	public void testAround()
+	{
+		check("nodes with amenity=bench and !around(30, nodes with amenity=waste_basket)",
+				"node[\"amenity\"~\"^(bench|waste_basket)$\"];out meta geom;");
+		check("nodes with shop and AROUND( 15.5 ,ways with (highway or railway))",
+				"(node[\"shop\"];way[\"highway\"];way[\"railway\"];);out meta geom;");
+	}
+
+	public void testInside()
+	{
+		check("nodes with shop and inside(ways with building=\"retail)\")",
+				"(node[\"shop\"];way[\"building\"=\"retail)\"];);out meta geom;");
+		check("nodes with (shop and !inside(ways with building))",
+				"(node[\"shop\"];way[\"building\"];);out meta geom;");
+	}
+
+	public void testNestedSpatialFilters()
+	{
+		check("nodes with a and around(10, nodes with b and inside(ways with c))",
+				"(node[\"a\"];node[\"b\"];way[\"c\"];);out meta geom;");
+	}
+
+	public void testAroundInEnlargedBBox()
+	{
+		BoundingBox bbox = new BoundingBox(0, 0, 1, 2);
+		BoundingBox enlarged = SphericalEarthMath.enlargedBoundingBox(bbox, 30);
+		check("nodes with amenity=bench and !around(30, nodes with amenity=waste_basket)",
+				"(" +
+				"node[\"amenity\"=\"bench\"](0.0,0.0,1.0,2.0);" +
+				"node[\"amenity\"=\"waste_basket\"](" +
+						enlarged.getMinLatitude() + "," + enlarged.getMinLongitude() + "," +
+						enlarged.getMaxLatitude() + "," + enlarged.getMaxLongitude() + ");" +
+				");" +
+				"out meta geom;", bbox);
+	}
+
+	public void testInsideContainingAreas()
+	{
+		check("nodes with shop and inside(ways, relations with building)",
+				"is_in(0.5,1.0)->.a1;" +
+				"(" +
+				"node[\"shop\"](0.0,0.0,1.0,2.0);" +
+				"way[\"building\"](0.0,0.0,1.0,2.0);" +
+				"rel[\"building\"](0.0,0.0,1.0,2.0);" +
+				"way[\"building\"](pivot.a1);" +
+				"rel[\"building\"](pivot.a1);" +
+				");" +
+				"out meta geom;", new BoundingBox(0, 0, 1, 2));
+	}
+
+	public void testSpatialFilterToString()
+	{
+		assertEquals("!around(30.0, ways with highway)", SpatialFilterValue.around(true, 30,
+				"ways with highway").toString());
+		assertEquals("inside(ways with building)", SpatialFilterValue.inside(false,
+				"ways with building").toString());
+	}
+
+	public void testFailIfSpatialFilterInvalid()
+	{
+		shouldFail("nodes with inside");
+		shouldFail("nodes with around (10, nodes)");
+		shouldFail("nodes with around(nodes)");
+		shouldFail("nodes with around(ten, nodes)");
+		shouldFail("nodes with around(-1, nodes)");
+		shouldFail("nodes with around(10, nodes with)");
+		shouldFail("nodes with around(10, nodes with a");
+		shouldFail("nodes with inside(ways with building)and a");
+	}
+
 	private void shouldFail(String input)
 	{
 		try
@@ -0,0 +1,217 @@
+package de.westnordost.streetcomplete.data.osm.tql;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.OsmLatLon;
+import de.westnordost.osmapi.map.data.OsmNode;
+import de.westnordost.osmapi.map.data.OsmWay;
+import de.westnordost.streetcomplete.data.osm.ElementGeometry;
+import de.westnordost.streetcomplete.data.osm.download.MapDataWithGeometryHandler;
+
+public class MapDataIndexTest extends TestCase
+{
+	private static final String BENCHES_WITH_BASKET =
+			"nodes with amenity=bench and around(30, nodes with amenity=waste_basket)";
+
+	// 0.0001° of latitude are ~11m
+
+	public void testAround()
+	{
+		MapDataIndex mapData = new MapDataIndex();
+		Element bench = addNode(mapData, 1, 0, 0, "amenity", "bench");
+		addNode(mapData, 2, 0.0002, 0, "amenity", "waste_basket");
+		addNode(mapData, 3, 0.0010, 0, "amenity", "bench");
+
+		assertEquals(Collections.singletonList(bench), findAll(mapData, BENCHES_WITH_BASKET));
+	}
+
+	public void testAroundDistance()
+	{
+		MapDataIndex mapData = new MapDataIndex();
+		addNode(mapData, 1, 0, 0, "amenity", "bench");
+		addNode(mapData, 2, 0.0002, 0, "amenity", "waste_basket");
+
+		assertTrue(findAll(mapData,
+				"nodes with amenity=bench and around(15, nodes with amenity=waste_basket)").isEmpty());
+	}
+
+	public void testAroundOnlyMatchingElements()
+	{
+		MapDataIndex mapData = new MapDataIndex();
+		addNode(mapData, 1, 0, 0, "amenity", "bench");
+		addNode(mapData, 2, 0.0001, 0, "amenity", "recycling");
+
+		assertTrue(findAll(mapData, BENCHES_WITH_BASKET).isEmpty());
+	}
+
+	public void testNotAround()
+	{
+		MapDataIndex mapData = new MapDataIndex();
+		addNode(mapData, 1, 0, 0, "amenity", "bench");
+		addNode(mapData, 2, 0.0002, 0, "amenity", "waste_basket");
+		Element farBench = addNode(mapData, 3, 0.0010, 0, "amenity", "bench");
+
+		assertEquals(Collections.singletonList(farBench), findAll(mapData,
+				"nodes with amenity=bench and !around(30, nodes with amenity=waste_basket)"));
+	}
+
+	public void testAroundIsNotTheElementItself()
+	{
+		MapDataIndex mapData = new MapDataIndex();
+		Element bench = addNode(mapData, 1, 0, 0, "amenity", "bench");
+		String benchesNearBenches = "nodes with amenity=bench and around(30, nodes with amenity=bench)";
+
+		assertTrue(findAll(mapData, benchesNearBenches).isEmpty());
+
+		Element otherBench = addNode(mapData, 2, 0.0001, 0, "amenity", "bench");
+		assertEquals(Arrays.asList(bench, otherBench), findAll(mapData, benchesNearBenches));
+	}
+
+	public void testAroundWay()
+	{
+		MapDataIndex mapData = new MapDataIndex();
+		// the nearest node of the road is more than 1km away, but the road itself is only ~11m away
+		addWay(mapData, 1, false, "highway", "residential", p(0.0001, -0.01), p(0.0001, 0.01));
+		Element bench = addNode(mapData, 2, 0, 0, "amenity", "bench");
+
+		assertEquals(Collections.singletonList(bench), findAll(mapData,
+				"nodes with amenity=bench and around(20, ways with highway)"));
+	}
+
+	public void testAroundAcrossCells()
+	{
+		MapDataIndex mapData = new MapDataIndex();
+		Element bench = addNode(mapData, 1, 0.0199, 0.0199, "amenity", "bench");
+		addNode(mapData, 2, 0.0201, 0.0199, "amenity", "waste_basket");
+
+		assertEquals(Collections.singletonList(bench), findAll(mapData, BENCHES_WITH_BASKET));
+	}
+
+	public void testInside()
+	{
+		MapDataIndex mapData = new MapDataIndex();
+		addWay(mapData, 1, true, "building", "retail",
+				p(0, 0), p(0, 0.001), p(0.001, 0.001), p(0.001, 0), p(0, 0));
+		Element shopInside = addNode(mapData, 2, 0.0005, 0.0005, "shop", "bakery");
+		Element shopOutside = addNode(mapData, 3, 0.0015, 0.0005, "shop", "bakery");
+
+		assertEquals(Collections.singletonList(shopInside), findAll(mapData,
+				"nodes with shop and inside(ways with building)"));
+		assertEquals(Collections.singletonList(shopOutside), findAll(mapData,
+				"nodes with shop and !inside(ways with building)"));
+	}
+
+	public void testNotInsideHole()
+	{
+		MapDataIndex mapData = new MapDataIndex();
+		List<List<LatLon>> polygons = new ArrayList<>();
+		polygons.add(Arrays.asList(p(0, 0), p(0, 0.003), p(0.003, 0.003), p(0.003, 0), p(0, 0)));
+		polygons.add(Arrays.asList(p(0.001, 0.001), p(0.002, 0.001), p(0.002, 0.002),
+				p(0.001, 0.002), p(0.001, 0.001)));
+		OsmWay building = new OsmWay(1, 1, Arrays.asList(1L, 2L, 3L, 4L, 1L),
+				Collections.singletonMap("building", "yes"));
+		mapData.add(building, new ElementGeometry(null, polygons, p(0.0005, 0.0005)));
+
+		addNode(mapData, 2, 0.0015, 0.0015, "shop", "bakery");
+		Element shopInside = addNode(mapData, 3, 0.0005, 0.0015, "shop", "bakery");
+
+		assertEquals(Collections.singletonList(shopInside), findAll(mapData,
+				"nodes with shop and inside(ways with building)"));
+	}
+
+	public void testInsideLargeArea()
+	{
+		MapDataIndex mapData = new MapDataIndex();
+		addWay(mapData, 1, true, "landuse", "residential",
+				p(0, 0), p(0, 1), p(1, 1), p(1, 0), p(0, 0));
+		Element shop = addNode(mapData, 2, 0.5, 0.5, "shop", "bakery");
+
+		assertEquals(Collections.singletonList(shop), findAll(mapData,
+				"nodes with shop and inside(ways with landuse)"));
+	}
+
+	public void testAroundLongWay()
+	{
+		MapDataIndex mapData = new MapDataIndex();
+		Element road = addWay(mapData, 1, false, "highway", "residential",
+				p(0.0001, -1), p(0.0001, 1));
+		Element bench = addNode(mapData, 2, 0, 0, "amenity", "bench");
+
+		assertEquals(Collections.singletonList(bench), findAll(mapData,
+				"nodes with amenity=bench and around(20, ways with highway)"));
+		assertEquals(Collections.singletonList(road), findAll(mapData,
+				"ways with highway and around(20, nodes with amenity=bench)"));
+	}
+
+	public void testElementsWithoutGeometry()
+	{
+		MapDataIndex mapData = new MapDataIndex();
+		OsmNode bench = new OsmNode(1, 1, p(0, 0), Collections.singletonMap("amenity", "bench"));
+		mapData.add(bench, null);
+		addNode(mapData, 2, 0, 0, "amenity", "waste_basket");
+
+		assertEquals(2, mapData.size());
+		assertEquals(Collections.<Element>singletonList(bench),
+				findAll(mapData, "nodes with amenity=bench"));
+		assertTrue(findAll(mapData, BENCHES_WITH_BASKET).isEmpty());
+	}
+
+	public void testSpatialFilterCannotMatchElementAlone()
+	{
+		TagFilterExpression expr = new FiltersParser().parse(BENCHES_WITH_BASKET);
+		assertTrue(expr.hasSpatialFilters());
+		try
+		{
+			expr.matches(new OsmNode(1, 1, p(0, 0), Collections.singletonMap("amenity", "bench")));
+			fail();
+		}
+		catch(IllegalStateException e) { }
+	}
+
+	private static List<Element> findAll(MapDataIndex mapData, String filters)
+	{
+		final List<Element> result = new ArrayList<>();
+		mapData.findAll(new FiltersParser().parse(filters), new MapDataWithGeometryHandler()
+		{
+			@Override public void handle(Element element, ElementGeometry geometry)
+			{
+				result.add(element);
+			}
+		});
+		return result;
+	}
+
+	private static Element addNode(MapDataIndex mapData, long id, double lat, double lon,
+								   String key, String value)
+	{
+		OsmNode node = new OsmNode(id, 1, p(lat, lon), Collections.singletonMap(key, value));
+		mapData.add(node, new ElementGeometry(p(lat, lon)));
+		return node;
+	}
+
+	private static Element addWay(MapDataIndex mapData, long id, boolean isArea, String key,
+								  String value, LatLon... positions)
+	{
+		List<Long> nodeIds = new ArrayList<>();
+		for(int i = 0; i < positions.length; ++i) nodeIds.add((long) i);
+		OsmWay way = new OsmWay(id, 1, nodeIds, Collections.singletonMap(key, value));
+		List<List<LatLon>> lines = Collections.singletonList(Arrays.asList(positions));
+		ElementGeometry geometry = isArea
+				? new ElementGeometry(null, lines, positions[0])
+				: new ElementGeometry(lines, null, positions[0]);
+		mapData.add(way, geometry);
+		return way;
+	}
+
+	private static LatLon p(double lat, double lon)
+	{
+		return new OsmLatLon(lat, lon);
+	}
+}
@@ -0,0 +1,319 @@
+package de.westnordost.streetcomplete.data.osm.tql;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.OsmNode;
+import de.westnordost.osmapi.map.data.OsmRelation;
+import de.westnordost.osmapi.map.data.OsmWay;
+import de.westnordost.osmapi.map.data.RelationMember;
+import de.westnordost.streetcomplete.util.SphericalEarthMath;
+
+public class OverpassQueryMinimizerTest extends TestCase
+{
+	// Tests for queries that cannot be minimized are in FiltersParserTest
+
+	public void testRemovesImpliedTerms()
+	{
+		check("nodes with a or a and b", "node[\"a\"];out meta geom;");
+		check("nodes with a=b and c or a=b", "node[\"a\"=\"b\"];out meta geom;");
+	}
+
+	public void testRemovesDuplicateTerms()
+	{
+		check("nodes with (a or b) and (a or b)", "(node[\"a\"];node[\"b\"];);out meta geom;");
+	}
+
+	public void testMergesValuesOfSameKey()
+	{
+		check("nodes with (a=x or a=y) and b",
+				"node[\"a\"~\"^(x|y)$\"][\"b\"];out meta geom;");
+		check("nodes with a=x or a~y|z or a=x",
+				"node[\"a\"~\"^(x|y|z)$\"];out meta geom;");
+	}
+
+	public void testDoesNotMergeValuesOfNegations()
+	{
+		check("nodes with a!=x or a!=y",
+				"(node[\"a\"!=\"x\"];node[\"a\"!=\"y\"];);out meta geom;");
+		check("nodes with a!~x or a!~y",
+				"(node[\"a\"!~\"^(x)$\"];node[\"a\"!~\"^(y)$\"];);out meta geom;");
+	}
+
+	public void testDoesNotMergeValuesWithRegex()
+	{
+		check("nodes with a~x.* or a=y",
+				"(node[\"a\"~\"^(x.*)$\"];node[\"a\"=\"y\"];);out meta geom;");
+	}
+
+	public void testDoesNotMergeTermsThatDifferInMoreThanOneFilter()
+	{
+		check("nodes with a=x and b=x or a=y and b=y",
+				"(node[\"a\"=\"x\"][\"b\"=\"x\"];node[\"a\"=\"y\"][\"b\"=\"y\"];);out meta geom;");
+	}
+
+	public void testQueriesCommonFilterOnlyOnce()
+	{
+		check("ways with highway~primary|secondary and (name or ref or noname)",
+				"way[\"highway\"~\"^(primary|secondary)$\"]->.w1;" +
+				"(way.w1[\"name\"];way.w1[\"ref\"];way.w1[\"noname\"];);" +
+				"out meta geom;");
+	}
+
+	public void testQueriesShortCommonFilterNotOnlyOnce()
+	{
+		check("ways with a and (b or c or d)",
+				"(way[\"a\"][\"b\"];way[\"a\"][\"c\"];way[\"a\"][\"d\"];);out meta geom;");
+	}
+
+	public void testQueriesOnlyFiltersOnValuesOnlyOnce()
+	{
+		check("ways with !opening_hours_of_the_shop and (a or b or c or d)",
+				"(" +
+				"way[\"opening_hours_of_the_shop\"!~\".\"][\"a\"];" +
+				"way[\"opening_hours_of_the_shop\"!~\".\"][\"b\"];" +
+				"way[\"opening_hours_of_the_shop\"!~\".\"][\"c\"];" +
+				"way[\"opening_hours_of_the_shop\"!~\".\"][\"d\"];" +
+				");" +
+				"out meta geom;");
+	}
+
+	public void testMinimizesTermsOfSeveralExpressions()
+	{
+		List<TagFilterExpression> expressions = Arrays.asList(
+				parse("nodes with amenity=bench and !backrest"),
+				parse("nodes with amenity=bench and !backrest"),
+				parse("nodes, ways with shop"),
+				parse("nodes with shop and !name"));
+		assertEquals(
+				"(" +
+				"node[\"amenity\"=\"bench\"][\"backrest\"!~\".\"];" +
+				"node[\"shop\"];" +
+				"way[\"shop\"];" +
+				");" +
+				"out meta geom;",
+				TagFilterExpression.toOverpassQLString(expressions, null));
+	}
+
+	public void testMinimizesOnlyTermsInSamePlace()
+	{
+		String filters = "nodes with a and around(10, nodes with a and b)";
+		check(filters, "node[\"a\"];out meta geom;");
+
+		BoundingBox bbox = new BoundingBox(0, 0, 1, 1);
+		assertEquals(
+				"(" +
+				"node[\"a\"](0.0,0.0,1.0,1.0);" +
+				"node[\"a\"][\"b\"]" + toOverpassQLString(enlarged(bbox, 10)) + ";" +
+				");" +
+				"out meta geom;",
+				parse(filters).toOverpassQLString(bbox));
+	}
+
+	public void testQueriesCommonFilterOnlyOnceInSamePlace()
+	{
+		List<TagFilterExpression> expressions = Arrays.asList(
+				parse("ways with highway~primary|secondary and (name or ref or noname)"),
+				parse("nodes with a and around(10, nodes with b)"));
+		assertEquals(
+				"way[\"highway\"~\"^(primary|secondary)$\"](0.0,0.0,1.0,1.0)->.w1;" +
+				"(" +
+				"way.w1[\"name\"];way.w1[\"ref\"];way.w1[\"noname\"];" +
+				"node[\"a\"](0.0,0.0,1.0,1.0);" +
+				"node[\"b\"]" + toOverpassQLString(enlarged(new BoundingBox(0, 0, 1, 1), 10)) + ";" +
+				");" +
+				"out meta geom;",
+				TagFilterExpression.toOverpassQLString(expressions, new BoundingBox(0, 0, 1, 1)));
+	}
+
+	public void testNestedExpressionBecomesShort()
+	{
+		String filters = "ways with (highway=primary or highway=secondary or highway=tertiary) " +
+				"and (name or ref or noname=yes) and (!area or area=no)";
+		// 18 statements in the fully expanded form
+		check(filters,
+				"way[\"highway\"~\"^(primary|secondary|tertiary)$\"]->.w1;" +
+				"(" +
+				"way.w1[\"name\"][\"area\"!~\".\"];" +
+				"way.w1[\"name\"][\"area\"=\"no\"];" +
+				"way.w1[\"ref\"][\"area\"!~\".\"];" +
+				"way.w1[\"ref\"][\"area\"=\"no\"];" +
+				"way.w1[\"noname\"=\"yes\"][\"area\"!~\".\"];" +
+				"way.w1[\"noname\"=\"yes\"][\"area\"=\"no\"];" +
+				");" +
+				"out meta geom;");
+	}
+
+	public void testSemanticallyEqual()
+	{
+		checkSemanticallyEqual("nodes, ways with (a=x or a=y) and (b or c=z) and !d",
+				"a", "x|y", "b", "", "c", "z", "d", "");
+		checkSemanticallyEqual("nodes with (a=x or (b=y and a!=z)) and !c",
+				"a", "x|z", "b", "y", "c", "");
+		checkSemanticallyEqual("nodes with a=x and b or a=y and b or a=z or a~u|v and c",
+				"a", "x|y|z|u|v", "b", "", "c", "");
+		checkSemanticallyEqual("relations, ways with (a=x or a=y or b) and (a or b=y)",
+				"a", "x|y", "b", "y");
+		checkSemanticallyEqual("ways with highway~primary|secondary and (name or ref or noname=yes)" +
+				" and (!area or area=no)",
+				"highway", "primary|secondary", "name", "", "ref", "", "noname", "yes",
+				"area", "no");
+		checkSemanticallyEqual("nodes with (highway=primary or highway=secondary or highway) and" +
+				" (highway=primary or name) and highway!~secondary",
+				"highway", "primary|secondary", "name", "");
+		checkSemanticallyEqual("ways with (highway~a|b or highway~c|d and (s~x|y or m~.+:u) or" +
+				" highway=e and (f=y or g=y)) and !lit and (access!~p|n or (f and f!~p|n))",
+				"highway", "a|b|c|d|e", "s", "x|y", "m", "q:u", "lit", "", "access", "p|n",
+				"f", "p|y", "g", "y");
+	}
+
+	private static void check(String filters, String expected)
+	{
+		assertEquals(expected, parse(filters).toOverpassQLString(null));
+	}
+
+	private static BoundingBox enlarged(BoundingBox bbox, double distance)
+	{
+		return SphericalEarthMath.enlargedBoundingBox(bbox, distance);
+	}
+
+	private static String toOverpassQLString(BoundingBox bbox)
+	{
+		return "(" + bbox.getMinLatitude() + "," + bbox.getMinLongitude() + "," +
+				bbox.getMaxLatitude() + "," + bbox.getMaxLongitude() + ")";
+	}
+
+	private static TagFilterExpression parse(String filters)
+	{
+		return new FiltersParser().parse(filters);
+	}
+
+	/** Checks for every combination of the given tags (each key either not set, set to any of the
+	 *  given values or set to some other value) and for every element type that the element
+	 *  matches the expression exactly if it is found by the Overpass query of the expression.
+	 *
+	 *  @param keysAndValues key, values separated by "|", key, values, ... */
+	private static void checkSemanticallyEqual(String filters, String... keysAndValues)
+	{
+		TagFilterExpression expr = parse(filters);
+		String query = expr.toOverpassQLString(null);
+
+		List<String> keys = new ArrayList<>();
+		List<List<String>> possibleValues = new ArrayList<>();
+		for(int i = 0; i < keysAndValues.length; i += 2)
+		{
+			keys.add(keysAndValues[i]);
+			List<String> values = new ArrayList<>();
+			values.add(null);
+			values.add("other");
+			if(!keysAndValues[i + 1].isEmpty())
+			{
+				values.addAll(Arrays.asList(keysAndValues[i + 1].split("\\|")));
+			}
+			possibleValues.add(values);
+		}
+
+		int[] combination = new int[keys.size()];
+		do
+		{
+			Map<String, String> tags = new HashMap<>();
+			for(int i = 0; i < keys.size(); ++i)
+			{
+				String value = possibleValues.get(i).get(combination[i]);
+				if(value != null) tags.put(keys.get(i), value);
+			}
+			for(Element element : createElements(tags))
+			{
+				assertEquals(element.getType() + " " + tags + " with " + query,
+						expr.matches(element), OverpassQuery.finds(query, element));
+			}
+		}
+		while(nextCombination(combination, possibleValues));
+	}
+
+	private static boolean nextCombination(int[] combination, List<List<String>> possibleValues)
+	{
+		for(int i = 0; i < combination.length; ++i)
+		{
+			if(++combination[i] < possibleValues.get(i).size()) return true;
+			combination[i] = 0;
+		}
+		return false;
+	}
+
+	private static List<Element> createElements(Map<String, String> tags)
+	{
+		return Arrays.<Element>asList(
+				new OsmNode(0, 0, 0d, 0d, tags),
+				new OsmWay(0, 0, Collections.singletonList(0L), tags),
+				new OsmRelation(0, 0, Collections.<RelationMember>emptyList(), tags));
+	}
+
+	/** Evaluates the kind of Overpass queries created by TagFilterExpression the way Overpass does */
+	private static class OverpassQuery
+	{
+		private static final Pattern STATEMENT = Pattern.compile(
+				"(node|way|rel)(?:\\.(\\w+))?((?:\\[[^\\]]*\\])*)(?:->\\.(\\w+))?;");
+		private static final Pattern FILTER = Pattern.compile(
+				"\\[\"([^\"]*)\"(?:(=|!=|~|!~)\"([^\"]*)\")?\\]");
+
+		static boolean finds(String query, Element element)
+		{
+			Map<String, Boolean> namedSets = new HashMap<>();
+			boolean result = false;
+			Matcher statement = STATEMENT.matcher(query);
+			while(statement.find())
+			{
+				boolean found = getType(statement.group(1)) == element.getType();
+				if(statement.group(2) != null) found &= namedSets.get(statement.group(2));
+				Matcher filter = FILTER.matcher(statement.group(3));
+				while(filter.find())
+				{
+					found &= matches(filter.group(1), filter.group(2), filter.group(3),
+							element.getTags());
+				}
+
+				if(statement.group(4) != null) namedSets.put(statement.group(4), found);
+				else result |= found;
+			}
+			return result;
+		}
+
+		private static Element.Type getType(String oqlName)
+		{
+			switch(oqlName)
+			{
+				case "node": return Element.Type.NODE;
+				case "way":  return Element.Type.WAY;
+				default:     return Element.Type.RELATION;
+			}
+		}
+
+		private static boolean matches(String key, String op, String value, Map<String, String> tags)
+		{
+			String tagValue = tags.get(key);
+			if(op == null) return tagValue != null;
+			boolean has;
+			if(op.contains("~"))
+			{
+				// in Overpass, a regex matches if it is found anywhere in the value
+				has = tagValue != null && Pattern.compile(value).matcher(tagValue).find();
+			}
+			else
+			{
+				has = tagValue != null && tagValue.equals(value);
+			}
+			return op.startsWith("!") != has;
+		}
+	}
+}
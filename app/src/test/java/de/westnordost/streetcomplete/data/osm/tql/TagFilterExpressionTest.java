@@ -4,6 +4,9 @@ import junit.framework.TestCase;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import de.westnordost.osmapi.map.data.Element;
 
@@ -57,6 +60,62 @@ public class TagFilterExpressionTest extends TestCase
 		assertTrue(expr.matches(relation));
 	}
 
+	public void testMatchesElementsOfType()
+	{
+		TagFilterExpression expr = createMatchExpression(ElementsTypeFilter.WAYS);
+
+		assertFalse(expr.matchesElementsOfType(Element.Type.NODE));
+		assertTrue(expr.matchesElementsOfType(Element.Type.WAY));
+		assertFalse(expr.matchesElementsOfType(Element.Type.RELATION));
+	}
+
+	public void testRequiredTagsOfKeyAndValue()
+	{
+		Map<String, Set<String>> tags = requiredTags("nodes with a and b=c and d~e|f and g~.*");
+		assertEquals(4, tags.size());
+		assertNull(tags.get("a"));
+		assertEquals(set("c"), tags.get("b"));
+		assertEquals(set("e", "f"), tags.get("d"));
+		assertTrue(tags.containsKey("g"));
+		assertNull(tags.get("g"));
+	}
+
+	public void testNoRequiredTagsOfNegations()
+	{
+		assertTrue(requiredTags("nodes with !a and b!=c and d!~e").isEmpty());
+		assertTrue(requiredTags("nodes").isEmpty());
+	}
+
+	public void testRequiredTagsOfOr()
+	{
+		Map<String, Set<String>> tags = requiredTags("nodes with a=b and c or a=d");
+		assertEquals(1, tags.size());
+		assertEquals(set("b", "d"), tags.get("a"));
+
+		tags = requiredTags("nodes with a=b or a");
+		assertEquals(1, tags.size());
+		assertNull(tags.get("a"));
+
+		assertTrue(requiredTags("nodes with a or b").isEmpty());
+	}
+
+	public void testRequiredTagsOfAnd()
+	{
+		Map<String, Set<String>> tags = requiredTags("nodes with a~b|c and (a=c or a=d)");
+		assertEquals(1, tags.size());
+		assertEquals(set("c"), tags.get("a"));
+	}
+
+	private static Map<String, Set<String>> requiredTags(String filter)
+	{
+		return new FiltersParser().parse(filter).getRequiredTags();
+	}
+
+	private static Set<String> set(String... values)
+	{
+		return new HashSet<>(Arrays.asList(values));
+	}
+
 	private Element createElement(Element.Type type)
 	{
 		Element element = mock(Element.class);
@@ -0,0 +1,75 @@
+package de.westnordost.streetcomplete.data.osm.tql;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.OsmLatLon;
+import de.westnordost.osmapi.map.data.OsmNode;
+
+public class TagFilterMatcherTest extends TestCase
+{
+	private static final Element NODE = new OsmNode(1, 1, new OsmLatLon(0, 0), null);
+
+	public void testMatchesLikeTree()
+	{
+		checkMatchesLikeTree("a");
+		checkMatchesLikeTree("a*b*c");
+		checkMatchesLikeTree("a+b+c");
+		checkMatchesLikeTree("a+b*c+d");
+		checkMatchesLikeTree("(a+b)*c");
+		checkMatchesLikeTree("a*(b+c)*d");
+		checkMatchesLikeTree("a+b*(c+d)");
+		checkMatchesLikeTree("((a+b)*c+d)*e");
+		checkMatchesLikeTree("a*(b+c*(d+e))");
+		checkMatchesLikeTree("(a+b)*c*(d+e)");
+		checkMatchesLikeTree("((a))");
+	}
+
+	public void testMatchesEverythingWithoutFilters()
+	{
+		assertTrue(new FiltersParser().parse("nodes").matches(NODE));
+	}
+
+	public void testMatchesTags()
+	{
+		TagFilterExpression expr = new FiltersParser().parse(
+				"nodes with highway=bus_stop and (!shelter or shelter!~yes|no) or amenity~bench|waste_basket");
+
+		assertTrue(expr.matches(node("highway", "bus_stop")));
+		assertTrue(expr.matches(node("highway", "bus_stop", "shelter", "maybe")));
+		assertFalse(expr.matches(node("highway", "bus_stop", "shelter", "yes")));
+		assertTrue(expr.matches(node("amenity", "bench", "shelter", "yes")));
+		assertFalse(expr.matches(node("amenity", "fountain")));
+		assertFalse(expr.matches(NODE));
+	}
+
+	/** Checks for every combination of the values of the letters in the given expression that the
+	 *  compiled expression matches exactly if the expression tree matches */
+	private static void checkMatchesLikeTree(String expression)
+	{
+		String letters = expression.replaceAll("[^a-z]", "");
+		for(int combination = 0; combination < 1 << letters.length(); ++combination)
+		{
+			String input = expression;
+			for(int i = 0; i < letters.length(); ++i)
+			{
+				input = input.replace(letters.charAt(i), (combination & 1 << i) != 0 ? '1' : '0');
+			}
+			BooleanExpression<BooleanExpressionValue> tree = TestBooleanExpressionParser.parse(input);
+			assertEquals(input, tree.matches("1"), new TagFilterMatcher(tree).matches(NODE, "1"));
+		}
+	}
+
+	private static Element node(String... keysAndValues)
+	{
+		Map<String, String> tags = new HashMap<>();
+		for(int i = 0; i < keysAndValues.length; i += 2)
+		{
+			tags.put(keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return new OsmNode(1, 1, new OsmLatLon(0, 0), tags);
+	}
+}
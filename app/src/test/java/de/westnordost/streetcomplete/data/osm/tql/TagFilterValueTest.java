@@ -48,6 +48,35 @@ public class TagFilterValueTest extends TestCase
 		assertFalse(like.matches(new OsmNode(0, 0, 0d, 0d, null)));
 	}
 
+	public void testMatchesLikeOrWithEmptyChoice()
+	{
+		TagFilterValue like = new TagFilterValue("highway", "~", "residential|");
+
+		assertTrue(like.matches(elementWithTag("highway", "residential")));
+		assertTrue(like.matches(elementWithTag("highway", "")));
+		assertFalse(like.matches(elementWithTag("highway", "blub")));
+	}
+
+	public void testMatchesLikeOrOfRegexes()
+	{
+		TagFilterValue like = new TagFilterValue("highway", "~", "resi.*|[0-9]+");
+
+		assertTrue(like.matches(elementWithTag("highway", "residential")));
+		assertTrue(like.matches(elementWithTag("highway", "123")));
+		assertFalse(like.matches(elementWithTag("highway", "12a")));
+		assertFalse(like.matches(elementWithTag("highway", "unclassified")));
+	}
+
+	public void testMatchesNotLikeOr()
+	{
+		TagFilterValue notlike = new TagFilterValue("highway", "!~", "residential|unclassified");
+
+		assertFalse(notlike.matches(elementWithTag("highway", "residential")));
+		assertFalse(notlike.matches(elementWithTag("highway", "unclassified")));
+		assertTrue(notlike.matches(elementWithTag("highway", "residential|unclassified")));
+		assertTrue(notlike.matches(new OsmNode(0, 0, 0d, 0d, null)));
+	}
+
 	public void testMatchesNotLikeDot()
 	{
 		TagFilterValue notlike = new TagFilterValue("highway", "!~", ".*");
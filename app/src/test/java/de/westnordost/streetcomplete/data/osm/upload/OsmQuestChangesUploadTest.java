@@ -60,7 +60,7 @@ public class OsmQuestChangesUploadTest extends TestCase
 		ElementGeometryDao elementGeometryDao = mock(ElementGeometryDao.class);
 		MergedElementDao elementDB = mock(MergedElementDao.class);
 		OpenChangesetsDao openChangesetsDb = mock(OpenChangesetsDao.class);
-		when(questDb.getAll(null, QuestStatus.ANSWERED)).thenAnswer(
+		when(questDb.iterateAll(null, QuestStatus.ANSWERED)).thenAnswer(
 				new Answer<List<OsmQuest>>()
 				{
 					@Override public List<OsmQuest> answer(InvocationOnMock invocation) throws Throwable
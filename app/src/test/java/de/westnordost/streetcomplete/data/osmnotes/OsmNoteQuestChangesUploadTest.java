@@ -22,7 +22,7 @@ public class OsmNoteQuestChangesUploadTest extends TestCase
 	public void testCancel() throws InterruptedException
 	{
 		OsmNoteQuestDao questDb = mock(OsmNoteQuestDao.class);
-		when(questDb.getAll(null, QuestStatus.ANSWERED)).thenAnswer(
+		when(questDb.iterateAll(null, QuestStatus.ANSWERED)).thenAnswer(
 				new Answer<List<OsmNoteQuest>>()
 				{
 					@Override public List<OsmNoteQuest> answer(InvocationOnMock invocation) throws Throwable
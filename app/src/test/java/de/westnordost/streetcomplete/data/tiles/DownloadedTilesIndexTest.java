@@ -0,0 +1,167 @@
+package de.westnordost.streetcomplete.data.tiles;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+
+public class DownloadedTilesIndexTest extends TestCase
+{
+	private DownloadedTilesIndex index;
+
+	@Override public void setUp()
+	{
+		index = new DownloadedTilesIndex();
+	}
+
+	public void testEmpty()
+	{
+		assertTrue(index.get(0,0,0,0, 0).isEmpty());
+		assertTrue(index.getOldestDownloadDates(0,0,0,0, 0).isEmpty());
+	}
+
+	public void testPutGetOne()
+	{
+		put(5,8,5,8, "Huhu", 100);
+		List<String> huhus = index.get(5,8,5,8, 0);
+		assertEquals(1, huhus.size());
+		assertTrue(huhus.contains("Huhu"));
+	}
+
+	public void testPutGetOld()
+	{
+		put(5,8,5,8, "Huhu", 100);
+		assertTrue(index.get(5,8,5,8, 100).isEmpty());
+		assertFalse(index.get(5,8,5,8, 99).isEmpty());
+	}
+
+	public void testPutSomeOld()
+	{
+		put(0,0,1,3, "Huhu", 100);
+		put(1,3,5,5, "Huhu", 200);
+		assertTrue(index.get(0,0,2,2, 150).isEmpty());
+		assertFalse(index.get(0,0,1,2, 50).isEmpty());
+	}
+
+	public void testPutMoreGetOne()
+	{
+		put(5,8,6,10, "Huhu", 100);
+		assertFalse(index.get(5,8,5,8, 0).isEmpty());
+		assertFalse(index.get(6,10,6,10, 0).isEmpty());
+	}
+
+	public void testPutOneGetMore()
+	{
+		put(5,8,5,8, "Huhu", 100);
+		assertTrue(index.get(5,8,5,9, 0).isEmpty());
+		assertTrue(index.get(5,7,5,8, 0).isEmpty());
+		assertTrue(index.get(4,8,5,8, 0).isEmpty());
+	}
+
+	public void testGapInColumn()
+	{
+		put(0,0,0,1, "Huhu", 100);
+		put(0,3,0,4, "Huhu", 100);
+		assertTrue(index.get(0,0,0,4, 0).isEmpty());
+		assertFalse(index.get(0,3,0,4, 0).isEmpty());
+	}
+
+	public void testPutInAnyOrder()
+	{
+		put(3,3,3,3, "Huhu", 100);
+		put(0,0,0,0, "Huhu", 100);
+		put(2,0,3,2, "Huhu", 100);
+		put(0,1,1,3, "Huhu", 100);
+		put(0,2,0,2, "Huhu", 100);
+		put(1,0,1,0, "Huhu", 100);
+		put(2,3,2,3, "Huhu", 100);
+		assertFalse(index.get(0,0,3,3, 0).isEmpty());
+	}
+
+	public void testRemove()
+	{
+		put(0,0,3,3, "Huhu", 100);
+		put(0,0,0,0, "Haha", 100);
+		put(1,1,3,3, "Hihi", 100);
+		assertEquals(2, index.remove(0,0));
+		assertEquals(0, index.remove(0,0));
+		assertTrue(index.get(0,0,0,0, 0).isEmpty());
+		assertFalse(index.get(0,1,3,3, 0).isEmpty());
+	}
+
+	public void testPutSeveralQuestTypes()
+	{
+		put(0,0,5,5, "Huhu", 100);
+		put(4,4,6,6, "hoho", 100);
+		put(4,0,4,7, "hihi", 100);
+
+		List<String> check = index.get(0,0,2,2, 0);
+		assertEquals(1, check.size());
+		assertTrue(check.contains("Huhu"));
+
+		assertEquals(3, index.get(4,4,4,4, 0).size());
+
+		check = index.get(5,5,5,5, 0);
+		assertEquals(2, check.size());
+		assertTrue(check.contains("hoho"));
+		assertTrue(check.contains("Huhu"));
+
+		assertTrue(index.get(0,0,6,6, 0).isEmpty());
+	}
+
+	public void testGetOldestDownloadDates()
+	{
+		put(0,0,1,1, "Huhu", 100);
+		put(1,1,1,1, "Huhu", 200);
+		put(0,0,0,0, "Haha", 200);
+
+		Map<String, Long> dates = index.getOldestDownloadDates(0,0,1,1, 0);
+		assertEquals(1, dates.size());
+		assertEquals(100, (long) dates.get("Huhu"));
+
+		assertTrue(index.getOldestDownloadDates(0,0,1,1, 100).isEmpty());
+	}
+
+	public void testPutRefreshed()
+	{
+		put(0,0,1,1, "Huhu", 100);
+		for(int x = 0; x <= 2; ++x)
+		{
+			for(int y = 0; y <= 2; ++y)
+			{
+				index.putRefreshed(x, y, "Huhu", 200);
+			}
+		}
+		index.putRefreshed(0, 0, "Haha", 200);
+
+		// counts as downloaded...
+		assertFalse(index.get(0,0,1,1, 150).isEmpty());
+		// ...but not as fully downloaded
+		assertTrue(index.getOldestDownloadDates(0,0,1,1, 150).isEmpty());
+		assertEquals(200, (long) index.getOldestDownloadDates(0,0,1,1, 0).get("Huhu"));
+		// tiles that have not been downloaded before are not added
+		assertTrue(index.get(2,2,2,2, 0).isEmpty());
+		assertEquals(1, index.get(0,0,0,0, 0).size());
+	}
+
+	public void testManyTiles()
+	{
+		put(0,0,99,99, "Huhu", 100);
+		assertFalse(index.get(0,0,99,99, 0).isEmpty());
+		assertTrue(index.get(0,0,100,99, 0).isEmpty());
+		assertEquals(1, index.remove(50,50));
+		assertTrue(index.get(0,0,99,99, 0).isEmpty());
+		assertFalse(index.get(51,0,99,99, 0).isEmpty());
+	}
+
+	private void put(int left, int top, int right, int bottom, String questTypeName, long date)
+	{
+		for(int x = left; x <= right; ++x)
+		{
+			for(int y = top; y <= bottom; ++y)
+			{
+				index.put(x, y, questTypeName, date, date);
+			}
+		}
+	}
+}
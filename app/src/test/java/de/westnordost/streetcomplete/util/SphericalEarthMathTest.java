@@ -74,6 +74,36 @@ public class SphericalEarthMathTest extends TestCase
 		assertEquals(45, Math.round(SphericalEarthMath.bearing(pos, bbox.getMax())));
 	}
 
+	public void testEnlargedBoundingBox()
+	{
+		// at the equator, 0.01° are ~1112m
+		BoundingBox bbox = SphericalEarthMath.enlargedBoundingBox(
+				new BoundingBox(0, 0, 0.01, 0.01), 1112);
+		assertEquals(-0.01, bbox.getMinLatitude(), 0.0001);
+		assertEquals(-0.01, bbox.getMinLongitude(), 0.0001);
+		assertEquals(0.02, bbox.getMaxLatitude(), 0.0001);
+		assertEquals(0.02, bbox.getMaxLongitude(), 0.0001);
+	}
+
+	public void testEnlargedBoundingBoxLongitudeByLatitudeFarthestFromEquator()
+	{
+		// at 60°, 0.01° of longitude are only ~556m
+		BoundingBox bbox = SphericalEarthMath.enlargedBoundingBox(
+				new BoundingBox(59.99, 10, 60, 10.01), 556);
+		assertEquals(60.005, bbox.getMaxLatitude(), 0.0001);
+		assertEquals(9.99, bbox.getMinLongitude(), 0.0005);
+		assertEquals(10.02, bbox.getMaxLongitude(), 0.0005);
+	}
+
+	public void testEnlargedBoundingBoxIsCutOffAtBoundaries()
+	{
+		BoundingBox bbox = SphericalEarthMath.enlargedBoundingBox(
+				new BoundingBox(89.99, 179.99, 90, 180), 10000);
+		assertEquals(90, bbox.getMaxLatitude(), 0);
+		assertEquals(-180, bbox.getMinLongitude(), 0);
+		assertEquals(180, bbox.getMaxLongitude(), 0);
+	}
+
 	public void testEnclosingBoundingBoxLine()
 	{
 		List<LatLon> positions = new ArrayList<>();